@@ -0,0 +1,287 @@
+/**
+ * Cluster graphs at every threshold at once. CohesionGraphBuilder joins mutual
+ * friends x and y when min(C_{x,y}, C_{y,x}) exceeds the mean cohesion tau; here
+ * that minimum is the height of edge {x, y}, and the clusters at any threshold t
+ * are the components of the edges of height > t.
+ * The edges above a floor are sorted by height in parallel, then one
+ * union-find sweep, from the highest edge down, records each merge of two
+ * clusters: the merge tree (dendrogram), whose leaves are the points. Merges
+ * come in order of non-increasing height, so those above t are a prefix, found
+ * by binary search, and cut(t) labels the points in O(n) by going down the tree
+ * from that prefix.
+ * Sorting: the key of an edge is the float bits of its height (monotone for
+ * positive values) above its index. Runs of equal keys are then put in order of
+ * exact height.
+ * @since October 2020
+ */
+package algorithms;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * @author rwrd
+ *
+ */
+public class ClusterHierarchy<V> {
+
+	final List<V> points; // point id = position in this list
+	final Map<V, Integer> idOf;
+	final double floor; // lowest threshold for which cut() is exact
+	/*
+	 * Merge m joins nodes mergeLeft[m] and mergeRight[m] at height mergeHeight[m]
+	 * into node n + m; nodes below n are points. treeParent[node] is the node it
+	 * was merged into, or -1.
+	 */
+	final int[] mergeLeft, mergeRight;
+	final double[] mergeHeight;
+	final int mergeCount;
+	final int[] treeParent;
+	private double duration;
+
+	/**
+	 * Hierarchy of all thresholds above 0
+	 */
+	public ClusterHierarchy(CohesionGraphBuilder<V> builder) {
+		this(builder, 0.0);
+	}
+
+	/**
+	 * @param floor only edges of height > floor are kept, so cut(t) is exact for
+	 *              t >= floor; e.g. a fraction of the mean cohesion, to sort
+	 *              fewer edges
+	 */
+	public ClusterHierarchy(CohesionGraphBuilder<V> builder, double floor) {
+		long start = System.currentTimeMillis();
+		FocusGraph<V> focus = builder.getFocus();
+		double[] cohesion = builder.getCohesionRows();
+		int n = focus.size();
+		this.points = focus.points;
+		this.idOf = focus.idOf;
+		this.floor = floor;
+		/*
+		 * Candidate edges: arcs x->y with x < y, mutual, of height > floor. One
+		 * pass counts, one fills.
+		 */
+		int[] edgeOffsets = new int[n + 1];
+		IntStream.range(0, n).parallel().forEach(x -> {
+			int count = 0;
+			for (int a = focus.start(x); a < focus.end(x); a++) {
+				if (this.height(focus, cohesion, x, a) > floor) {
+					count++;
+				}
+			}
+			edgeOffsets[x + 1] = count;
+		});
+		Arrays.parallelPrefix(edgeOffsets, Integer::sum);
+		int edgeCount = edgeOffsets[n];
+		int[] from = new int[edgeCount], to = new int[edgeCount];
+		double[] height = new double[edgeCount];
+		long[] key = new long[edgeCount];
+		IntStream.range(0, n).parallel().forEach(x -> {
+			int e = edgeOffsets[x];
+			for (int a = focus.start(x); a < focus.end(x); a++) {
+				double h = this.height(focus, cohesion, x, a);
+				if (h > floor) {
+					from[e] = x;
+					to[e] = focus.target(a);
+					height[e] = h;
+					key[e] = ((long) Float.floatToIntBits((float) h) << 32) | (long) e;
+					e++;
+				}
+			}
+		});
+		Arrays.parallelSort(key);
+		sortRuns(key, height);
+		/*
+		 * Sweep from the highest edge down: union by size, path halving
+		 */
+		int[] parent = new int[n], setSize = new int[n], node = new int[n];
+		for (int x = 0; x < n; x++) {
+			parent[x] = x;
+			setSize[x] = 1;
+			node[x] = x;
+		}
+		int[] left = new int[Math.max(n - 1, 0)], right = new int[Math.max(n - 1, 0)];
+		double[] mergeAt = new double[Math.max(n - 1, 0)];
+		this.treeParent = new int[Math.max(2 * n - 1, 0)];
+		Arrays.fill(this.treeParent, -1);
+		int m = 0;
+		for (int i = edgeCount - 1; i >= 0 && m < n - 1; i--) {
+			int e = (int) key[i];
+			int rx = find(parent, from[e]), ry = find(parent, to[e]);
+			if (rx == ry) {
+				continue;
+			}
+			if (setSize[rx] < setSize[ry]) {
+				int swap = rx;
+				rx = ry;
+				ry = swap;
+			}
+			left[m] = node[rx];
+			right[m] = node[ry];
+			mergeAt[m] = height[e];
+			this.treeParent[node[rx]] = n + m;
+			this.treeParent[node[ry]] = n + m;
+			parent[ry] = rx;
+			setSize[rx] += setSize[ry];
+			node[rx] = n + m;
+			m++;
+		}
+		this.mergeLeft = left;
+		this.mergeRight = right;
+		this.mergeHeight = mergeAt;
+		this.mergeCount = m;
+		this.duration = (double) (System.currentTimeMillis() - start) / 1000.0;
+		System.out.println("Cluster hierarchy: " + edgeCount + " edges above " + floor + " sorted, " + m
+				+ " merges, in " + duration + " seconds.");
+	}
+
+	/*
+	 * Height of arc a from x, counted once: min(C_{x,y}, C_{y,x}) if x < y and
+	 * the arc is mutual, -1 otherwise
+	 */
+	private double height(FocusGraph<V> focus, double[] cohesion, int x, int a) {
+		if (focus.target(a) < x || !focus.isMutual(a)) {
+			return -1.0;
+		}
+		return Math.min(cohesion[a], cohesion[focus.reverse(x, a)]);
+	}
+
+	/*
+	 * Keys sorted by float height; within each run of equal float height, put the
+	 * edges in order of exact height, then of index
+	 */
+	private static void sortRuns(long[] key, double[] height) {
+		int i = 0;
+		while (i < key.length) {
+			int j = i + 1;
+			while (j < key.length && (key[j] >>> 32) == (key[i] >>> 32)) {
+				j++;
+			}
+			for (int p = i + 1; p < j; p++) { // insertion sort: runs are short
+				long current = key[p];
+				int q = p - 1;
+				while (q >= i && (height[(int) key[q]] > height[(int) current]
+						|| (height[(int) key[q]] == height[(int) current] && (int) key[q] > (int) current))) {
+					key[q + 1] = key[q];
+					q--;
+				}
+				key[q + 1] = current;
+			}
+			i = j;
+		}
+	}
+
+	/*
+	 * Root of x, halving the path to it
+	 */
+	private static int find(int[] parent, int x) {
+		while (parent[x] != x) {
+			parent[x] = parent[parent[x]];
+			x = parent[x];
+		}
+		return x;
+	}
+
+	/**
+	 * @return number of merges of height > t, by binary search
+	 */
+	public int mergesAbove(double t) {
+		int low = 0, high = this.mergeCount; // heights are non-increasing
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (this.mergeHeight[mid] > t) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * @return number of clusters at threshold t, isolated points included
+	 */
+	public int clusterCount(double t) {
+		return this.points.size() - this.mergesAbove(t);
+	}
+
+	/**
+	 * Flat clustering at threshold t: components of the edges of height > t.
+	 * With t = the mean cohesion of the builder, these are its cluster graph
+	 * components, with the same labels.
+	 *
+	 * @param t at least the floor
+	 * @return labels 0, 1, ... in order of smallest point id
+	 */
+	public int[] labels(double t) {
+		if (t < this.floor) {
+			throw new IllegalArgumentException("Threshold " + t + " below floor " + this.floor);
+		}
+		int n = this.points.size();
+		int cut = this.mergesAbove(t);
+		/*
+		 * Topmost merge above each merge within the cut, from the top down
+		 */
+		int[] top = new int[cut];
+		for (int m = cut - 1; m >= 0; m--) {
+			int p = this.treeParent[n + m];
+			top[m] = (p >= 0 && p < n + cut) ? top[p - n] : m;
+		}
+		int[] dense = new int[cut];
+		Arrays.fill(dense, -1);
+		int[] label = new int[n];
+		int c = 0;
+		for (int x = 0; x < n; x++) {
+			int p = this.treeParent[x];
+			if (p >= 0 && p < n + cut) {
+				int r = top[p - n];
+				if (dense[r] < 0) {
+					dense[r] = c++;
+				}
+				label[x] = dense[r];
+			} else {
+				label[x] = c++; // alone at this threshold
+			}
+		}
+		return label;
+	}
+
+	/**
+	 * @return flat clustering at threshold t, as a Clustering
+	 */
+	public Clustering<V> cut(double t) {
+		return new Clustering<>(this.points, this.idOf, this.labels(t), this.clusterCount(t));
+	}
+
+	public int getMergeCount() {
+		return mergeCount;
+	}
+
+	/**
+	 * @return height of merge m; non-increasing in m
+	 */
+	public double mergeHeight(int m) {
+		return this.mergeHeight[m];
+	}
+
+	/**
+	 * @return the two nodes joined by merge m into node n + m: points below n,
+	 *         earlier merges from n
+	 */
+	public int mergeLeft(int m) {
+		return this.mergeLeft[m];
+	}
+
+	public int mergeRight(int m) {
+		return this.mergeRight[m];
+	}
+
+	public List<V> getPoints() {
+		return points;
+	}
+
+}
@@ -0,0 +1,199 @@
+/**
+ * A partition of points into clusters, as dense int labels: label(x) runs from
+ * 0 to getCount()-1, and isolated points are clusters of one. The members of
+ * each cluster are kept together in one array, by counting sort, so sizes and
+ * members are array reads, and labelOf() is one hash lookup.
+ * save() writes the partition compactly, with each point named by a stable
+ * id; load() reads it back over those ids, for jobs that do not have the
+ * points.
+ * @since October 2020
+ */
+package algorithms;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+
+/**
+ * @author rwrd
+ *
+ */
+public class Clustering<V> {
+
+	final List<V> points; // point id = position in this list
+	final Map<V, Integer> idOf;
+	final int[] label; // by point id
+	final int count;
+	final int[] memberOffsets, members; // ids of the points of cluster c are members[memberOffsets[c]], ...
+
+	/**
+	 * @param points    in id order
+	 * @param idOf      inverse of points; built here if null
+	 * @param labels    cluster of each point, by id, from 0 to clusterCount-1
+	 */
+	Clustering(List<V> points, Map<V, Integer> idOf, int[] labels, int clusterCount) {
+		int n = points.size();
+		if (labels.length != n) {
+			throw new IllegalArgumentException(labels.length + " labels for " + n + " points");
+		}
+		this.points = points;
+		if (idOf == null) {
+			idOf = new HashMap<>(2 * n);
+			for (int x = 0; x < n; x++) {
+				idOf.put(points.get(x), x);
+			}
+		}
+		this.idOf = idOf;
+		this.label = labels;
+		this.count = clusterCount;
+		this.memberOffsets = new int[clusterCount + 1];
+		for (int x = 0; x < n; x++) {
+			this.memberOffsets[labels[x] + 1]++;
+		}
+		Arrays.parallelPrefix(this.memberOffsets, Integer::sum);
+		int[] fill = Arrays.copyOf(this.memberOffsets, clusterCount);
+		this.members = new int[n];
+		for (int x = 0; x < n; x++) {
+			this.members[fill[labels[x]]++] = x;
+		}
+	}
+
+	/**
+	 * @return cluster of x, or -1 if x is not one of the points
+	 */
+	public int labelOf(V x) {
+		Integer id = this.idOf.get(x);
+		return (id == null) ? -1 : this.label[id];
+	}
+
+	/**
+	 * @return true when x and y are points of the same cluster
+	 */
+	public boolean sameCluster(V x, V y) {
+		int c = this.labelOf(x);
+		return c >= 0 && c == this.labelOf(y);
+	}
+
+	/**
+	 * @return cluster of each point, by position in getPoints(); the array
+	 *         itself, not a copy
+	 */
+	public int[] getLabels() {
+		return label;
+	}
+
+	/**
+	 * @return number of clusters, isolated points included
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	public List<V> getPoints() {
+		return points;
+	}
+
+	/**
+	 * @return number of points in cluster c
+	 */
+	public int size(int c) {
+		return this.memberOffsets[c + 1] - this.memberOffsets[c];
+	}
+
+	/**
+	 * @return number of points in each cluster, by label
+	 */
+	public int[] sizes() {
+		int[] size = new int[this.count];
+		for (int c = 0; c < this.count; c++) {
+			size[c] = this.size(c);
+		}
+		return size;
+	}
+
+	/**
+	 * @return j-th point of cluster c, in the order of getPoints()
+	 */
+	public V member(int c, int j) {
+		return this.points.get(this.members[this.memberOffsets[c] + j]);
+	}
+
+	/**
+	 * @return the points of cluster c, as a view
+	 */
+	public List<V> members(int c) {
+		return new AbstractList<V>() {
+			@Override
+			public V get(int j) {
+				return member(c, j);
+			}
+
+			@Override
+			public int size() {
+				return Clustering.this.size(c);
+			}
+		};
+	}
+
+	/**
+	 * Write the partition, with each point named by a stable id. Format: number
+	 * of points and of clusters as ints; the size of each cluster as an int; then
+	 * the ids of the points as longs, cluster by cluster.
+	 */
+	public void save(Path file, ToLongFunction<V> stableId) {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeInt(this.points.size());
+			out.writeInt(this.count);
+			for (int c = 0; c < this.count; c++) {
+				out.writeInt(this.size(c));
+			}
+			for (int x : this.members) {
+				out.writeLong(stableId.applyAsLong(this.points.get(x)));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write clustering to " + file, e);
+		}
+	}
+
+	/**
+	 * Read a partition written by save()
+	 *
+	 * @return the clustering of the stable ids, with the clusters in the order
+	 *         written
+	 */
+	public static Clustering<Long> load(Path file) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			int n = in.readInt();
+			int clusterCount = in.readInt();
+			int[] size = new int[clusterCount];
+			for (int c = 0; c < clusterCount; c++) {
+				size[c] = in.readInt();
+			}
+			List<Long> ids = new ArrayList<>(n);
+			int[] labels = new int[n];
+			int x = 0;
+			for (int c = 0; c < clusterCount; c++) {
+				for (int j = 0; j < size[c]; j++) {
+					ids.add(in.readLong());
+					labels[x++] = c;
+				}
+			}
+			return new Clustering<>(ids, null, labels, clusterCount);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read clustering from " + file, e);
+		}
+	}
+
+}
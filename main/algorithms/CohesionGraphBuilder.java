@@ -2,6 +2,8 @@
  * Partitioned local depth.
  * GENERAL CASE: not all sets friends.get(x) need be the same size.
  * This may be applied to KNN approximation from KNNDescent class.
+ * When only the cluster labels are wanted, FusedCohesionClustering finds the same
+ * components without holding the focus, cohesion or cluster graphs.
  * Refs:
  * [1] Kenneth S. Berenhaut1,*, Katherine E. Moore1, Ryan L. Melvin1,2.
  * Communities in Data: A Socially-Motivated Perspective on Cohesion and Clustering, 2020
@@ -9,24 +11,28 @@
  */
 package algorithms;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.function.Function;
-import java.util.function.ToIntBiFunction;
+import java.util.function.ToIntFunction;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
-import com.google.common.graph.EndpointPair;
+import com.google.common.graph.ElementOrder;
 import com.google.common.graph.Graph;
 import com.google.common.graph.GraphBuilder;
 import com.google.common.graph.MutableGraph;
 import com.google.common.graph.MutableValueGraph;
 import com.google.common.graph.ValueGraphBuilder;
 
-import utilities.GraphUtils;
+import utilities.ConnectedComponents;
+import utilities.IntGraph;
 
 /**
  * @author rwrd
@@ -41,22 +47,55 @@ public class CohesionGraphBuilder<V> {
 	 * interface allows descending iterator, useful for cohesion matrix.
 	 */
 	final Map<V, NavigableSet<V>> friends;
+	/*
+	 * Each point may stand for several identical points (see
+	 * utilities.DuplicateCollapser). Point counts in the formulas become sums of
+	 * multiplicities, and nV is the total multiplicity. Copies of a point are
+	 * ranked as the uncollapsed points would be, by position: see copiesTerm().
+	 * With k, the friends of x and the other copies of x stand for exactly k
+	 * points, so the last friend may count for only part of its copies.
+	 */
+	final ToIntFunction<V> multiplicity;
+	final int k; // Integer.MAX_VALUE: every friend counts for all its copies
 	//final ImmutableMap<V, ImmutableSortedSet<V>> friends; // keyset = points.
 	/*
-	 * undirected edge {x,y} carries integer |V_{x,y}|, when y is a friend of x
+	 * Arc x->y, for y a friend of x, carries integer |V_{x,y}| and a bit saying
+	 * whether x & y are mutual friends. Compressed sparse rows over dense point ids.
 	 */
-	MutableValueGraph<V, Integer> focusGraph;
+	FocusGraph<V> focus;
 	/*
-	 * Edge {x, y} in mutual friend graph indicates x & y are mutual friends. Degree
-	 * of vertex x counts mutual friends of x
+	 * Guava copies of the focus graph and mutual friend graph, built on request
 	 */
+	MutableValueGraph<V, Integer> focusGraph;
 	MutableGraph<V> mutualFriendGraph;
+	int[] mult; // multiplicity by point id of focus
+	int[] arcWeight; // copies of y counted as friends of x, for arc a = x->y of focus
+	int[] transpose; // arc y->x for arc x->y, or -1 if not mutual
+	/*
+	 * Cohesion values, rescaled by (n-1) factor. cohesion[a] = C_{x,y} for arc
+	 * a = x->y of focus, so rows align with the friend lists; cohesionDiagonal[x]
+	 * = C_{x,x}.
+	 */
+	double[] cohesion, cohesionDiagonal;
+	/*
+	 * Guava copy of the cohesion values, built on request. Allows loops. Arc x->y
+	 * carries cohesion value
+	 */
+	MutableValueGraph<V, Double> cohesionGraph;
 	/*
-	 * Allows loops. Arc x->y carries cohesion value
+	 * Select edges of cohesionGraph whose weight is above average, as rows over the
+	 * point ids of focus; clusterGraph is its Guava copy, built on request
 	 */
-	MutableValueGraph<V, Double> cohesionGraph; // Cohesion values are rescaled by (n-1) factor
-	MutableGraph<V> clusterGraph; // select edges of cohesionGraph whose weight is above average
-	Graph<Set<V>> stronglyConnectedComponents; // strong components of cluster graph (each node = one component)
+	IntGraph clusterRows;
+	MutableGraph<V> clusterGraph;
+	/*
+	 * Components of the cluster graph, by point id of focus: labels 0, 1, ... in
+	 * order of smallest point id. Isolated points are components of their own.
+	 */
+	int[] componentLabel;
+	int componentCount;
+	Clustering<V> clustering; // the labels with O(1) lookup by point, built on request
+	Graph<Set<V>> stronglyConnectedComponents; // strong components of cluster graph (each node = one component), built on request
 	double empiricalMeanCohesion, theoreticalMeanCohesion; // rescaled by (n-1) factor
 	private double nV, duration;
 	private long start;
@@ -65,12 +104,50 @@ public class CohesionGraphBuilder<V> {
 	 * @param neighborSets (sorted)
 	 */
 	public CohesionGraphBuilder(Map<V, NavigableSet<V>> neighborSets) {
+		this(neighborSets, x -> 1);
+	}
+
+	/**
+	 * @param neighborSets      (sorted) friend sets of representatives, e.g. from
+	 *                          KNNDescent with setMultiplicities()
+	 * @param pointMultiplicity number of identical points each representative
+	 *                          stands for
+	 */
+	public CohesionGraphBuilder(Map<V, NavigableSet<V>> neighborSets, ToIntFunction<V> pointMultiplicity) {
+		this(neighborSets, pointMultiplicity, Integer.MAX_VALUE, null);
+	}
+
+	/**
+	 * The empirical mean cohesion is then that of the uncollapsed points, with
+	 * ties between copies broken by position, as in KNNDescent.getFriends(). The
+	 * cohesion values of a representative are the averages over its copies, so the
+	 * cluster graph may still differ: within a group of copies, the uncollapsed
+	 * cohesion to each copy depends on its position.
+	 *
+	 * @param neighborSets      (sorted) friend sets from KNNDescent with
+	 *                          setMultiplicities()
+	 * @param pointMultiplicity same as given to KNNDescent.setMultiplicities()
+	 * @param numberOfNeighbors k of that descent
+	 */
+	public CohesionGraphBuilder(Map<V, NavigableSet<V>> neighborSets, ToIntFunction<V> pointMultiplicity,
+			int numberOfNeighbors) {
+		this(neighborSets, pointMultiplicity, numberOfNeighbors, null);
+	}
+
+	/**
+	 * @param focusGraph if not null, the focus graph of neighborSets, instead of
+	 *                   building it from the friend sets; used by CohesionSweep
+	 *                   to share that work between several k
+	 */
+	CohesionGraphBuilder(Map<V, NavigableSet<V>> neighborSets, ToIntFunction<V> pointMultiplicity,
+			int numberOfNeighbors, FocusGraph<V> focusGraph) {
 		/*
 		 * Java - UNMODIFIABLE version
 		 */
-		this.friends = neighborSets.keySet().parallelStream().collect(
-				Collectors.toUnmodifiableMap(Function.identity(), x -> Collections.unmodifiableNavigableSet(neighborSets.get(x))));
-		this.nV = (double) this.friends.keySet().size(); // total size of S
+		this.friends = unmodifiableFriends(neighborSets);
+		this.multiplicity = pointMultiplicity;
+		this.k = numberOfNeighbors;
+		this.nV = (double) this.friends.keySet().stream().mapToLong(x -> pointMultiplicity.applyAsInt(x)).sum(); // total size of S
 		/*
 		 * Guava - immutable version - New 6.10.20
 		 */
@@ -82,164 +159,187 @@ public class CohesionGraphBuilder<V> {
 		/////////////////////// FOCUS GRAPH
 		/////////////////////// //////////////////////////////////////////////////
 		/*
-		 * Given {x,y} return # elements |V_{x,y}|. Assume always that y=x, or y is a
-		 * friend of x. However x need not be a friend of y. Proposition 6.1 in Darling
-		 * paper
-		 */
-		ToIntBiFunction<V, V> kFocusCounter = (x, y) -> {
-			int xRanksY = this.friends.get(x).headSet(y).size() + 1; // how x ranks y
-			int counter; // intersection count
-			// Case where x is NOT a friend of y; i.e. y is a friend, not a co-friend
-			if (!this.friends.get(x).contains(y)) {
-				/*
-				 * Among z for which r_x(z) < r_z(y), how many are friends of y (even though x
-				 * is not a friend of y)?
-				 */
-				counter = 0;
-				for (V z : this.friends.get(x).headSet(y)) {
-					if (this.friends.get(y).contains(z)) {
-						counter++;
-					}
-				}
-				return Integer.valueOf(xRanksY + this.friends.get(y).size() + 1 - counter);
-			} else // case where x is a friend of y, i.e. y s a co-friend as well as a friend
-			{
-				int yRanksX = this.friends.get(y).headSet(x).size() + 1; // how y ranks x
-				/*
-				 * Among z for which r_x(z) < r_z(y), how many also satisfy r_y(z) < r_y(x)?
-				 */
-				counter = 0;
-				for (V z : this.friends.get(x).headSet(y)) {
-					if (this.friends.get(y).headSet(x).contains(z)) {
-						counter++;
-					}
-				}
-				return Integer.valueOf(xRanksY + yRanksX - counter);
-			}
-		};
-		/*
-		 * Build UNDIRECTED focus graph, with integer weights |V_{x,y}| computed by
-		 * kFocusCounter. Loops are NOT allowed. At the same time determine determine
-		 * the "mutual friend" subset of its edges, a subgraph in which loops are NOT
-		 * allowed.
+		 * Build focus graph, with integer weights |V_{x,y}| given by Proposition 6.1 in
+		 * Darling paper, in parallel. Loops are NOT allowed. Its rows already mark the
+		 * "mutual friend" arcs. Ranks are positions in the sorted friend rows, so the
+		 * counts need no comparator calls; see FocusGraph.fillByRanks(). CohesionSweep
+		 * may supply the focus graph instead.
 		 */
 		this.start = System.currentTimeMillis();
-		this.focusGraph = ValueGraphBuilder.undirected().allowsSelfLoops(false)
-				.expectedNodeCount(this.friends.keySet().size()).build();
-		this.mutualFriendGraph = GraphBuilder.undirected().allowsSelfLoops(false)
-				.expectedNodeCount(this.friends.keySet().size()).build();
-		for (V x : this.friends.keySet()) {
-			for (V y : this.friends.get(x)) {
-				/*
-				 * If x is already a friend of y, we can declare {x, y} mutual friends
-				 */
-				if (this.focusGraph.hasEdgeConnecting(y, x)) {
-					this.mutualFriendGraph.putEdge(x, y); // 2nd time the pair \{x, y\} has occurred
-				}
-				/*
-				 * Otherwise, compute this edge weight & insert edge
-				 */
-				else {
-					this.focusGraph.putEdgeValue(x, y, kFocusCounter.applyAsInt(x, y));
-				}
-			}
+		if (focusGraph != null) {
+			this.focus = focusGraph;
+			this.mult = this.focus.getPoints().stream().mapToInt(this.multiplicity).toArray();
+		} else {
+			this.focus = new FocusGraph<>(this.friends);
+			this.mult = this.focus.getPoints().stream().mapToInt(this.multiplicity).toArray();
+			this.focus.fillByRanks(Arrays.stream(this.mult).allMatch(m -> m == 1) ? null : this.mult);
 		}
+		this.arcWeight = this.countedWeights();
+		this.transpose = this.focus.transposeIndex(); // reverse weight is one array read
 		this.duration = (double) (System.currentTimeMillis() - this.start) / 1000.0;
 		System.out.println("Focus graph and mutual friend graph built in " + duration + " seconds.");
 
 		/*
-		 * Cohesion Vector Scores assigns to x the map v -> (n-1)*C_{x, v}, with v
-		 * sorted by rank, INCLUDING case v = x. Using descending iterator on friends of
-		 * x gives factor K speed up. Only defined when v is a friend of x, or v = x.
-		 */
-		Function<V, Map<V, Double>> cohesionScoreMap = x -> {
-			Map<V, Double> cohesionMap = new HashMap<>();
-			double sumStrangers = 1.0 - ((double) this.friends.get(x).size() - 1.0) / this.nV;
-			double cohesionValue = sumStrangers; // contribution from strangers
-			Iterator<V> reverseIt = this.friends.get(x).descendingIterator(); // reason for NavigableSet
-			V v;
-			double summand; // value depends on whether x is friend of v or not
-			double summandSt = 1.0 / this.nV;
-			// This loop assigns a value to C_{x, v} when v is a friend of x.
-			while (reverseIt.hasNext()) {
-				v = reverseIt.next();
-				if (this.friends.get(v).contains(x)) {
-					summand = 1.0 / (double) this.focusGraph.edgeValueOrDefault(x, v, Integer.valueOf(0));
-				} else { // x is not a friend of v
-					summand = summandSt;
-				}
-				cohesionValue += summand; // Efficiency consist in the way cohesionValue is carried forward
-				// Tie-break: only half the latest summand is included in cohesion value
-				cohesionMap.put(v, cohesionValue - 0.5 * summand);
-			}
-			cohesionMap.put(x, cohesionValue); // Case v = x: effectively adds back the last tie-breaker
-			return cohesionMap;
-		};
-
-		/*
-		 * COHESION GRAPH (revised 5.27.20) Build DIRECTED weighted cohesion graph, with
-		 * loops. Begin by computing all the cohesion scores in parallel.
+		 * COHESION (revised 5.27.20) Each row x of the cohesion matrix is computed once,
+		 * in parallel, into the arrays aligned with focus; its diagonal term enters the
+		 * weighted trace in the same pass.
 		 */
-		Map<V, Map<V, Double>> cohesionMatrix = this.friends.keySet().parallelStream()
-				.collect(Collectors.toUnmodifiableMap(Function.identity(), x -> cohesionScoreMap.apply(x)));
-		// Insert these values as edge weights in a directed graph
-		double weightedTrace = 0.0;
 		this.start = System.currentTimeMillis();
-		this.cohesionGraph = ValueGraphBuilder.directed().expectedNodeCount(this.friends.keySet().size())
-				.allowsSelfLoops(true).build();
-		for (V x : cohesionMatrix.keySet()) {
-			for (V v : cohesionScoreMap.apply(x).keySet()) { // includes v = x as one of the keys
-				this.cohesionGraph.putEdgeValue(x, v, cohesionMatrix.get(x).get(v)); // arc
-			}
-			weightedTrace += cohesionScoreMap.apply(x).get(x);// add diagonal term to trace
-		}
+		this.cohesion = new double[this.focus.arcCount()];
+		this.cohesionDiagonal = new double[this.focus.size()];
+		double weightedTrace = IntStream.range(0, this.focus.size()).parallel().mapToDouble(x -> this.cohesionRow(x))
+				.sum();
 		this.duration = (double) (System.currentTimeMillis() - this.start) / 1000.0;
-		System.out.println("With parallel cohesion scoring, cohesion graph built in " + duration + " seconds.");
+		System.out.println("With parallel cohesion scoring, cohesion rows built in " + duration + " seconds.");
 		// Divide weighted trace by (2 |S|)
 		this.empiricalMeanCohesion = 0.5 * weightedTrace / this.nV; // half average of diagonal of cohesion matrix
 		this.theoreticalMeanCohesion = this.clusterThreshold();
 		// Theoretical mean cohesion from formula
 
 		/*
-		 * Build DIRECTED unweighted cluster graph, no loops. Select the edges of the
-		 * cohesionGraph of above average weight. NEW 5.27.20: delete x->y unless BOTH
-		 * x->y AND y->x have weights > tau WARNING: When x->y is an edge in the
-		 * cohesion graph, y->x need not be.
+		 * Build DIRECTED unweighted cluster graph, no loops, in parallel over the
+		 * cohesion rows. Select the edges of the cohesionGraph of above average
+		 * weight. NEW 5.27.20: delete x->y unless BOTH x->y AND y->x have weights > tau
+		 * WARNING: When x->y is an edge in the cohesion graph, y->x need not be.
 		 */
 		this.start = System.currentTimeMillis();
-		this.clusterGraph = GraphBuilder.directed().allowsSelfLoops(false)
-				.expectedNodeCount(this.friends.keySet().size()).build();
-		V x, y;
-		double w;
-		for (EndpointPair<V> e : this.cohesionGraph.edges()) {
-			x = e.source();
-			y = e.target();
-			w = Math.min(this.cohesionGraph.edgeValueOrDefault(x, y, 0.0),
-					this.cohesionGraph.edgeValueOrDefault(y, x, 0.0)); // Minimum of C_{x, y} and C_{y, x}
-			if ((!e.source().equals(e.target())) && (w > this.empiricalMeanCohesion)) {
-				this.clusterGraph.putEdge(e);
-			}
-		}
+		int[] transpose = this.transpose;
+		double tau = this.empiricalMeanCohesion;
+		this.clusterRows = IntGraph.select(this.focus.offsets, this.focus.targets, a -> {
+			double reverse = (transpose[a] < 0) ? 0.0 : this.cohesion[transpose[a]];
+			return Math.min(this.cohesion[a], reverse) > tau; // Minimum of C_{x, y} and C_{y, x}
+		});
 		this.duration = (double) (System.currentTimeMillis() - this.start) / 1000.0;
 		System.out.println("Cluster graph built  in " + duration + " seconds.");
 		/*
-		 * Strongly connected components of cluster graph
+		 * Components of cluster graph. Every arc has its reverse (tau > 0), so its
+		 * strong components are its connected components: parallel union-find.
 		 */
-		if (this.clusterGraph.edges().size() > 0) {
-			this.stronglyConnectedComponents = GraphUtils.findStronglyConnectedComponents(this.clusterGraph);
-		} else {
+		this.start = System.currentTimeMillis();
+		ConnectedComponents components = new ConnectedComponents(this.clusterRows);
+		this.componentLabel = components.getLabels();
+		this.componentCount = components.getCount();
+		this.duration = (double) (System.currentTimeMillis() - this.start) / 1000.0;
+		System.out.println(this.componentCount + " cluster graph components, isolated points included, found in "
+				+ duration + " seconds.");
+		if (this.clusterRows.arcCount() == 0) {
 			System.out.println("Cluster graph has no edges -- all vertices are isolated.");
 		}
 	}
 
+	/*
+	 * Cohesion Vector Scores assigns to x the values v -> (n-1)*C_{x, v}, with v
+	 * sorted by rank, INCLUDING case v = x. Going through the friends of x in
+	 * descending rank order gives factor K speed up. Only defined when v is a
+	 * friend of x, or v = x. Writes row x of cohesion, and cohesionDiagonal[x].
+	 *
+	 * @return diagonal term of x, weighted by its multiplicity, for the trace
+	 */
+	private double cohesionRow(int x) {
+		int mx = this.mult[x]; // x and its mx - 1 copies
+		int friendWeight = Math.min(mx - 1, this.k); // copies of x among its friends
+		for (int a = this.focus.start(x); a < this.focus.end(x); a++) {
+			friendWeight += this.arcWeight[a];
+		}
+		double sumStrangers = 1.0 - ((double) friendWeight - 1.0) / this.nV;
+		double cohesionValue = sumStrangers; // contribution from strangers
+		double summand; // value depends on whether x is friend of v or not
+		double summandSt = 1.0 / this.nV;
+		// This loop assigns a value to C_{x, v} when v is a friend of x, in descending rank order.
+		for (int a = this.focus.end(x) - 1; a >= this.focus.start(x); a--) {
+			if (this.focus.isMutual(a)) {
+				int back = this.arcWeight[this.transpose[a]]; // copies of x which v counts as friends
+				summand = 1.0 / (double) this.focus.focusSize(a);
+				if (back < mx) { // the other copies of x are strangers to v
+					summand = (double) back / (double) mx * summand + (double) (mx - back) / (double) mx * summandSt;
+				}
+			} else { // x is not a friend of v
+				summand = summandSt;
+			}
+			summand *= (double) this.arcWeight[a]; // each copy of v counted contributes alike
+			cohesionValue += summand; // Efficiency consist in the way cohesionValue is carried forward
+			// Tie-break: only half the latest summand is included in cohesion value
+			this.cohesion[a] = cohesionValue - 0.5 * summand;
+		}
+		/*
+		 * Copies of x are its nearest friends. They only contribute to the diagonal
+		 * term.
+		 */
+		cohesionValue += copiesTerm(mx, this.k, this.nV);
+		this.cohesionDiagonal[x] = cohesionValue; // Case v = x: effectively adds back the last tie-breaker
+		return (double) mx * cohesionValue;
+	}
+
+	/*
+	 * Copies of y counted as friends of x, for each arc x->y: all of them, except
+	 * that the last friends may count for less, or nothing, once the friends and
+	 * the other copies of x stand for k points
+	 */
+	private int[] countedWeights() {
+		int[] weight = new int[this.focus.arcCount()];
+		IntStream.range(0, this.focus.size()).parallel().forEach(x -> {
+			long used = Math.min(this.mult[x] - 1, this.k);
+			for (int a = this.focus.start(x); a < this.focus.end(x); a++) {
+				weight[a] = (int) Math.max(0L, Math.min((long) this.mult[this.focus.target(a)], this.k - used));
+				used += weight[a];
+			}
+		});
+		return weight;
+	}
+
+	/*
+	 * Diagonal term of the mx copies of a point, averaged over them, as in the
+	 * uncollapsed points ranked by position. Copies x_i and x_j are mutual friends
+	 * when both are among the first k+1, with focus of size max(i, j) + 1; each
+	 * later copy has the first k copies as friends, none of them mutual.
+	 */
+	static double copiesTerm(int mx, int k, double nV) {
+		int c = Math.min(mx - 1, k);
+		double sum = 0.0;
+		for (int j = 1; j <= c; j++) {
+			sum += 2.0 * (double) j / (double) (j + 1);
+		}
+		sum += (double) Math.max(0, mx - 1 - k) * (double) k / nV;
+		return sum / (double) mx;
+	}
+
+	/*
+	 * Unmodifiable copy of the friend sets. Its key order, which varies from one
+	 * JVM to the next, is the point id order of FocusGraph; FusedCohesionClustering
+	 * takes the same order, so both sum the weighted trace alike.
+	 */
+	static <V> Map<V, NavigableSet<V>> unmodifiableFriends(Map<V, NavigableSet<V>> neighborSets) {
+		return neighborSets.keySet().parallelStream().collect(Collectors.toUnmodifiableMap(Function.identity(),
+				x -> Collections.unmodifiableNavigableSet(neighborSets.get(x))));
+	}
+
 	/*
 	 * Returns the value of (n-1)*tau
 	 */
 	private double clusterThreshold() {
-		// sum reciprocals of K-focus sizes, over pairs of mutual friends
-		double sumMF = this.focusGraph.edges().stream().filter(epp -> this.mutualFriendGraph.hasEdgeConnecting(epp))
-				.mapToDouble(epp -> 1.0 / (double) this.focusGraph.edgeValueOrDefault(epp, 1)).sum();
-		double numMF = (double) this.mutualFriendGraph.edges().size(); // # pairs of mutual friends
+		// sum reciprocals of K-focus sizes, over pairs of mutual friends, and count those pairs
+		double sumMF = 0.0, numMF = 0.0;
+		for (int x = 0; x < this.focus.size(); x++) {
+			for (int a = this.focus.start(x); a < this.focus.end(x); a++) {
+				if (this.focus.isMutual(a) && x < this.focus.target(a)) {
+					double w = (double) this.arcWeight[a] * (double) this.arcWeight[this.transpose[a]];
+					sumMF += w / (double) this.focus.focusSize(a);
+					numMF += w;
+				}
+			}
+		}
+		/*
+		 * Copies x_i, x_j of the same point among the first k+1 are mutual friends,
+		 * with focus of size max(i, j) + 1 (see copiesTerm). Both sums are zero
+		 * without multiplicities.
+		 */
+		for (int x = 0; x < this.focus.size(); x++) {
+			int c = Math.min(this.mult[x] - 1, this.k);
+			for (int j = 1; j <= c; j++) {
+				sumMF += (double) j / (double) (j + 1);
+			}
+			numMF += 0.5 * (double) c * (double) (c + 1);
+		}
 		double tau = 0.5 + (sumMF - 0.5) / this.nV - numMF / (this.nV * this.nV);// 2nd term is O(K) in size
 		return tau;
 	}
@@ -267,26 +367,68 @@ public class CohesionGraphBuilder<V> {
 	 */
 
 	/**
-	 * @return the focusGraph
+	 * @return the focus sizes and mutual friend flags, in compressed sparse rows
+	 */
+	public FocusGraph<V> getFocus() {
+		return focus;
+	}
+
+	/**
+	 * @return the focusGraph, as a Guava copy of getFocus(), built on the first
+	 *         call
 	 */
 	public MutableValueGraph<V, Integer> getFocusGraph() {
+		if (this.focusGraph == null) {
+			this.focusGraph = this.focus.toValueGraph();
+		}
 		return focusGraph;
 	}
 
 	/**
-	 * @return the mutualFriendGraph
+	 * @return the mutualFriendGraph, as a Guava copy of the mutual friend flags of
+	 *         getFocus(), built on the first call
 	 */
 	public MutableGraph<V> getMutualFriendGraph() {
+		if (this.mutualFriendGraph == null) {
+			this.mutualFriendGraph = this.focus.toMutualFriendGraph();
+		}
 		return mutualFriendGraph;
 	}
 
 	/**
-	 * @return the cohesionGraph
+	 * @return the cohesionGraph, as a Guava copy of the cohesion rows, built on
+	 *         the first call
 	 */
 	public MutableValueGraph<V, Double> getCohesionGraph() {
+		if (this.cohesionGraph == null) {
+			MutableValueGraph<V, Double> graph = ValueGraphBuilder.directed().expectedNodeCount(this.focus.size())
+					.allowsSelfLoops(true).build();
+			for (int x = 0; x < this.focus.size(); x++) {
+				V vx = this.focus.point(x);
+				graph.putEdgeValue(vx, vx, this.cohesionDiagonal[x]);
+				for (int a = this.focus.start(x); a < this.focus.end(x); a++) {
+					graph.putEdgeValue(vx, this.focus.point(this.focus.target(a)), this.cohesion[a]); // arc
+				}
+			}
+			this.cohesionGraph = graph;
+		}
 		return cohesionGraph;
 	}
 
+	/**
+	 * @return (n-1)*C_{x,y} for each arc x->y of getFocus(), in the same order
+	 */
+	public double[] getCohesionRows() {
+		return cohesion;
+	}
+
+	/**
+	 * @return (n-1)*C_{x,x}, by point id of getFocus()
+	 */
+	public double[] getCohesionDiagonal() {
+		return cohesionDiagonal;
+	}
+
 	/**
 	 * @return the friends
 	 */
@@ -309,14 +451,90 @@ public class CohesionGraphBuilder<V> {
 	}
 
 	/**
-	 * @return the clusterGraph
+	 * @return the clusterGraph, as a Guava copy of the cluster rows, built on the
+	 *         first call. Like the rows, it has no loops; unlike them, it has no
+	 *         isolated vertices.
 	 */
 	public MutableGraph<V> getClusterGraph() {
+		if (this.clusterGraph == null) {
+			MutableGraph<V> graph = GraphBuilder.directed().allowsSelfLoops(false).expectedNodeCount(this.focus.size())
+					.build();
+			for (int x = 0; x < this.clusterRows.size(); x++) {
+				for (int a = this.clusterRows.start(x); a < this.clusterRows.end(x); a++) {
+					graph.putEdge(this.focus.point(x), this.focus.point(this.clusterRows.target(a)));
+				}
+			}
+			this.clusterGraph = graph;
+		}
 		return clusterGraph;
 	}
 
+	/**
+	 * @return the cluster graph over the point ids of getFocus(): arc x->y when
+	 *         both C_{x,y} and C_{y,x} exceed the mean cohesion, so every arc has
+	 *         its reverse
+	 */
+	public IntGraph getClusterRows() {
+		return clusterRows;
+	}
+
+	/**
+	 * @return strong components of the cluster graph with at least one edge, as
+	 *         the nodes of a graph without edges, built from the component labels
+	 *         on the first call; null if the cluster graph has no edges
+	 */
 	public Graph<Set<V>> getStronglyConnectedComponents() {
+		if (this.stronglyConnectedComponents == null && this.clusterRows.arcCount() > 0) {
+			List<Set<V>> members = new ArrayList<>(this.componentCount);
+			for (int c = 0; c < this.componentCount; c++) {
+				members.add(null);
+			}
+			for (int x = 0; x < this.focus.size(); x++) {
+				if (this.clusterRows.outDegree(x) > 0) { // the Guava cluster graph has no isolated vertices
+					int c = this.componentLabel[x];
+					if (members.get(c) == null) {
+						members.set(c, new HashSet<>());
+					}
+					members.get(c).add(this.focus.point(x));
+				}
+			}
+			MutableGraph<Set<V>> graph = GraphBuilder.directed().allowsSelfLoops(false)
+					.nodeOrder(ElementOrder.insertion()).build();
+			for (Set<V> component : members) {
+				if (component != null) {
+					graph.addNode(component);
+				}
+			}
+			this.stronglyConnectedComponents = graph;
+		}
 		return stronglyConnectedComponents;
 	}
 
+	/**
+	 * @return components of the cluster graph as a Clustering, over the points
+	 *         of getFocus(), built on the first call
+	 */
+	public Clustering<V> getClustering() {
+		if (this.clustering == null) {
+			this.clustering = new Clustering<>(this.focus.points, this.focus.idOf, this.componentLabel,
+					this.componentCount);
+		}
+		return clustering;
+	}
+
+	/**
+	 * @return component of each point of the cluster graph, by point id of
+	 *         getFocus(); labels run from 0 to getComponentCount()-1
+	 */
+	public int[] getComponentLabels() {
+		return componentLabel;
+	}
+
+	/**
+	 * @return number of components of the cluster graph, isolated points included
+	 */
+	public int getComponentCount() {
+		return componentCount;
+	}
+
 }
\ No newline at end of file
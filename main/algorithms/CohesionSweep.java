@@ -0,0 +1,216 @@
+/**
+ * Cohesion and clustering for several neighborhood sizes k_1 < k_2 < ... <= K,
+ * from ONE set of friend sets of size K (for example one KNN descent at K).
+ * Friend sets are sorted, so the friends at k are a prefix of those at K; see
+ * KNNDescent.prefixes().
+ *
+ * Sharing: let r_x(y) be the rank of y among the friends of x. For y a friend
+ * of x at k, Proposition 6.1 of [2] (see CohesionGraphBuilder) gives
+ * |V_{x,y}| = r_x(y) + r_y(x) - #{z : r_x(z) < r_x(y), r_y(z) < r_y(x)}
+ * if x is also a friend of y at k, and otherwise
+ * |V_{x,y}| = r_x(y) + |F_k(y)| + 1 - #{z : r_x(z) < r_x(y), r_y(z) <= k}.
+ * Both counts are over the same z for every k, and only ranks up to k_m
+ * matter. So the rows are cut to k_m and held as ints, as in FocusGraph: ranks
+ * are positions in rows, each row is sorted by id once, and for each pair one
+ * merge marks the ranks r_y(z) in a bitset, whose popcounts below r_y(x) and
+ * below each k give the focus sizes for every k of the sweep. The focus graph
+ * at each k is then cut from these rows, with no hash lookups; the remaining
+ * work (cohesion, cluster graph, components) runs for all k in parallel.
+ *
+ * Points have multiplicity 1 here.
+ * @since October 2020
+ */
+package algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * @author rwrd
+ *
+ */
+public class CohesionSweep<V> {
+
+	final Map<V, NavigableSet<V>> friends; // at K, sorted by rank
+	final int[] ks; // increasing, each at most K
+	final List<V> points; // point id = position in this list
+	final Map<V, Integer> idOf;
+	final int[] offsets, targets; // friends of x at k_m by id, in rank order: targets[offsets[x]], ...
+	final int[] back; // for arc a from x to y, position of x in row y, or -1
+	/*
+	 * sizes[t][a] = |V_{x,y}| at ks[t], for arc a from x to y at position below
+	 * ks[t] in row x; 0 at the other positions
+	 */
+	final int[][] sizes;
+
+	/**
+	 * @param friendSets        sorted friend sets of the largest size wanted
+	 * @param neighborhoodSizes values of k to sweep, each at most the size of the
+	 *                          friend sets
+	 */
+	public CohesionSweep(Map<V, NavigableSet<V>> friendSets, int... neighborhoodSizes) {
+		this.friends = friendSets;
+		this.ks = Arrays.stream(neighborhoodSizes).distinct().sorted().toArray();
+		long start = System.currentTimeMillis();
+		int n = this.friends.size();
+		int kMax = this.ks[this.ks.length - 1];
+		this.points = new ArrayList<>(this.friends.keySet());
+		this.idOf = new HashMap<>(2 * n);
+		for (int x = 0; x < n; x++) {
+			this.idOf.put(this.points.get(x), x);
+		}
+		this.offsets = new int[n + 1];
+		for (int x = 0; x < n; x++) {
+			long arcs = (long) this.offsets[x] + Math.min(kMax, this.friends.get(this.points.get(x)).size());
+			if (arcs > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("More than " + Integer.MAX_VALUE + " friend pairs");
+			}
+			this.offsets[x + 1] = (int) arcs;
+		}
+		this.targets = new int[this.offsets[n]];
+		long[] sorted = new long[this.targets.length]; // row by row: friend id << 32 | position, sorted by id
+		IntStream.range(0, n).parallel().forEach(x -> {
+			int a = this.offsets[x];
+			for (V y : this.friends.get(this.points.get(x))) {
+				if (a == this.offsets[x + 1]) {
+					break;
+				}
+				this.targets[a] = this.idOf.get(y);
+				sorted[a] = ((long) this.targets[a] << 32) | (long) (a - this.offsets[x]);
+				a++;
+			}
+			Arrays.sort(sorted, this.offsets[x], this.offsets[x + 1]);
+		});
+		this.back = new int[this.targets.length];
+		this.sizes = new int[this.ks.length][this.targets.length];
+		IntStream.range(0, n).parallel().forEach(x -> {
+			long[] mask = new long[(kMax + 63) >>> 6]; // ranks r_y(z) - 1 of the shared z
+			for (int a = this.offsets[x]; a < this.offsets[x + 1]; a++) {
+				this.pairCounts(x, a, sorted, mask);
+			}
+		});
+		System.out.println("Shared focus counts for k in " + Arrays.toString(this.ks) + " computed in "
+				+ (0.001 * (double) (System.currentTimeMillis() - start)) + " secs.");
+	}
+
+	/*
+	 * One pass over the pair (x, y), for arc a from x to y: merge the rows of x
+	 * and y sorted by id, mark the positions in row y of the z ranked above y by
+	 * x, then count them below each cut
+	 */
+	private void pairCounts(int x, int a, long[] sorted, long[] mask) {
+		int y = this.targets[a];
+		int px = a - this.offsets[x];
+		int py = this.position(y, x); // -1 when x is not a friend of y at k_m
+		this.back[a] = py;
+		int i = this.offsets[x], iEnd = this.offsets[x + 1];
+		int j = this.offsets[y], jEnd = this.offsets[y + 1];
+		while (i < iEnd && j < jEnd) {
+			long zi = sorted[i] >>> 32, zj = sorted[j] >>> 32;
+			if (zi < zj) {
+				i++;
+			} else if (zi > zj) {
+				j++;
+			} else {
+				if ((int) sorted[i] < px) {
+					int pos = (int) sorted[j];
+					mask[pos >>> 6] |= 1L << pos;
+				}
+				i++;
+				j++;
+			}
+		}
+		int lengthY = this.offsets[y + 1] - this.offsets[y];
+		for (int t = 0; t < this.ks.length; t++) {
+			if (px >= this.ks[t]) {
+				continue; // y is not a friend of x at ks[t]
+			}
+			if (py >= 0 && py < this.ks[t]) { // mutual friends at ks[t]
+				this.sizes[t][a] = px + 1 + py + 1 - countBelow(mask, py);
+			} else {
+				this.sizes[t][a] = px + 1 + Math.min(this.ks[t], lengthY) + 1 - countBelow(mask, this.ks[t]);
+			}
+		}
+		Arrays.fill(mask, 0L);
+	}
+
+	/*
+	 * Number of bits set below position p
+	 */
+	static int countBelow(long[] mask, int p) {
+		int count = 0;
+		for (int word = 0; word < (p >>> 6); word++) {
+			count += Long.bitCount(mask[word]);
+		}
+		if ((p & 63) != 0) {
+			count += Long.bitCount(mask[p >>> 6] & ((1L << p) - 1L)); // shift is mod 64
+		}
+		return count;
+	}
+
+	/*
+	 * Position of y among the friends of x at k_m, or -1
+	 */
+	private int position(int x, int y) {
+		for (int a = this.offsets[x]; a < this.offsets[x + 1]; a++) {
+			if (this.targets[a] == y) {
+				return a - this.offsets[x];
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Focus graph at ks[t]: the first ks[t] arcs of each row, same ids
+	 */
+	FocusGraph<V> focusGraph(int t) {
+		int k = this.ks[t], n = this.points.size();
+		int[] offsetsK = new int[n + 1];
+		for (int x = 0; x < n; x++) {
+			offsetsK[x + 1] = offsetsK[x] + Math.min(k, this.offsets[x + 1] - this.offsets[x]);
+		}
+		int[] targetsK = new int[offsetsK[n]];
+		int[] focusSizes = new int[offsetsK[n]];
+		long[] mutualBits = new long[(offsetsK[n] + 63) >>> 6];
+		for (int x = 0; x < n; x++) {
+			for (int a = offsetsK[x], b = this.offsets[x]; a < offsetsK[x + 1]; a++, b++) {
+				targetsK[a] = this.targets[b];
+				focusSizes[a] = this.sizes[t][b];
+				if (this.back[b] >= 0 && this.back[b] < k) {
+					mutualBits[a >>> 6] |= 1L << a;
+				}
+			}
+		}
+		return new FocusGraph<>(this.points, this.idOf, offsetsK, targetsK, focusSizes, mutualBits);
+	}
+
+	/**
+	 * Cohesion graph, cluster graph and strong components for every k of the
+	 * sweep, in parallel.
+	 *
+	 * @return k -> builder at k
+	 */
+	public NavigableMap<Integer, CohesionGraphBuilder<V>> run() {
+		long start = System.currentTimeMillis();
+		Map<Integer, CohesionGraphBuilder<V>> builders = IntStream.range(0, this.ks.length).parallel().boxed()
+				.collect(Collectors.toMap(t -> this.ks[t],
+						t -> new CohesionGraphBuilder<V>(KNNDescent.prefixes(this.friends, this.ks[t]), x -> 1,
+								Integer.MAX_VALUE, this.focusGraph(t))));
+		System.out.println("Cohesion sweep over k in " + Arrays.toString(this.ks) + " took "
+				+ (0.001 * (double) (System.currentTimeMillis() - start)) + " secs.");
+		return new TreeMap<>(builders);
+	}
+
+	public int[] getNeighborhoodSizes() {
+		return ks.clone();
+	}
+
+}
@@ -0,0 +1,94 @@
+/**
+ * Decision of a DescentPlanner: which engine computes the k-NN graph, with
+ * what settings, and what it is expected to cost. Produced before the real
+ * run starts; execute() carries it out on a KNNDescent over all the points.
+ * @since October 2020
+ */
+package algorithms;
+
+/**
+ * @author rwrd
+ *
+ */
+public class DescentPlan {
+
+	public enum Engine {
+		EXACT, // compare every pair of points
+		DESCENT // KNN descent
+	}
+
+	final Engine engine;
+	final int maxRounds;
+	final double sampleRate;
+	final int coFriendCap; // Integer.MAX_VALUE means no cap
+	final double predictedSeconds;
+	final long predictedBytes;
+	final String explanation;
+
+	DescentPlan(Engine chosen, int rounds, double rate, int cap, double seconds, long bytes, String why) {
+		this.engine = chosen;
+		this.maxRounds = rounds;
+		this.sampleRate = rate;
+		this.coFriendCap = cap;
+		this.predictedSeconds = seconds;
+		this.predictedBytes = bytes;
+		this.explanation = why;
+	}
+
+	/**
+	 * Build the k-NN graph of knnd's points as planned.
+	 *
+	 * @return summary of the descent; for the exact engine, a summary with stop
+	 *         reason EXACT and no rounds
+	 */
+	public <V> DescentSummary execute(KNNDescent<V> knnd) {
+		if (this.engine == Engine.EXACT) {
+			long start = System.currentTimeMillis();
+			knnd.exactSearch();
+			DescentSummary summary = DescentSummary.exactSearch(knnd.getEvaluationCount(),
+					System.currentTimeMillis() - start);
+			System.out.println(summary.toString() + " Predicted " + (float) this.predictedSeconds + " secs.");
+			return summary;
+		}
+		knnd.setCoFriendCap(this.coFriendCap); // used by every update mode
+		DescentSummary summary = knnd.kNNDescentAlgorithm(this.maxRounds, this.sampleRate);
+		System.out.println("Predicted time was " + (float) this.predictedSeconds + " secs.");
+		return summary;
+	}
+
+	/**
+	 * @return the reasons for the decision, with the predictions
+	 */
+	public String explain() {
+		return explanation;
+	}
+
+	public Engine getEngine() {
+		return engine;
+	}
+
+	public int getMaxRounds() {
+		return maxRounds;
+	}
+
+	public double getSampleRate() {
+		return sampleRate;
+	}
+
+	public int getCoFriendCap() {
+		return coFriendCap;
+	}
+
+	public double getPredictedSeconds() {
+		return predictedSeconds;
+	}
+
+	/**
+	 * @return predicted bytes for friend, working and co-friend rows, beyond the
+	 *         points, in the most demanding update mode
+	 */
+	public long getPredictedBytes() {
+		return predictedBytes;
+	}
+
+}
@@ -0,0 +1,167 @@
+/**
+ * Cost model for building a k-NN graph, calibrated by a pilot run.
+ *
+ * The pilot takes a random subsample of m points, at most a tenth of them, so
+ * that planning costs a small part of the run. On it, an exact search on a
+ * smaller part measures the time of one evaluation in a brute force scan, and a
+ * KNN descent measures the rounds it needs, the evaluations per point per
+ * round, the time per evaluation, the friend clustering coefficient reached and
+ * the co-friend set sizes. Extrapolation to all n points:
+ * (1) exact search costs n(n-1) evaluations;
+ * (2) descent needs about pilotRounds * log(n) / log(m) rounds (rounds grow like
+ * log_k of the number of points), each costing n times the pilot's evaluations
+ * per point.
+ * The cheaper engine is chosen. For descent, the sampling rate of the
+ * convergence check is the one which reaches the target confidence interval for
+ * the pilot's clustering coefficient, and hubs with many co-friends are capped.
+ * @since October 2020
+ */
+package algorithms;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.IntSummaryStatistics;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * @author rwrd
+ *
+ */
+public class DescentPlanner<V> {
+
+	static final int PILOT_SIZE = 2000; // most points in the descent pilot
+	static final double PILOT_FRACTION = 0.1; // largest share of the points in the descent pilot
+	static final int EXACT_PILOT_SIZE = 400; // points in the exact pilot
+	static final double PRECISION = 0.01; // target half-width of friend clustering confidence interval
+
+	final List<V> points;
+	final Function<V, Comparator<V>> crs;
+	final int k;
+	long seed;
+
+	/**
+	 * @param dataPoints at least 2
+	 */
+	public DescentPlanner(List<V> dataPoints, Function<V, Comparator<V>> rankingSystem, int numberOfNeighbors) {
+		if (dataPoints.size() < 2) {
+			throw new IllegalArgumentException("No k-NN graph to plan for " + dataPoints.size() + " points");
+		}
+		this.points = dataPoints;
+		this.crs = rankingSystem;
+		this.k = numberOfNeighbors;
+		this.seed = System.nanoTime();
+	}
+
+	/*
+	 * Random subsample of m distinct points
+	 */
+	private List<V> subsample(int m, SplittableRandom g) {
+		return g.ints(0, this.points.size()).distinct().limit(m).mapToObj(this.points::get)
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Run the pilot, and decide. Prints nothing but the pilot's own reports.
+	 */
+	public DescentPlan plan() {
+		int n = this.points.size();
+		SplittableRandom g = new SplittableRandom(this.seed);
+		StringBuilder why = new StringBuilder();
+		/*
+		 * Exact pilot: seconds per evaluation in a brute force scan. The first pass
+		 * warms up the JIT; only the second is timed.
+		 */
+		int me = Math.min(n, EXACT_PILOT_SIZE);
+		KNNDescent<V> exactPilot = new KNNDescent<>(this.subsample(me, g), this.crs, Math.min(this.k, me - 1));
+		exactPilot.exactSearch();
+		long start = System.nanoTime();
+		exactPilot.exactSearch();
+		double exactSecondsPerEval = 1.0e-9 * (double) (System.nanoTime() - start)
+				/ Math.max(1.0, (double) exactPilot.getEvaluationCount());
+		double exactSeconds = exactSecondsPerEval * (double) n * (double) (n - 1);
+		/*
+		 * Descent pilot
+		 */
+		int m = (int) Math.min((double) PILOT_SIZE, PILOT_FRACTION * (double) n);
+		double descentSeconds;
+		int maxRounds;
+		double sampleRate;
+		int cap = Integer.MAX_VALUE;
+		if (m <= 2 * this.k + 1) {
+			descentSeconds = Double.POSITIVE_INFINITY; // too few points for descent to make sense
+			maxRounds = 0;
+			sampleRate = 1.0;
+			why.append("Only " + m + " pilot points (of " + n + ") for k = " + this.k
+					+ ": too few for a descent pilot, and for descent to pay.\n");
+		} else {
+			KNNDescent<V> pilot = new KNNDescent<>(this.subsample(m, g), this.crs, this.k);
+			pilot.setSeed(g.nextLong());
+			pilot.setRecallSampleSize(KNNDescent.DEFAULT_RECALL_SAMPLE); // after the last round, so not timed
+			/*
+			 * Time and evaluations at the end of each round. The first round, which
+			 * includes warming up, is left out of the time per evaluation when possible.
+			 */
+			List<long[]> marks = new ArrayList<>();
+			long pilotStart = System.nanoTime();
+			pilot.setRoundListener(round -> marks.add(new long[] { System.nanoTime(), pilot.getEvaluationCount() }));
+			DescentSummary pilotSummary = pilot.kNNDescentAlgorithm(2 * pilot.getExpanderBasedRoundCount(), 0.2);
+			int pilotRounds = Math.max(1, pilotSummary.getRounds());
+			double evalsPerPointRound = (double) pilotSummary.getEvaluations() / ((double) m * (double) pilotRounds);
+			long[] from = (marks.size() > 1) ? marks.get(0) : new long[] { pilotStart, 0L };
+			long[] to = marks.isEmpty() ? new long[] { System.nanoTime(), pilotSummary.getEvaluations() }
+					: marks.get(marks.size() - 1);
+			double descentSecondsPerEval = 1.0e-9 * (double) (to[0] - from[0])
+					/ Math.max(1.0, (double) (to[1] - from[1]));
+			int rounds = (int) Math.ceil((double) pilotRounds * Math.log((double) n) / Math.log((double) m));
+			maxRounds = rounds + 1; // one round to confirm the plateau
+			descentSeconds = descentSecondsPerEval * evalsPerPointRound * (double) n * (double) maxRounds;
+			double p = Math.min(0.5, Math.max(0.01, pilotSummary.getClusteringCoefficient()));
+			double samples = 1.96 * 1.96 * p * (1.0 - p) / (PRECISION * PRECISION);
+			sampleRate = Math.min(1.0, samples / (double) n);
+			IntSummaryStatistics coFriends = pilot.coFriendStats();
+			if (coFriends.getMax() > 4 * this.k) {
+				cap = 2 * this.k;
+			}
+			why.append("Pilot descent on " + m + " points: " + pilotSummary.getRounds() + " rounds, "
+					+ (long) evalsPerPointRound + " evaluations per point per round, recall about "
+					+ (float) pilotSummary.getEstimatedRecall() + ", friend clustering "
+					+ (float) pilotSummary.getClusteringCoefficient() + ".\n");
+			why.append("Descent on " + n + " points: " + rounds + " rounds expected (pilot rounds * log " + n
+					+ " / log " + m + "), so at most " + maxRounds + ".\n");
+			why.append("Convergence check: about " + (long) samples + " samples give +/- " + PRECISION
+					+ " at clustering " + (float) p + ", so sampling rate " + (float) sampleRate + ".\n");
+			why.append((cap == Integer.MAX_VALUE)
+					? "Co-friend sets in the pilot reach only " + coFriends.getMax() + ": no cap.\n"
+					: "Co-friend sets in the pilot reach " + coFriends.getMax() + ", mean "
+							+ (float) coFriends.getAverage() + ": capped at " + cap + " per round.\n");
+		}
+		why.append("Exact search: " + n + " x " + (n - 1) + " evaluations at " + (float) (1.0e6 * exactSecondsPerEval)
+				+ " microsecs each (pilot on " + me + " points) = " + (float) exactSeconds + " secs.\n");
+		if (descentSeconds < Double.POSITIVE_INFINITY) {
+			why.append("Descent: predicted " + (float) descentSeconds + " secs.\n");
+		}
+		DescentPlan.Engine engine = (exactSeconds <= descentSeconds) ? DescentPlan.Engine.EXACT
+				: DescentPlan.Engine.DESCENT;
+		double seconds = Math.min(exactSeconds, descentSeconds);
+		/*
+		 * Memory, for the most demanding update mode: three friend tables (current,
+		 * next, and working) of n rows of k+1 ints, nk working scores under early
+		 * abandon, and co-friend rows of n+1 offsets, n sizes and, with room to
+		 * patch, up to 3nk ids
+		 */
+		long nk = (long) n * (long) this.k;
+		long bytes = (long) Integer.BYTES * (3L * (long) n * (long) (this.k + 1) + (long) (2 * n + 1) + 3L * nk)
+				+ (long) Double.BYTES * nk;
+		why.append("Chosen: " + engine + ", predicted " + (float) seconds + " secs and at most " + (bytes >> 10)
+				+ " KB for friend, working and co-friend rows.");
+		return new DescentPlan(engine, maxRounds, sampleRate, cap, seconds, bytes, why.toString());
+	}
+
+	public void setSeed(long randomSeed) {
+		this.seed = randomSeed;
+	}
+
+}
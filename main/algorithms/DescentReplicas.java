@@ -0,0 +1,123 @@
+/**
+ * Several independent KNN descents on the same points, merged.
+ * A single descent can plateau below the recall wanted, because the
+ * friend-of-a-friend principle only explores near the friends it already has;
+ * an independent start explores elsewhere. Here R replicas, with different
+ * seeds, run concurrently for a few rounds each, sharing the list of points
+ * (and hence the point store). Their friend rows are merged, each point
+ * keeping its best k, and one final refresh round follows on the merged graph.
+ * Replicas may keep their friend rows off the heap, in direct memory, which is
+ * released once the rows are merged; a mapped file would be shared by all of
+ * them, so run() rejects it.
+ * @since October 2020
+ */
+package algorithms;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * @author rwrd
+ *
+ */
+public class DescentReplicas<V> {
+
+	final List<V> points;
+	final Function<V, Comparator<V>> crs;
+	final int k, replicas;
+	long seed;
+	Consumer<KNNDescent<V>> configuration; // applied to every replica and to the merged descent
+	long totalEvaluations;
+
+	/**
+	 * @param numberOfReplicas R, the number of independent descents
+	 */
+	public DescentReplicas(List<V> dataPoints, Function<V, Comparator<V>> rankingSystem, int numberOfNeighbors,
+			int numberOfReplicas) {
+		this.points = dataPoints;
+		this.crs = rankingSystem;
+		this.k = numberOfNeighbors;
+		this.replicas = numberOfReplicas;
+		this.seed = System.nanoTime();
+		this.configuration = knnd -> {
+		};
+	}
+
+	/**
+	 * Run the replicas concurrently, merge them, and refresh once.
+	 *
+	 * @param roundsPerReplica maximum rounds of each replica; a few rounds, such
+	 *                         as getExpanderBasedRoundCount(), are usually enough
+	 * @param sampleRate       as in KNNDescent.kNNDescentAlgorithm
+	 * @return the merged descent, whose friend rows are the result
+	 */
+	public KNNDescent<V> run(int roundsPerReplica, double sampleRate) {
+		long start = System.currentTimeMillis();
+		ExecutorService executor = Executors.newFixedThreadPool(this.replicas);
+		List<KNNDescent<V>> descents = new ArrayList<>();
+		List<CompletableFuture<FriendTable>> results = new ArrayList<>();
+		try {
+			for (int r = 0; r < this.replicas; r++) {
+				KNNDescent<V> replica = new KNNDescent<>(this.points, this.crs, this.k);
+				this.configuration.accept(replica);
+				if (replica.mappedFile != null) {
+					throw new IllegalArgumentException("Replicas cannot share the mapped file " + replica.mappedFile
+							+ "; use direct memory, useOffHeapStorage(null), for them");
+				}
+				replica.setSeed(this.seed + 0x9E3779B97F4A7C15L * (long) (r + 1));
+				replica.setRecallSampleSize(0);
+				descents.add(replica);
+				results.add(CompletableFuture.supplyAsync(() -> {
+					replica.kNNDescentAlgorithm(roundsPerReplica, sampleRate);
+					return replica.getFriendTable();
+				}, executor));
+			}
+			List<FriendTable> tables = results.stream().map(CompletableFuture::join).collect(Collectors.toList());
+			System.out.println(this.replicas + " replicas finished in "
+					+ (.001 * (double) (System.currentTimeMillis() - start)) + " secs.");
+			KNNDescent<V> merged = new KNNDescent<>(this.points, this.crs, this.k);
+			this.configuration.accept(merged);
+			merged.setSeed(this.seed);
+			merged.initializeFromTables(tables);
+			descents.forEach(KNNDescent::releaseOffHeapStorage); // rows are merged: free the replicas' memory
+			merged.refreshAllFriendSets();
+			merged.refreshAllCoFriendSets();
+			this.totalEvaluations = merged.getEvaluationCount()
+					+ descents.stream().mapToLong(KNNDescent::getEvaluationCount).sum();
+			System.out.println("Replicas merged and refreshed in "
+					+ (.001 * (double) (System.currentTimeMillis() - start)) + " secs, with " + this.totalEvaluations
+					+ " candidate evaluations in all.");
+			return merged;
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * @param setup applied to every replica and to the merged descent before it
+	 *              runs, e.g. to switch on early abandon; run() throws
+	 *              IllegalArgumentException if it maps the replicas to a file
+	 */
+	public void setConfiguration(Consumer<KNNDescent<V>> setup) {
+		this.configuration = setup;
+	}
+
+	public void setSeed(long randomSeed) {
+		this.seed = randomSeed;
+	}
+
+	/**
+	 * @return candidate evaluations of all replicas, the merge and the final round
+	 */
+	public long getTotalEvaluations() {
+		return totalEvaluations;
+	}
+
+}
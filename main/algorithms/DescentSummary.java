@@ -0,0 +1,115 @@
+/**
+ * What a run of KNNDescent.kNNDescentAlgorithm achieved: rounds completed,
+ * why it stopped, the last convergence metrics, and an estimate of recall
+ * (the proportion of true k-NN found) from a small brute force sample.
+ * @since October 2020
+ */
+package algorithms;
+
+import java.util.DoubleSummaryStatistics;
+
+/**
+ * @author rwrd
+ *
+ */
+public class DescentSummary {
+
+	public enum StopReason {
+		CONVERGED, // friend clustering coefficient stopped rising
+		FRONTIER_EMPTY, // active-set scheduling found nothing left to refresh
+		MAX_ROUNDS, DEADLINE, CANCELLED,
+		EXACT // no rounds: exactSearch() found the true k-NN
+	}
+
+	final int rounds; // complete rounds; a round cut short is not counted
+	final boolean partialRound; // a round was cut short, leaving some points not refreshed
+	final StopReason stopReason;
+	final double clusteringCoefficient, previousClusteringCoefficient;
+	final double clusteringHalfWidth; // of the 95% confidence interval; 0 if exact
+	final long evaluations;
+	final long elapsedMillis;
+	final DoubleSummaryStatistics recall; // empty if no sample was taken
+
+	DescentSummary(int roundsCompleted, boolean cutShort, StopReason reason, double coefficient,
+			double previousCoefficient, double halfWidth, long candidateEvaluations, long millis,
+			DoubleSummaryStatistics recallSample) {
+		this.rounds = roundsCompleted;
+		this.partialRound = cutShort;
+		this.stopReason = reason;
+		this.clusteringCoefficient = coefficient;
+		this.previousClusteringCoefficient = previousCoefficient;
+		this.clusteringHalfWidth = halfWidth;
+		this.evaluations = candidateEvaluations;
+		this.elapsedMillis = millis;
+		this.recall = recallSample;
+	}
+
+	/**
+	 * @return summary of an exact search: no rounds, no convergence metrics, and
+	 *         no recall sample, since every point has its true k-NN
+	 */
+	static DescentSummary exactSearch(long candidateEvaluations, long millis) {
+		return new DescentSummary(0, false, StopReason.EXACT, Double.NaN, Double.NaN, Double.NaN,
+				candidateEvaluations, millis, new DoubleSummaryStatistics());
+	}
+
+	public int getRounds() {
+		return rounds;
+	}
+
+	public boolean isPartialRound() {
+		return partialRound;
+	}
+
+	public StopReason getStopReason() {
+		return stopReason;
+	}
+
+	public double getClusteringCoefficient() {
+		return clusteringCoefficient;
+	}
+
+	public double getPreviousClusteringCoefficient() {
+		return previousClusteringCoefficient;
+	}
+
+	public double getClusteringHalfWidth() {
+		return clusteringHalfWidth;
+	}
+
+	public long getEvaluations() {
+		return evaluations;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	/**
+	 * @return mean proportion of true k-NN found, over the sample; NaN if no
+	 *         sample was taken
+	 */
+	public double getEstimatedRecall() {
+		return (recall.getCount() > 0) ? recall.getAverage() : Double.NaN;
+	}
+
+	public DoubleSummaryStatistics getRecall() {
+		return recall;
+	}
+
+	@Override
+	public String toString() {
+		if (stopReason == StopReason.EXACT) {
+			return "Exact k-NN search, " + (0.001 * (double) elapsedMillis) + " secs; " + evaluations
+					+ " evaluations.";
+		}
+		return "KNN Descent stopped (" + stopReason + ") after " + rounds + " rounds"
+				+ (partialRound ? " and part of another" : "") + ", " + (0.001 * (double) elapsedMillis)
+				+ " secs; friend clustering " + clusteringCoefficient + " (previous " + previousClusteringCoefficient
+				+ ", +/- " + clusteringHalfWidth + "); " + evaluations + " evaluations"
+				+ ((recall.getCount() > 0L)
+						? "; estimated recall " + this.getEstimatedRecall() + " from " + recall.getCount() + " points."
+						: ".");
+	}
+
+}
@@ -0,0 +1,353 @@
+/**
+ * Focus sizes |V_{x,y}| of CohesionGraphBuilder, in compressed sparse row form.
+ * Points get dense ids 0, ..., n-1. Arc a from x to y, for y a friend of x, lies
+ * in row x (positions offsets[x], ..., offsets[x+1]-1), in rank order from x. It
+ * carries the int focus size of the pair {x, y} and one bit, packed 64 to a
+ * long, which says whether x is also a friend of y. A mutual pair has two arcs,
+ * one in each row, with the same focus size.
+ * Memory: two ints per arc plus one bit, instead of boxed Integers in hash maps.
+ * The Guava graphs of the earlier builder are available as copies; see
+ * toValueGraph() and toMutualFriendGraph().
+ * Arc positions are ints, so n*k must stay below 2^31.
+ * Construction is parallel. Every arc has its slot fixed by the row offsets, so
+ * each slot has exactly one writer and the result does not depend on thread
+ * scheduling; see fillByRanks().
+ * fillByRanks() computes the sizes from the rows alone, by Proposition 6.1 of
+ * [2] (see CohesionGraphBuilder): ranks are positions in rows, and the
+ * intersection counts merge two rows sorted by id into a bitset of positions,
+ * then take popcounts. No comparator is called.
+ * @since October 2020
+ */
+package algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.stream.IntStream;
+
+import com.google.common.graph.GraphBuilder;
+import com.google.common.graph.MutableGraph;
+import com.google.common.graph.MutableValueGraph;
+import com.google.common.graph.ValueGraphBuilder;
+
+/**
+ * @author rwrd
+ *
+ */
+public class FocusGraph<V> {
+
+	final List<V> points; // point id = position in this list
+	final Map<V, Integer> idOf;
+	final int[] offsets; // n+1 row boundaries
+	final int[] targets; // friend ids, row by row
+	final int[] focusSizes; // |V_{x,y}| for each arc
+	final long[] mutualBits; // bit a is set when arc a has a reverse arc
+
+	/*
+	 * Rows and mutual bits from sorted friend sets; focus sizes are filled in by
+	 * the builder
+	 */
+	FocusGraph(Map<V, NavigableSet<V>> friends) {
+		int n = friends.size();
+		this.points = new ArrayList<>(friends.keySet());
+		this.idOf = new HashMap<>(2 * n);
+		for (int x = 0; x < n; x++) {
+			this.idOf.put(this.points.get(x), x);
+		}
+		this.offsets = new int[n + 1];
+		long arcs = 0L;
+		for (int x = 0; x < n; x++) {
+			arcs += friends.get(this.points.get(x)).size();
+			if (arcs > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("More than " + Integer.MAX_VALUE + " friend pairs");
+			}
+			this.offsets[x + 1] = (int) arcs;
+		}
+		this.targets = new int[(int) arcs];
+		IntStream.range(0, n).parallel().forEach(x -> {
+			int a = this.offsets[x];
+			for (V y : friends.get(this.points.get(x))) {
+				this.targets[a++] = this.idOf.get(y);
+			}
+		});
+		this.focusSizes = new int[(int) arcs];
+		/*
+		 * One word of mutual bits per task, so no two tasks write the same word
+		 */
+		this.mutualBits = new long[(int) ((arcs + 63L) >>> 6)];
+		IntStream.range(0, this.mutualBits.length).parallel().forEach(w -> {
+			int first = w << 6, last = Math.min(this.targets.length, first + 64);
+			int x = this.rowOf(first);
+			long word = 0L;
+			for (int a = first; a < last; a++) {
+				while (a >= this.offsets[x + 1]) {
+					x++;
+				}
+				if (this.arc(this.targets[a], x) >= 0) {
+					word |= 1L << a; // shift is mod 64
+				}
+			}
+			this.mutualBits[w] = word;
+		});
+	}
+
+	/*
+	 * Rows, focus sizes and mutual bits already computed, with ids given by
+	 * points; see CohesionSweep
+	 */
+	FocusGraph(List<V> points, Map<V, Integer> idOf, int[] offsets, int[] targets, int[] focusSizes,
+			long[] mutualBits) {
+		this.points = points;
+		this.idOf = idOf;
+		this.offsets = offsets;
+		this.targets = targets;
+		this.focusSizes = focusSizes;
+		this.mutualBits = mutualBits;
+	}
+
+	/*
+	 * Row holding arc a: the last x with offsets[x] <= a
+	 */
+	private int rowOf(int a) {
+		int x = Arrays.binarySearch(this.offsets, a);
+		if (x < 0) {
+			return -x - 2;
+		}
+		while (x + 1 < this.offsets.length && this.offsets[x + 1] == a) {
+			x++; // skip empty rows
+		}
+		return x;
+	}
+
+	/**
+	 * Fill in every focus size by Proposition 6.1 of [2], with ranks read from
+	 * positions in rows. With multiplicities, x stands for all its copies, which
+	 * are at divergence 0 from x; likewise y. Counts of points become sums of
+	 * multiplicities. For y a friend of x, with W the total multiplicity:
+	 * |V_{x,y}| = W(z ranked above y by x) + m(x) + W(F(y)) + m(y) - W(z ranked
+	 * above y by x, in F(y)), when x is not a friend of y; and
+	 * |V_{x,y}| = W(z ranked above y by x) + m(x) + W(z ranked above x by y) +
+	 * m(y) - W(z ranked above y by x and above x by y), when it is.
+	 * The lower id of a mutual pair owns it: row x computes the pair {x, y} once,
+	 * and writes it to both its arcs, if x < y; the arc of a pair which is not
+	 * mutual is computed by its only row. Each slot thus has one writer, and the
+	 * sizes are those of a sequential pass.
+	 *
+	 * @param mult multiplicity by id, or null when every multiplicity is 1
+	 */
+	void fillByRanks(int[] mult) {
+		int n = this.size();
+		long[] sorted = new long[this.targets.length]; // row by row: friend id << 32 | position, sorted by id
+		int[] above = new int[this.targets.length]; // weight of the friends ranked above arc a in its row
+		int[] rowWeight = new int[n];
+		IntStream.range(0, n).parallel().forEach(x -> {
+			int w = 0;
+			for (int a = this.offsets[x]; a < this.offsets[x + 1]; a++) {
+				sorted[a] = ((long) this.targets[a] << 32) | (long) (a - this.offsets[x]);
+				above[a] = w;
+				w += (mult == null) ? 1 : mult[this.targets[a]];
+			}
+			rowWeight[x] = w;
+			Arrays.sort(sorted, this.offsets[x], this.offsets[x + 1]);
+		});
+		int longestRow = IntStream.range(0, n).map(x -> this.offsets[x + 1] - this.offsets[x]).max().orElse(0);
+		IntStream.range(0, n).parallel().forEach(x -> {
+			long[] mask = new long[(longestRow + 63) >>> 6];
+			int mx = (mult == null) ? 1 : mult[x];
+			for (int a = this.offsets[x]; a < this.offsets[x + 1]; a++) {
+				int y = this.targets[a];
+				int my = (mult == null) ? 1 : mult[y];
+				if (!this.isMutual(a)) {
+					this.focusSizes[a] = above[a] + mx + rowWeight[y] + my
+							- this.commonWeight(x, y, a - this.offsets[x], Integer.MAX_VALUE, sorted, mask, mult);
+				} else if (x < y) {
+					int b = this.arc(y, x);
+					int size = above[a] + mx + above[b] + my
+							- this.commonWeight(x, y, a - this.offsets[x], b - this.offsets[y], sorted, mask, mult);
+					this.focusSizes[a] = size;
+					this.focusSizes[b] = size;
+				}
+			}
+		});
+	}
+
+	/*
+	 * Total multiplicity of the z at positions below px in row x and below py in
+	 * row y. The two rows, sorted by id, are merged into a bitset of positions in
+	 * row x, which is then counted and cleared.
+	 */
+	private int commonWeight(int x, int y, int px, int py, long[] sorted, long[] mask, int[] mult) {
+		int i = this.offsets[x], iEnd = this.offsets[x + 1];
+		int j = this.offsets[y], jEnd = this.offsets[y + 1];
+		while (i < iEnd && j < jEnd) {
+			long zi = sorted[i] >>> 32, zj = sorted[j] >>> 32;
+			if (zi < zj) {
+				i++;
+			} else if (zi > zj) {
+				j++;
+			} else {
+				int pos = (int) sorted[i];
+				if (pos < px && (int) sorted[j] < py) {
+					mask[pos >>> 6] |= 1L << pos;
+				}
+				i++;
+				j++;
+			}
+		}
+		int w = 0;
+		for (int word = 0; word < ((px + 63) >>> 6); word++) {
+			long bits = mask[word];
+			if (mult == null) {
+				w += Long.bitCount(bits);
+			} else {
+				while (bits != 0L) {
+					w += mult[this.targets[this.offsets[x] + (word << 6) + Long.numberOfTrailingZeros(bits)]];
+					bits &= bits - 1L; // drop lowest set bit
+				}
+			}
+			mask[word] = 0L;
+		}
+		return w;
+	}
+
+	/**
+	 * @return position of the arc from x to y, or -1 if y is not a friend of x.
+	 *         A scan of row x, which has at most k arcs.
+	 */
+	public int arc(int x, int y) {
+		for (int a = this.offsets[x]; a < this.offsets[x + 1]; a++) {
+			if (this.targets[a] == y) {
+				return a;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return for each arc a from x to y, the position of the arc from y to x, or
+	 *         -1 if a is not mutual; built in parallel
+	 */
+	public int[] transposeIndex() {
+		int[] transpose = new int[this.targets.length];
+		IntStream.range(0, this.size()).parallel().forEach(x -> {
+			for (int a = this.offsets[x]; a < this.offsets[x + 1]; a++) {
+				transpose[a] = this.isMutual(a) ? this.arc(this.targets[a], x) : -1;
+			}
+		});
+		return transpose;
+	}
+
+	/**
+	 * @return position of the arc from y to x, for arc a from x to y; -1 unless a
+	 *         is mutual
+	 */
+	public int reverse(int x, int a) {
+		return this.isMutual(a) ? this.arc(this.targets[a], x) : -1;
+	}
+
+	public int size() {
+		return this.points.size();
+	}
+
+	public int arcCount() {
+		return this.targets.length;
+	}
+
+	/**
+	 * @return first arc of row x
+	 */
+	public int start(int x) {
+		return this.offsets[x];
+	}
+
+	/**
+	 * @return one past the last arc of row x
+	 */
+	public int end(int x) {
+		return this.offsets[x + 1];
+	}
+
+	public int target(int a) {
+		return this.targets[a];
+	}
+
+	public int focusSize(int a) {
+		return this.focusSizes[a];
+	}
+
+	public boolean isMutual(int a) {
+		return (this.mutualBits[a >>> 6] & (1L << a)) != 0L;
+	}
+
+	/**
+	 * @return |V_{x,y}|, or 0 if y is not a friend of x
+	 */
+	public int focusSize(int x, int y) {
+		int a = this.arc(x, y);
+		return (a < 0) ? 0 : this.focusSizes[a];
+	}
+
+	/**
+	 * @return number of unordered pairs of mutual friends
+	 */
+	public long mutualPairCount() {
+		long arcs = 0L;
+		for (long word : this.mutualBits) {
+			arcs += Long.bitCount(word);
+		}
+		return arcs / 2L;
+	}
+
+	public int id(V x) {
+		return this.idOf.get(x);
+	}
+
+	public V point(int x) {
+		return this.points.get(x);
+	}
+
+	/**
+	 * @return the points, in id order
+	 */
+	public List<V> getPoints() {
+		return points;
+	}
+
+	/**
+	 * @return undirected Guava graph with an edge {x, y}, valued |V_{x,y}|, for
+	 *         each pair with y a friend of x; a copy, built on each call
+	 */
+	public MutableValueGraph<V, Integer> toValueGraph() {
+		MutableValueGraph<V, Integer> graph = ValueGraphBuilder.undirected().allowsSelfLoops(false)
+				.expectedNodeCount(this.size()).build();
+		for (int x = 0; x < this.size(); x++) {
+			for (int a = this.offsets[x]; a < this.offsets[x + 1]; a++) {
+				if (!this.isMutual(a) || x < this.targets[a]) {
+					graph.putEdgeValue(this.points.get(x), this.points.get(this.targets[a]), this.focusSizes[a]);
+				}
+			}
+		}
+		return graph;
+	}
+
+	/**
+	 * @return undirected Guava graph with an edge for each pair of mutual friends;
+	 *         a copy, built on each call
+	 */
+	public MutableGraph<V> toMutualFriendGraph() {
+		MutableGraph<V> graph = GraphBuilder.undirected().allowsSelfLoops(false).expectedNodeCount(this.size())
+				.build();
+		for (int x = 0; x < this.size(); x++) {
+			for (int a = this.offsets[x]; a < this.offsets[x + 1]; a++) {
+				if (this.isMutual(a) && x < this.targets[a]) {
+					graph.putEdge(this.points.get(x), this.points.get(this.targets[a]));
+				}
+			}
+		}
+		return graph;
+	}
+
+}
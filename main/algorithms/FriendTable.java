@@ -0,0 +1,159 @@
+/**
+ * Friend lists of KNNDescent, as rows of int point ids.
+ * Row x holds the friends of point x in rank order (best first), at most k of
+ * them. Point ids are positions in the KNNDescent list of points.
+ * Layout: row x occupies k+1 consecutive ints, namely its size followed by k ids,
+ * so one row is one contiguous block whichever storage is used:
+ * Java heap, direct memory, or a memory-mapped file.
+ * Since rows are sorted, the best k' friends are a prefix of each row;
+ * prefix(k') is a view of those prefixes sharing the same storage.
+ * @since October 2020
+ */
+package algorithms;
+
+import java.nio.file.Path;
+
+import utilities.IntSegments;
+import utilities.OffHeapArena;
+
+/**
+ * @author rwrd
+ *
+ */
+public class FriendTable {
+
+	final int n, k;
+	final int limit; // at most this many friends are visible in each row: k, except in prefix views
+	final IntSegments cells;
+
+	private FriendTable(int numPoints, int numNeighbors, IntSegments storage) {
+		this(numPoints, numNeighbors, numNeighbors, storage);
+	}
+
+	private FriendTable(int numPoints, int numNeighbors, int visible, IntSegments storage) {
+		this.n = numPoints;
+		this.k = numNeighbors;
+		this.limit = visible;
+		this.cells = storage;
+	}
+
+	/**
+	 * @param kPrefix at most k
+	 * @return read-only view of the best kPrefix friends of each point, sharing
+	 *         this table's storage
+	 */
+	public FriendTable prefix(int kPrefix) {
+		if (kPrefix < 0 || kPrefix > this.limit) {
+			throw new IllegalArgumentException("Prefix " + kPrefix + " of rows with " + this.limit + " friends");
+		}
+		return new FriendTable(this.n, this.k, kPrefix, this.cells);
+	}
+
+	/**
+	 * @return empty table on the Java heap
+	 */
+	public static FriendTable onHeap(int numPoints, int numNeighbors) {
+		return new FriendTable(numPoints, numNeighbors,
+				IntSegments.onHeap((long) numPoints * (long) (numNeighbors + 1), numNeighbors + 1));
+	}
+
+	/**
+	 * @return empty table in direct memory, released when arena closes
+	 */
+	public static FriendTable offHeap(OffHeapArena arena, int numPoints, int numNeighbors) {
+		return new FriendTable(numPoints, numNeighbors,
+				IntSegments.offHeap(arena, (long) numPoints * (long) (numNeighbors + 1), numNeighbors + 1));
+	}
+
+	/**
+	 * @param headerBytes bytes reserved at the start of the file
+	 * @return table mapped from a file, unmapped when arena closes. Existing file
+	 *         contents are kept.
+	 */
+	public static FriendTable mapped(OffHeapArena arena, Path file, long headerBytes, int numPoints,
+			int numNeighbors) {
+		return new FriendTable(numPoints, numNeighbors, IntSegments.mapped(arena, file, headerBytes,
+				(long) numPoints * (long) (numNeighbors + 1), numNeighbors + 1));
+	}
+
+	private long base(int x) {
+		return (long) x * (long) (this.k + 1);
+	}
+
+	/**
+	 * @return number of friends of x
+	 */
+	public int size(int x) {
+		return Math.min(this.limit, this.cells.get(this.base(x)));
+	}
+
+	/**
+	 * @return friend of rank j+1 of x
+	 */
+	public int get(int x, int j) {
+		return this.cells.get(this.base(x) + 1 + j);
+	}
+
+	/**
+	 * @param dst length at least k
+	 * @return number of friends copied
+	 */
+	public int copyRow(int x, int[] dst) {
+		return this.copyRow(x, dst, 0);
+	}
+
+	/**
+	 * @param dst    room for at least k ids from position offset
+	 * @param offset where to put the first friend
+	 * @return number of friends copied
+	 */
+	public int copyRow(int x, int[] dst, int offset) {
+		int len = this.size(x);
+		this.cells.get(this.base(x) + 1, dst, offset, len);
+		return len;
+	}
+
+	/**
+	 * Replace row x by the first len entries of src
+	 */
+	public void setRow(int x, int[] src, int len) {
+		if (this.limit < this.k) {
+			throw new UnsupportedOperationException("Prefix view is read-only");
+		}
+		if (len > this.k) {
+			throw new IllegalArgumentException("Row of length " + len + " exceeds k = " + this.k);
+		}
+		this.cells.set(this.base(x) + 1, src, len);
+		this.cells.set(this.base(x), len);
+	}
+
+	/**
+	 * Membership by id: a linear scan of at most k ints, no comparator calls.
+	 */
+	public boolean contains(int x, int y) {
+		long b = this.base(x);
+		int len = this.size(x);
+		for (int j = 1; j <= len; j++) {
+			if (this.cells.get(b + j) == y) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public int getN() {
+		return n;
+	}
+
+	/**
+	 * @return maximum number of friends per row (kPrefix for a prefix view)
+	 */
+	public int getK() {
+		return limit;
+	}
+
+	public boolean isOffHeap() {
+		return this.cells.isOffHeap();
+	}
+
+}
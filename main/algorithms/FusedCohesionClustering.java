@@ -0,0 +1,337 @@
+/**
+ * Cluster labels only: the components of the cluster graph of
+ * CohesionGraphBuilder, without its focus, mutual friend, cohesion or cluster
+ * graphs. Input is the friend rows as ints, from a FriendTable of KNNDescent,
+ * or from sorted friend sets. Cohesion only uses the focus sizes of mutual
+ * friends, so only those are counted, row by row, in per-thread scratch arrays
+ * of length k, and discarded with the row:
+ * (1) every row yields its diagonal term, which enters the weighted trace, so
+ * the mean cohesion tau is known at the end of the pass;
+ * (2) every row is summed again, in O(k); its cohesion values decrease strictly
+ * along the row (each step down loses half of two positive summands), so those
+ * above tau form a prefix, and only its length cut[x] is kept;
+ * (3) union-find joins mutual friends x and y when each is within the cut of
+ * the other's row, which is the rule min(C_{x,y}, C_{y,x}) > tau of the
+ * cluster graph.
+ * State kept: the friend rows as CSR ints and O(n) arrays; no array of focus
+ * sizes. The price is time: the focus size of a mutual pair is counted from
+ * each of its rows, in each of passes (1) and (2), so four times, where
+ * CohesionGraphBuilder counts it once. Each count scans the row of y above x,
+ * looking up each z by binary search in row x, sorted by id once per row.
+ * From sorted friend sets, point ids are in the order of CohesionGraphBuilder,
+ * and the formulas and their evaluation order are its own and those of
+ * FocusGraph.fillByRanks(), so tau is the same to the last bit, and so are the
+ * components. From a FriendTable, ids are positions in the list of points, so
+ * tau may differ in the last bits, from the summation order.
+ * @since October 2020
+ */
+package algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.function.ToIntFunction;
+import java.util.stream.IntStream;
+
+import utilities.ConnectedComponents;
+
+/**
+ * @author rwrd
+ *
+ */
+public class FusedCohesionClustering<V> {
+
+	final List<V> points; // point id = position in this list
+	final int[] offsets, targets; // friends of x by id, in rank order: targets[offsets[x]], ...
+	final int[] mult; // multiplicity by id
+	final int[] rowWeight; // total multiplicity of the friends of x
+	final double nV;
+	final ThreadLocal<Scratch> scratch;
+	double empiricalMeanCohesion; // rescaled by (n-1) factor
+	int[] componentLabel;
+	int componentCount;
+	Clustering<V> clustering; // built on request
+	private double duration;
+
+	/*
+	 * Friend rows in CSR form, with the points they are ids of
+	 */
+	private static final class Rows<V> {
+		final List<V> points;
+		final int[] offsets, targets;
+
+		Rows(List<V> points, int[] offsets, int[] targets) {
+			this.points = points;
+			this.offsets = offsets;
+			this.targets = targets;
+		}
+	}
+
+	/*
+	 * Per-thread arrays for one row of length at most k
+	 */
+	static final class Scratch {
+		final double[] cohesion;
+		final int[] focus; // |V_{x,y}| for each mutual friend y of x, 0 for the others
+		final long[] sorted; // friend id << 32 | position, sorted by id
+
+		Scratch(int k) {
+			this.cohesion = new double[k];
+			this.focus = new int[k];
+			this.sorted = new long[k];
+		}
+	}
+
+	/**
+	 * @param neighborSets (sorted)
+	 */
+	public FusedCohesionClustering(Map<V, NavigableSet<V>> neighborSets) {
+		this(neighborSets, x -> 1);
+	}
+
+	/**
+	 * @param neighborSets      (sorted) friend sets of representatives
+	 * @param pointMultiplicity number of identical points each representative
+	 *                          stands for
+	 */
+	public FusedCohesionClustering(Map<V, NavigableSet<V>> neighborSets, ToIntFunction<V> pointMultiplicity) {
+		this(rowsOf(neighborSets), pointMultiplicity);
+	}
+
+	/**
+	 * @param points     the points, in the order of the KNNDescent which filled
+	 *                   friendRows
+	 * @param friendRows e.g. KNNDescent.getFriendTable()
+	 */
+	public FusedCohesionClustering(List<V> points, FriendTable friendRows) {
+		this(points, friendRows, x -> 1);
+	}
+
+	/**
+	 * @param points            the points, in the order of the KNNDescent which
+	 *                          filled friendRows
+	 * @param friendRows        e.g. KNNDescent.getFriendTable(), after
+	 *                          setMultiplicities()
+	 * @param pointMultiplicity number of identical points each representative
+	 *                          stands for
+	 */
+	public FusedCohesionClustering(List<V> points, FriendTable friendRows, ToIntFunction<V> pointMultiplicity) {
+		this(rowsOf(points, friendRows), pointMultiplicity);
+	}
+
+	private FusedCohesionClustering(Rows<V> rows, ToIntFunction<V> pointMultiplicity) {
+		long start = System.currentTimeMillis();
+		this.points = rows.points;
+		this.offsets = rows.offsets;
+		this.targets = rows.targets;
+		int n = this.points.size();
+		this.mult = this.points.stream().mapToInt(pointMultiplicity).toArray();
+		this.nV = (double) Arrays.stream(this.mult).asLongStream().sum();
+		this.rowWeight = new int[n];
+		IntStream.range(0, n).parallel().forEach(x -> {
+			for (int a = this.offsets[x]; a < this.offsets[x + 1]; a++) {
+				this.rowWeight[x] += this.mult[this.targets[a]];
+			}
+		});
+		int longestRow = IntStream.range(0, n).map(x -> this.offsets[x + 1] - this.offsets[x]).max().orElse(0);
+		this.scratch = ThreadLocal.withInitial(() -> new Scratch(longestRow));
+		/*
+		 * (1) Weighted trace, hence tau
+		 */
+		double weightedTrace = IntStream.range(0, n).parallel()
+				.mapToDouble(x -> (double) this.mult[x] * this.cohesionRow(x, this.scratch.get())).sum();
+		this.empiricalMeanCohesion = 0.5 * weightedTrace / this.nV;
+		double tau = this.empiricalMeanCohesion;
+		/*
+		 * (2) Length of the prefix of each row above tau
+		 */
+		int[] cut = new int[n];
+		IntStream.range(0, n).parallel().forEach(x -> {
+			Scratch s = this.scratch.get();
+			this.cohesionRow(x, s);
+			int j = 0;
+			while (j < this.offsets[x + 1] - this.offsets[x] && s.cohesion[j] > tau) {
+				j++;
+			}
+			cut[x] = j;
+		});
+		/*
+		 * (3) Components of the mutual pairs within both cuts
+		 */
+		ConnectedComponents components = new ConnectedComponents(this.offsets, this.targets, (x, a) -> {
+			if (a - this.offsets[x] >= cut[x]) {
+				return false;
+			}
+			int py = this.position(this.targets[a], x);
+			return py >= 0 && py < cut[this.targets[a]];
+		});
+		this.componentLabel = components.getLabels();
+		this.componentCount = components.getCount();
+		this.duration = (double) (System.currentTimeMillis() - start) / 1000.0;
+		System.out.println("Fused cohesion clustering: " + this.componentCount
+				+ " components, isolated points included, in " + duration + " seconds.");
+	}
+
+	/*
+	 * Points in the key order of CohesionGraphBuilder, and their friend rows
+	 */
+	private static <V> Rows<V> rowsOf(Map<V, NavigableSet<V>> neighborSets) {
+		int n = neighborSets.size();
+		List<V> points = new ArrayList<>(CohesionGraphBuilder.unmodifiableFriends(neighborSets).keySet());
+		Map<V, Integer> idOf = new HashMap<>(2 * n);
+		for (int x = 0; x < n; x++) {
+			idOf.put(points.get(x), x);
+		}
+		int[] offsets = new int[n + 1];
+		for (int x = 0; x < n; x++) {
+			long arcs = (long) offsets[x] + neighborSets.get(points.get(x)).size();
+			if (arcs > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("More than " + Integer.MAX_VALUE + " friend pairs");
+			}
+			offsets[x + 1] = (int) arcs;
+		}
+		int[] targets = new int[offsets[n]];
+		IntStream.range(0, n).parallel().forEach(x -> {
+			int a = offsets[x];
+			for (V y : neighborSets.get(points.get(x))) {
+				targets[a++] = idOf.get(y);
+			}
+		});
+		return new Rows<>(points, offsets, targets);
+	}
+
+	/*
+	 * The rows of a FriendTable, copied once into CSR form
+	 */
+	private static <V> Rows<V> rowsOf(List<V> points, FriendTable friendRows) {
+		int n = points.size();
+		if (friendRows.getN() != n) {
+			throw new IllegalArgumentException(n + " points for a friend table of " + friendRows.getN() + " rows");
+		}
+		int[] offsets = new int[n + 1];
+		for (int x = 0; x < n; x++) {
+			long arcs = (long) offsets[x] + friendRows.size(x);
+			if (arcs > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("More than " + Integer.MAX_VALUE + " friend pairs");
+			}
+			offsets[x + 1] = (int) arcs;
+		}
+		int[] targets = new int[offsets[n]];
+		IntStream.range(0, n).parallel().forEach(x -> friendRows.copyRow(x, targets, offsets[x]));
+		return new Rows<>(points, offsets, targets);
+	}
+
+	/*
+	 * Position of y among the friends of x, or -1
+	 */
+	private int position(int x, int y) {
+		for (int a = this.offsets[x]; a < this.offsets[x + 1]; a++) {
+			if (this.targets[a] == y) {
+				return a - this.offsets[x];
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * |V_{x,y}| for each mutual friend y of x, as in FocusGraph.fillByRanks(),
+	 * into s.focus; 0 for the other friends
+	 */
+	private void mutualFocusSizes(int x, Scratch s) {
+		int start = this.offsets[x], len = this.offsets[x + 1] - start;
+		for (int j = 0; j < len; j++) {
+			s.sorted[j] = ((long) this.targets[start + j] << 32) | (long) j;
+		}
+		Arrays.sort(s.sorted, 0, len);
+		int aboveX = 0; // weight of the friends x ranks above y
+		for (int j = 0; j < len; j++) {
+			int y = this.targets[start + j];
+			int py = this.position(y, x);
+			s.focus[j] = 0;
+			if (py >= 0) {
+				int aboveY = 0, common = 0;
+				for (int b = this.offsets[y]; b < this.offsets[y] + py; b++) {
+					int z = this.targets[b];
+					aboveY += this.mult[z];
+					int pz = positionById(s.sorted, len, z);
+					if (pz >= 0 && pz < j) {
+						common += this.mult[z];
+					}
+				}
+				s.focus[j] = aboveX + this.mult[x] + aboveY + this.mult[y] - common;
+			}
+			aboveX += this.mult[y];
+		}
+	}
+
+	/*
+	 * Position of id z in a row sorted by id, or -1
+	 */
+	static int positionById(long[] sorted, int len, int z) {
+		int i = Arrays.binarySearch(sorted, 0, len, (long) z << 32);
+		if (i < 0) {
+			i = -i - 1;
+		}
+		return (i < len && (sorted[i] >>> 32) == (long) z) ? (int) sorted[i] : -1;
+	}
+
+	/*
+	 * Cohesion values of row x, as in CohesionGraphBuilder, into s
+	 *
+	 * @return (n-1)*C_{x,x}
+	 */
+	private double cohesionRow(int x, Scratch s) {
+		this.mutualFocusSizes(x, s);
+		int start = this.offsets[x], len = this.offsets[x + 1] - start;
+		int mx = this.mult[x];
+		double sumStrangers = 1.0 - ((double) (this.rowWeight[x] + mx - 1) - 1.0) / this.nV;
+		double cohesionValue = sumStrangers; // contribution from strangers
+		double summand;
+		double summandSt = 1.0 / this.nV;
+		for (int j = len - 1; j >= 0; j--) {
+			summand = (s.focus[j] > 0) ? 1.0 / (double) s.focus[j] : summandSt;
+			summand *= (double) this.mult[this.targets[start + j]];
+			cohesionValue += summand;
+			s.cohesion[j] = cohesionValue - 0.5 * summand; // tie-break
+		}
+		cohesionValue += CohesionGraphBuilder.copiesTerm(mx, Integer.MAX_VALUE, this.nV); // copies of x
+		return cohesionValue;
+	}
+
+	/**
+	 * @return the points, in id order
+	 */
+	public List<V> getPoints() {
+		return points;
+	}
+
+	/**
+	 * @return component of each point, by id: labels 0, 1, ... in order of
+	 *         smallest id; isolated points are components of their own
+	 */
+	public int[] getLabels() {
+		return componentLabel;
+	}
+
+	/**
+	 * @return the labels as a Clustering, built on the first call
+	 */
+	public Clustering<V> getClustering() {
+		if (this.clustering == null) {
+			this.clustering = new Clustering<>(this.points, null, this.componentLabel, this.componentCount);
+		}
+		return clustering;
+	}
+
+	public int getComponentCount() {
+		return componentCount;
+	}
+
+	public double getEmpiricalMeanCohesion() {
+		return empiricalMeanCohesion;
+	}
+
+}
@@ -1,46 +1,188 @@
 /**
- * Parallel stream, functional implementation of K-nearest neighbor descent. 
+ * Parallel stream, functional implementation of K-nearest neighbor descent.
  * Passed test 4.3.2020.
  * Revised 4.9.20 so friend sets are always sorted.
  * Termination criterion uses friend clustering rate.
- * 
+ *
+ * Revised October 2020: friend sets are rows of int point ids (positions in the
+ * list of points) in a FriendTable, sorted by rank, and co-friend sets are
+ * rebuilt each round in compressed sparse row form. Either can live on the Java
+ * heap (default) or off-heap; see useOffHeapStorage(). The Map views returned
+ * by getFriends() and getCoFriends() are built on request.
+ * Optional active-set scheduling refreshes only points whose neighborhood
+ * changed in the previous round; see setActiveSetScheduling().
+ * Optional symmetric updates evaluate pairs within each neighborhood and offer
+ * each pair to both endpoints (the local join of [2]); see setSymmetricUpdates().
+ * Optional asynchronous (Gauss-Seidel) rounds publish each new friend list at
+ * once, in a random order of points; see setAsynchronous().
+ * Optional load balancing schedules points by estimated work; see
+ * setLoadBalancing().
+ * A run may start warm, from the friends of an earlier run on drifted data,
+ * rather than from random friends; see warmStart() and saveGraph().
+ *
  * WARNING: In a Sorted Set, comparator determines the .equals() method.
- * Hence if two items are tied, one will be DROPPED from the set!
- * A data set in which ties may exist should be "pre-jittered" to resolve all ties.
- * 
+ * Hence if two items are tied, one would be DROPPED from the set!
+ * Friend rows keep tied points; the sorted sets returned by getFriends() break
+ * ties by position in the list of points.
+ *
  * References:
  * [1]Jacob D. Baron; R. W. R. Darling. K-nearest neighbor approximation via the friend-of-a-friend principle. arXiv:1908.07645,
- * [2] Dong, Wei; Moses, Charikar; Li, Kai. Efficient k-nearest neighbor graph construction for generic similarity measures. 
+ * [2] Dong, Wei; Moses, Charikar; Li, Kai. Efficient k-nearest neighbor graph construction for generic similarity measures.
  * Proceedings of the 20th International Conference on World Wide Web, 577--586, 2011
  */
 package algorithms;
 
-import java.util.ArrayList;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Comparator;
 import java.util.DoubleSummaryStatistics;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.IntSummaryStatistics;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
 import java.util.Set;
 import java.util.SplittableRandom;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import utilities.BoundedDivergence;
+import utilities.CancellationToken;
+import utilities.ConcurrentBitSet;
+import utilities.DoubleSegments;
+import utilities.IntSegments;
+import utilities.OffHeapArena;
+import utilities.TermCounter;
 
 /**
  * @author rwrd
  *
  */
 public class KNNDescent<V> {
-	List<V> points; // for random sampling, a list is preferable to a set.
+	List<V> points; // for random sampling, a list is preferable to a set. Point id = position in list.
 	Function<V, Comparator<V>> crs; // concordant ranking system on the set of points
-	Map<V, NavigableSet<V>> friends; // keyset = points
-	Map<V, Set<V>> coFriends; // keyset = points. cof-riends need not be sorted
+	FriendTable friends; // row x = friends of point x, best first
+	FriendTable nextFriends; // written during a round, then swapped with friends
+	/*
+	 * Co-friends of x are coFriendIds[offsets[x]], ..., [offsets[x] + sizes[x] - 1].
+	 * Row x has room for offsets[x+1] - offsets[x] ids; rows are packed, except in
+	 * active-set rounds, where each row has slack so that it can be patched.
+	 */
+	IntSegments coFriendOffsets, coFriendIds, coFriendSizes;
 	int k;
 	int expanderBasedRoundCount; // plausible number of rounds, based on k and #{points}
 	SplittableRandom g;
+	long seed; // per-point random streams are derived from this
+	/*
+	 * Optional early abandon scoring. When set, a candidate's divergence from x is
+	 * only evaluated until it exceeds that of the current k-th best friend.
+	 */
+	BoundedDivergence<V> boundedDiv;
+	TermCounter termCounter; // may be null
+	/*
+	 * Optional multiplicities, when each point stands for several identical
+	 * points (see utilities.DuplicateCollapser). A friend set is then the shortest
+	 * prefix whose total multiplicity, plus that of the other copies of x itself,
+	 * reaches k.
+	 */
+	ToIntFunction<V> multiplicity; // null means every point has multiplicity 1
+	int[] mult; // multiplicity by point id, filled from multiplicity at initialization
+	/*
+	 * Storage. On the heap unless useOffHeapStorage() was called. The friend
+	 * tables live in storageArena; co-friend rows live in roundArena, which is
+	 * closed, freeing its memory, as soon as the next round's co-friends are built.
+	 */
+	boolean offHeap;
+	Path mappedFile; // null means direct memory
+	OffHeapArena storageArena, roundArena;
+	/*
+	 * Active-set scheduling. A point is refreshed in round r+1 only if it, one of
+	 * its friends or one of its co-friends got a new friend row in round r. The
+	 * frontier holds those points; changed holds the points whose row changed.
+	 */
+	boolean activeSetScheduling;
+	ConcurrentBitSet frontier, changed;
+	int[] lastChanged; // ids whose row changed in the last round
+	long lastChangedRows = -1L; // rows changed by the last synchronous round; -1 in other modes
+	static final double WARM_CHANGE_FRACTION = 0.1; // a warm run goes on while more rows than this change
+	int coFriendRebuilds; // active-set rounds in which a co-friend row ran out of slack
+	/*
+	 * Symmetric and asynchronous updates. Row x of workingFriends is the running
+	 * friend list of x during a round, with its scores in workingScores under early
+	 * abandon, guarded by the lock stripes[x & (LOCK_STRIPES-1)], since any worker
+	 * may write it or read it. Both live in the same storage as the friend rows.
+	 */
+	static final int LOCK_STRIPES = 1 << 10; // power of 2
+	boolean symmetricUpdates;
+	boolean asynchronous;
+	boolean asyncRound; // true while an asynchronous round runs: friend rows are read from working
+	IntConsumer roundListener; // called with the round number after each round; may be null
+	FriendTable workingFriends;
+	DoubleSegments workingScores; // k per row; null without early abandon
+	Object[] stripes;
+	/*
+	 * Symmetric rounds join at most joinSample new friends of each point, and at
+	 * most joinSample new and joinSample old co-friends, drawn afresh for every
+	 * point and round, as in the sampling of NN-descent.
+	 */
+	static final double DEFAULT_JOIN_SAMPLE_RATE = 0.5;
+	int joinSample;
+	ConcurrentBitSet drawnArcs; // new friends drawn for this symmetric round
+	final LongAdder evaluations = new LongAdder(); // candidate scorings during rounds
+	/*
+	 * At most coFriendCap co-friends of a point, with their friends, enter its
+	 * candidate pool in a round. roundNumber counts rounds of the current run.
+	 */
+	int coFriendCap = Integer.MAX_VALUE;
+	int roundNumber;
+	/*
+	 * Load balancing: points are scheduled by estimated work, from friend and
+	 * co-friend counts. Either way, the core utilisation of the last refresh is
+	 * kept for the round report.
+	 */
+	boolean loadBalancing;
+	RoundScheduler.Report lastSchedule;
+	/*
+	 * Anytime mode. Workers poll stopRequested() before each point; once the
+	 * deadline passes or the token is cancelled, the remaining points of the round
+	 * keep their current friends, and the run ends.
+	 */
+	boolean hasDeadline;
+	long deadlineNanos; // System.nanoTime() value
+	CancellationToken cancellation; // may be null
+	volatile boolean stopped;
+	static final int DEFAULT_RECALL_SAMPLE = 20; // for anytime runs
+	int recallSampleSize = -1; // points whose true k-NN are found at the end of a run; -1: by default
+	double lastHalfWidth; // of the last friend clustering estimate
+	boolean warmStarted; // the next run keeps the friends from warmStart() instead of random ones
+	/*
+	 * Map views, built on request, discarded when friends change
+	 */
+	Map<V, Integer> idOf;
+	Map<V, NavigableSet<V>> friendView;
+	Map<V, Set<V>> coFriendView;
+	/*
+	 * Per-thread scratch arrays for proposeNewFriendSet
+	 */
+	final ThreadLocal<Workspace> workspaces = ThreadLocal.withInitial(() -> new Workspace(this.k));
 
 	/**
 	 * @param Set<V>         dataPoints
@@ -53,76 +195,372 @@ public class KNNDescent<V> {
 		this.expanderBasedRoundCount = (int) Math.ceil(Math.log((double) dataPoints.size()) / Math.log((double) k)); // log_k(n)
 		this.crs = rankingSystem;
 		g = new SplittableRandom();
+		this.seed = g.nextLong();
+		this.offHeap = false;
+		this.setJoinSampleRate(DEFAULT_JOIN_SAMPLE_RATE);
 	}
 
 	/**
 	 * Parallel implementation of kNN Descent with an a priori bound on the number
 	 * of rounds, and a convergence criterion. Plausible bound on number of rounds
 	 * is 2*expanderBasedRoundCount. Sampling is used in the stopping criterion.
-	 * 
+	 *
 	 * @param int    maxRounds
 	 * @param double sampleRate
-	 * 
+	 * @return summary of the run
+	 *
 	 */
-	public void kNNDescentAlgorithm(int maxRounds, double sampleRate) {
+	public DescentSummary kNNDescentAlgorithm(int maxRounds, double sampleRate) {
+		return this.runDescent(maxRounds, sampleRate, null, null, Math.max(0, this.recallSampleSize));
+	}
+
+	/**
+	 * Anytime version: the run also stops when the wall-clock budget is spent or
+	 * the token is cancelled. Both are checked before each point of a round, not
+	 * only between rounds. When the run stops inside a round, the points not yet
+	 * refreshed keep their friends, so the friend rows are always a consistent
+	 * friend graph. Initialization is always completed. Recall is then estimated
+	 * on DEFAULT_RECALL_SAMPLE points, unless setRecallSampleSize() says
+	 * otherwise, in parallel and within the same budget; not after a stopped run.
+	 *
+	 * @param budget       may be null, for no time limit
+	 * @param cancellation may be null
+	 * @return rounds completed, last convergence metrics, estimated recall
+	 */
+	public DescentSummary kNNDescentAlgorithm(int maxRounds, double sampleRate, Duration budget,
+			CancellationToken cancellation) {
+		return this.runDescent(maxRounds, sampleRate, budget, cancellation,
+				(this.recallSampleSize < 0) ? DEFAULT_RECALL_SAMPLE : this.recallSampleSize);
+	}
+
+	private DescentSummary runDescent(int maxRounds, double sampleRate, Duration budget,
+			CancellationToken cancellation, int recallSample) {
 		IntSummaryStatistics friendStatistics, coFriendStatistics;
-		System.out.println("Starting KNN Descent with a maximum of " + maxRounds + " rounds.");
+		System.out.println("Starting KNN Descent with a maximum of " + maxRounds + " rounds"
+				+ ((budget == null) ? "." : ", within " + budget + "."));
+		long runStart = System.currentTimeMillis();
+		this.hasDeadline = (budget != null);
+		this.deadlineNanos = (budget == null) ? 0L : System.nanoTime() + budget.toNanos();
+		this.cancellation = cancellation;
+		this.stopped = false;
 		long start = System.currentTimeMillis();
-		this.initializeAllFriendSets();
-		this.refreshAllCoFriendSets();
+		boolean warm = this.warmStarted;
+		this.warmStarted = false;
+		if (!warm) {
+			this.initializeAllFriendSets();
+		}
+		boolean frontierDriven = this.activeSetScheduling && !this.symmetricUpdates && !this.asynchronous;
+		this.buildCoFriendRows(frontierDriven); // with room to patch, when only changed rows are refreshed
+		this.coFriendRebuilds = 0;
 		/*
 		 * Diagnostic reports
 		 */
 		coFriendStatistics = this.coFriendStats();
-		System.out.println(
-				"Initial friend sets chosen in " + (.001 * (double) (System.currentTimeMillis() - start)) + " secs.");
+		System.out.println((warm ? "Warm start friend sets kept; co-friends built in " : "Initial friend sets chosen in ")
+				+ (.001 * (double) (System.currentTimeMillis() - start)) + " secs.");
 		System.out.println("Co-friend sets range in size from " + coFriendStatistics.getMin() + " to "
 				+ coFriendStatistics.getMax() + ", mean " + coFriendStatistics.getAverage());
+		if (this.offHeap) {
+			System.out.println("Off-heap storage in use: " + this.offHeapBytes() + " bytes.");
+		}
 		System.out.println("_/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ ");
 		/*
 		 * Prepare iteration
 		 */
 		double oldClusterCoeff = Integer.MIN_VALUE;
+		this.lastHalfWidth = Double.NaN;
+		/*
+		 * Warm or cold, round 2 is the first to be compared. The clustering of a
+		 * warm graph is near its plateau from the start, while recall still grows,
+		 * so a warm synchronous run also goes on while more than
+		 * WARM_CHANGE_FRACTION of the rows change.
+		 */
 		double newClusterCoeff = 0.0;
+		this.lastChangedRows = -1L;
 		int rounds = 0;
-		while (rounds < maxRounds && newClusterCoeff > oldClusterCoeff) {
+		this.roundNumber = 0;
+		boolean partialRound = false;
+		if (this.activeSetScheduling) {
+			this.frontier = new ConcurrentBitSet(this.points.size());
+			this.changed = new ConcurrentBitSet(this.points.size());
+			this.frontier.setAll();
+		}
+		while (rounds < maxRounds && (frontierDriven ? !this.frontier.isEmpty()
+				: newClusterCoeff > oldClusterCoeff || (warm && this.lastChangedRows > (long) (WARM_CHANGE_FRACTION
+						* (double) this.points.size())))
+				&& !this.stopRequested()) {
 			start = System.currentTimeMillis();
-			this.refreshAllFriendSets();
-			this.refreshAllCoFriendSets();
+			int activePoints = this.points.size();
+			long updates = -1L;
+			if (this.symmetricUpdates) {
+				updates = this.refreshAllFriendSetsSymmetric();
+				this.refreshAllCoFriendSets();
+			} else if (this.asynchronous) {
+				this.refreshAllFriendSetsAsynchronous();
+				this.refreshAllCoFriendSets();
+			} else if (this.activeSetScheduling) {
+				activePoints = this.refreshActiveFriendSets(); // patches the co-friend rows
+				this.advanceFrontier();
+			} else {
+				this.refreshAllFriendSets();
+				this.refreshAllCoFriendSets();
+			}
+			if (this.stopped) {
+				partialRound = true; // friend rows are consistent, but the round is incomplete
+				System.out.println("Round " + (rounds + 1) + " of KNN Descent was cut short after "
+						+ (.001 * (double) (System.currentTimeMillis() - start)) + " secs.");
+				break;
+			}
 			rounds++;
-			oldClusterCoeff = newClusterCoeff;
-			newClusterCoeff = this.estimateFriendClustering(sampleRate);
-			/*
-			 * Diagnostic reports
-			 */
-			coFriendStatistics = this.coFriendStats();
-			friendStatistics = this.friendStats();
+			this.roundNumber = rounds;
 			System.out.println("Round " + rounds + " of KNN Descent took "
 					+ (.001 * (double) (System.currentTimeMillis() - start)) + " secs.");
-			System.out.println("Friend sets range in size from " + friendStatistics.getMin() + " to "
-					+ friendStatistics.getMax() + ", mean " + friendStatistics.getAverage());
-			System.out.println("Co-friend sets range in size from " + coFriendStatistics.getMin() + " to "
-					+ coFriendStatistics.getMax() + ", mean " + coFriendStatistics.getAverage());
-			System.out.println("Friend clustering coefficient = " + newClusterCoeff);
+			/*
+			 * Diagnostic reports. Each costs O(n), so they are skipped while the
+			 * frontier drives the loop, and rounds cost O(frontier).
+			 */
+			if (!frontierDriven) {
+				oldClusterCoeff = newClusterCoeff;
+				newClusterCoeff = this.estimateFriendClustering(sampleRate);
+				coFriendStatistics = this.coFriendStats();
+				friendStatistics = this.friendStats();
+				System.out.println("Friend sets range in size from " + friendStatistics.getMin() + " to "
+						+ friendStatistics.getMax() + ", mean " + friendStatistics.getAverage());
+				System.out.println("Co-friend sets range in size from " + coFriendStatistics.getMin() + " to "
+						+ coFriendStatistics.getMax() + ", mean " + coFriendStatistics.getAverage());
+				System.out.println("Friend clustering coefficient = " + newClusterCoeff);
+			}
+			if (this.lastSchedule != null && !this.asynchronous) {
+				System.out.println(this.lastSchedule.toString());
+			}
+			if (updates >= 0L) {
+				System.out.println("Symmetric updates: " + updates + " insertions.");
+			}
+			if (frontierDriven) {
+				System.out.println("Refreshed " + activePoints + " points, of which " + this.lastChanged.length
+						+ " changed; next frontier " + this.frontier.cardinality() + " points; co-friend rows rebuilt "
+						+ this.coFriendRebuilds + " times so far.");
+			}
+			if (this.termCounter != null) {
+				System.out.println("Early abandon: " + this.termCounter.toString());
+				this.termCounter.reset();
+			}
 			System.out.println("_/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ ");
+			if (this.roundListener != null) {
+				this.roundListener.accept(rounds);
+			}
+		}
+		System.out.println("KNN Descent terminated after " + rounds + " rounds, with " + this.evaluations.sum()
+				+ " candidate evaluations.");
+		if (frontierDriven) {
+			oldClusterCoeff = Double.NaN; // not tracked round by round
+			newClusterCoeff = (rounds > 0 && !this.stopped) ? this.estimateFriendClustering(sampleRate) : Double.NaN;
 		}
-		System.out.println("KNN Descent terminated after " + rounds + " rounds.");
+		DescentSummary.StopReason reason;
+		if (this.stopped) {
+			reason = (cancellation != null && cancellation.isCancelled()) ? DescentSummary.StopReason.CANCELLED
+					: DescentSummary.StopReason.DEADLINE;
+		} else if (frontierDriven && this.frontier.isEmpty()) {
+			reason = DescentSummary.StopReason.FRONTIER_EMPTY;
+		} else if (rounds >= maxRounds) {
+			reason = DescentSummary.StopReason.MAX_ROUNDS;
+		} else {
+			reason = DescentSummary.StopReason.CONVERGED;
+		}
+		DoubleSummaryStatistics recall = (recallSample > 0 && !this.stopped)
+				? this.qualityAssessment(recallSample, true)
+				: new DoubleSummaryStatistics();
+		DescentSummary summary = new DescentSummary(rounds, partialRound, reason, newClusterCoeff,
+				(rounds > 1) ? oldClusterCoeff : Double.NaN, this.lastHalfWidth, this.evaluations.sum(),
+				System.currentTimeMillis() - runStart, recall);
+		System.out.println(summary.toString());
+		return summary;
+	}
+
+	/*
+	 * True once the deadline has passed or the run was cancelled; stays true for
+	 * the rest of the run.
+	 */
+	boolean stopRequested() {
+		if (!this.stopped && ((this.cancellation != null && this.cancellation.isCancelled())
+				|| (this.hasDeadline && System.nanoTime() - this.deadlineNanos >= 0L))) {
+			this.stopped = true;
+		}
+		return this.stopped;
+	}
+
+	/*
+	 * Scratch space of one worker thread
+	 */
+	static final class Workspace {
+		int[] pool; // candidate ids, grown as needed
+		int[] row; // copy of one friend row
+		Ranking ranking;
+
+		Workspace(int k) {
+			this.pool = new int[4 * k * k];
+			this.row = new int[k];
+			this.ranking = new Ranking(k);
+		}
+
+		void ensurePool(int capacity) {
+			if (this.pool.length < capacity) {
+				this.pool = Arrays.copyOf(this.pool, Math.max(capacity, 2 * this.pool.length));
+			}
+		}
+	}
+
+	/*
+	 * Running list of the best candidates seen from one base point x, sorted by
+	 * rank from x. Scores (divergences from x) are kept only with early abandon.
+	 */
+	static final class Ranking {
+		int[] ids;
+		double[] scores;
+		int size;
+
+		Ranking(int k) {
+			this.ids = new int[k + 2];
+			this.scores = new double[k + 2];
+			this.size = 0;
+		}
+
+		boolean contains(int y) {
+			for (int j = 0; j < this.size; j++) {
+				if (this.ids[j] == y) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/*
+		 * Insert id y with score s at position pos, growing if necessary
+		 */
+		void insertAt(int pos, int y, double s) {
+			if (this.size == this.ids.length) {
+				this.ids = Arrays.copyOf(this.ids, 2 * this.size);
+				this.scores = Arrays.copyOf(this.scores, 2 * this.size);
+			}
+			System.arraycopy(this.ids, pos, this.ids, pos + 1, this.size - pos);
+			System.arraycopy(this.scores, pos, this.scores, pos + 1, this.size - pos);
+			this.ids[pos] = y;
+			this.scores[pos] = s;
+			this.size++;
+		}
+
+		int last() {
+			return this.ids[this.size - 1];
+		}
+	}
+
+	/*
+	 * Insert y into the ranking from x, after any tied entries.
+	 */
+	void insertByRank(int x, int y, Ranking r) {
+		int lo = 0, hi = r.size;
+		if (this.boundedDiv != null) {
+			V vx = this.points.get(x);
+			double s = this.boundedDiv.applyAsDouble(vx, this.points.get(y), Double.POSITIVE_INFINITY);
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (r.scores[mid] <= s) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			r.insertAt(lo, y, s);
+		} else {
+			Comparator<V> cx = crs.apply(this.points.get(x));
+			V vy = this.points.get(y);
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (cx.compare(this.points.get(r.ids[mid]), vy) <= 0) {
+					lo = mid + 1;
+				} else {
+					hi = mid;
+				}
+			}
+			r.insertAt(lo, y, Double.NaN);
+		}
+	}
+
+	/*
+	 * Load row x of a friend table into a ranking, computing scores if needed.
+	 */
+	void loadRanking(int x, FriendTable table, Ranking r, int[] rowBuffer) {
+		int len = table.copyRow(x, rowBuffer);
+		r.size = 0;
+		if (this.boundedDiv != null) {
+			V vx = this.points.get(x);
+			for (int j = 0; j < len; j++) {
+				r.insertAt(j, rowBuffer[j],
+						this.boundedDiv.applyAsDouble(vx, this.points.get(rowBuffer[j]), Double.POSITIVE_INFINITY));
+			}
+		} else {
+			for (int j = 0; j < len; j++) {
+				r.insertAt(j, rowBuffer[j], Double.NaN);
+			}
+		}
+	}
+
+	/*
+	 * How much more multiplicity does the friend set of x need to stand for k
+	 * points? The other copies of x count first, since they are at divergence 0.
+	 */
+	int weightShortfall(int x, Ranking r) {
+		if (this.mult == null) {
+			return this.k - r.size;
+		}
+		int w = this.mult[x] - 1;
+		for (int j = 0; j < r.size; j++) {
+			w += this.mult[r.ids[j]];
+		}
+		return this.k - w;
+	}
+
+	/*
+	 * Remove the worst friends which are not needed to reach weight k, but never
+	 * empty the set. Without multiplicities this caps the set at k elements.
+	 */
+	void trimToWeight(int x, Ranking r) {
+		if (this.mult == null) {
+			r.size = Math.min(r.size, this.k);
+			return;
+		}
+		int surplus = -this.weightShortfall(x, r);
+		while (r.size > 1 && surplus >= this.mult[r.last()]) {
+			surplus -= this.mult[r.last()];
+			r.size--;
+		}
+		r.size = Math.min(r.size, this.k);
 	}
 
 	/*
 	 * Supplies a random initial SORTED set of k friends to a given point.
 	 */
-	Function<V, NavigableSet<V>> randomKFriends = x -> {
-		NavigableSet<V> reachOut = new TreeSet<>(crs.apply(x));
-		V y;
-		while (reachOut.size() < this.k) {
-			y = this.points.get(g.nextInt(points.size()));
-			if (!x.equals(y)) {
-				reachOut.add(y); // nothing happens if y is in the set already
+	void randomKFriends(int x, Ranking r) {
+		r.size = 0;
+		this.fillRandomly(x, r);
+	}
+
+	/*
+	 * Add random friends to r until it reaches weight k (or has at least one
+	 * friend, if it is empty), keeping it sorted
+	 */
+	void fillRandomly(int x, Ranking r) {
+		SplittableRandom gx = new SplittableRandom(this.seed ^ (0x9E3779B97F4A7C15L * (long) (x + 1)));
+		int n = this.points.size();
+		int y;
+		while (r.size == 0 || (r.size < this.k && this.weightShortfall(x, r) > 0)) {
+			y = gx.nextInt(n);
+			if (y != x && !r.contains(y)) {
+				this.insertByRank(x, y, r); // nothing happens if y is in the set already
 			}
 		}
-		return reachOut;
-	};
+		this.trimToWeight(x, r);
+	}
 
 	/*
 	 * Every point is assigned a random set of k friends, in parallel. The
@@ -130,68 +568,921 @@ public class KNNDescent<V> {
 	 * method.
 	 */
 	public void initializeAllFriendSets() {
-		this.friends = this.points.parallelStream()
-				.collect(Collectors.toMap(Function.identity(), x -> randomKFriends.apply(x))); // choice between
-																								// parallel or not
-		this.coFriends = this.points.parallelStream()
-				.collect(Collectors.toMap(Function.identity(), x -> new HashSet<V>()));
+		int n = this.points.size();
+		this.fillMultiplicities();
+		this.allocateFriendTables(n);
+		IntStream.range(0, n).parallel().forEach(x -> {
+			Workspace ws = this.workspaces.get();
+			this.randomKFriends(x, ws.ranking);
+			this.friends.setRow(x, ws.ranking.ids, ws.ranking.size);
+			this.nextFriends.setRow(x, ws.row, 0); // no earlier rows: every friend is new
+		});
+		this.evaluations.reset();
+		this.coFriendOffsets = null;
+		this.coFriendIds = null;
+		this.coFriendSizes = null;
+		this.invalidateViews();
+	}
+
+	/**
+	 * Start from several friend tables over the same points, for example those of
+	 * independent runs: each point keeps the best of all its friends in all the
+	 * tables. Co-friend sets are rebuilt. Replaces initializeAllFriendSets, so that
+	 * refreshAllFriendSets, or kNNDescentAlgorithm's rounds, may follow.
+	 *
+	 * @param tables each with n rows and the same k as this
+	 */
+	public void initializeFromTables(List<FriendTable> tables) {
+		int n = this.points.size();
+		for (FriendTable table : tables) {
+			if (table.getN() != n || table.getK() != this.k) {
+				throw new IllegalArgumentException("Friend table has " + table.getN() + " rows of " + table.getK()
+						+ " friends; expected " + n + " rows of " + this.k);
+			}
+		}
+		this.fillMultiplicities();
+		this.allocateFriendTables(n);
+		this.evaluations.reset();
+		IntStream.range(0, n).parallel().forEach(x -> {
+			Workspace ws = this.workspaces.get();
+			ws.ensurePool(tables.size() * this.k);
+			int poolSize = 0;
+			for (FriendTable table : tables) {
+				poolSize += table.copyRow(x, ws.pool, poolSize);
+			}
+			Arrays.sort(ws.pool, 0, poolSize); // so duplicates are adjacent
+			this.loadRanking(x, tables.get(0), ws.ranking, ws.row);
+			this.evaluations.add(this.scanCandidates(x, ws.pool, poolSize, ws.ranking));
+			this.friends.setRow(x, ws.ranking.ids, ws.ranking.size);
+			this.nextFriends.setRow(x, ws.row, 0); // no earlier rows: every friend is new
+		});
+		this.coFriendOffsets = null;
+		this.coFriendIds = null;
+		this.coFriendSizes = null;
+		this.refreshAllCoFriendSets();
+		this.invalidateViews();
+	}
+
+	/**
+	 * Warm start from the friends of an earlier run, for example on the same
+	 * points before their data drifted. Each point's prior friends are scored
+	 * afresh under the current ranking system and sorted; friends which are no
+	 * longer points are dropped, and points with too few (including new points)
+	 * get random friends to make up weight k. The next kNNDescentAlgorithm run
+	 * starts from these friend sets instead of random ones. It stops like a cold
+	 * start, except that synchronous rounds go on while more than
+	 * WARM_CHANGE_FRACTION of the friend rows change.
+	 *
+	 * @param prior friends by point, in any order; may omit points
+	 */
+	public void warmStart(Map<V, ? extends Collection<V>> prior) {
+		Map<V, Integer> ids = this.idOf();
+		this.warmStart(x -> {
+			Collection<V> old = prior.get(this.points.get(x));
+			if (old == null) {
+				return new int[0];
+			}
+			return old.stream().map(ids::get).filter(y -> y != null).mapToInt(Integer::intValue).toArray();
+		});
+	}
+
+	/**
+	 * Warm start from a graph written by saveGraph(), matching points by stable
+	 * id rather than by position in the list of points.
+	 *
+	 * @param stableId same function as was given to saveGraph(); ids of distinct
+	 *                 points must differ
+	 */
+	public void warmStart(Path file, ToLongFunction<V> stableId) {
+		Map<Long, Integer> ids = new HashMap<>(2 * this.points.size());
+		for (int x = 0; x < this.points.size(); x++) {
+			ids.put(stableId.applyAsLong(this.points.get(x)), x);
+		}
+		int[][] rows = new int[this.points.size()][];
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+			int rowCount = in.readInt();
+			in.readInt(); // k of the earlier run, which may differ from this k
+			for (int i = 0; i < rowCount; i++) {
+				Integer x = ids.get(in.readLong());
+				int len = in.readInt();
+				int[] row = new int[len];
+				int count = 0;
+				for (int j = 0; j < len; j++) {
+					Integer y = ids.get(in.readLong());
+					if (y != null) {
+						row[count++] = y;
+					}
+				}
+				if (x != null) {
+					rows[x] = Arrays.copyOf(row, count);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not read friend graph from " + file, e);
+		}
+		this.warmStart(x -> (rows[x] == null) ? new int[0] : rows[x]);
+	}
+
+	/*
+	 * Prior friend ids of each point, which need not be distinct or sorted
+	 */
+	private void warmStart(IntFunction<int[]> priorRows) {
+		int n = this.points.size();
+		this.fillMultiplicities();
+		this.allocateFriendTables(n);
+		this.evaluations.reset();
+		LongAdder filled = new LongAdder();
+		IntStream.range(0, n).parallel().forEach(x -> {
+			Workspace ws = this.workspaces.get();
+			Ranking r = ws.ranking;
+			r.size = 0;
+			for (int y : priorRows.apply(x)) {
+				if (y != x && !r.contains(y)) {
+					this.insertByRank(x, y, r); // the score under the current data
+					this.evaluations.increment();
+				}
+			}
+			this.trimToWeight(x, r);
+			if (r.size == 0 || this.weightShortfall(x, r) > 0) {
+				filled.increment();
+				this.fillRandomly(x, r);
+			}
+			this.friends.setRow(x, r.ids, r.size);
+			this.nextFriends.setRow(x, ws.row, 0); // no earlier rows: every friend is new
+		});
+		this.coFriendOffsets = null;
+		this.coFriendIds = null;
+		this.coFriendSizes = null;
+		this.invalidateViews();
+		this.warmStarted = true;
+		System.out.println("Warm start: " + this.evaluations.sum() + " prior friends rescored; " + filled.sum()
+				+ " of " + n + " points topped up with random friends.");
+	}
+
+	/**
+	 * Write the friend graph, with each point named by a stable id, so that a
+	 * later run on drifted data can warmStart() from it even if points were added,
+	 * removed or reordered. Format: number of rows and k as ints; then per point
+	 * its id as a long, its number of friends as an int, and their ids as longs.
+	 */
+	public void saveGraph(Path file, ToLongFunction<V> stableId) {
+		int n = this.points.size();
+		long[] sid = this.points.stream().mapToLong(stableId).toArray();
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+			out.writeInt(n);
+			out.writeInt(this.k);
+			for (int x = 0; x < n; x++) {
+				int len = this.friends.size(x);
+				out.writeLong(sid[x]);
+				out.writeInt(len);
+				for (int j = 0; j < len; j++) {
+					out.writeLong(sid[this.friends.get(x, j)]);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write friend graph to " + file, e);
+		}
+	}
+
+	/**
+	 * Exact k-NN: every point is compared with every other, in parallel. About n^2
+	 * evaluations, so only for small n. Co-friend sets are rebuilt.
+	 */
+	public void exactSearch() {
+		int n = this.points.size();
+		this.fillMultiplicities();
+		this.allocateFriendTables(n);
+		this.evaluations.reset();
+		int[] all = IntStream.range(0, n).toArray();
+		IntStream.range(0, n).parallel().forEach(x -> {
+			Workspace ws = this.workspaces.get();
+			this.randomKFriends(x, ws.ranking);
+			this.evaluations.add(this.scanCandidates(x, all, n, ws.ranking));
+			this.friends.setRow(x, ws.ranking.ids, ws.ranking.size);
+			this.nextFriends.setRow(x, ws.row, 0);
+		});
+		this.coFriendOffsets = null;
+		this.coFriendIds = null;
+		this.coFriendSizes = null;
+		this.refreshAllCoFriendSets();
+		this.invalidateViews();
+	}
+
+	private void fillMultiplicities() {
+		if (this.multiplicity != null) {
+			this.mult = this.points.parallelStream().mapToInt(this.multiplicity).toArray();
+		} else {
+			this.mult = null;
+		}
+	}
+
+	private void allocateFriendTables(int n) {
+		if (this.friends != null && this.friends.getN() == n && this.friends.isOffHeap() == this.offHeap) {
+			return; // reuse
+		}
+		this.releaseOffHeapStorage();
+		if (!this.offHeap) {
+			this.friends = FriendTable.onHeap(n, this.k);
+			this.nextFriends = FriendTable.onHeap(n, this.k);
+		} else {
+			this.storageArena = new OffHeapArena();
+			if (this.mappedFile == null) {
+				this.friends = FriendTable.offHeap(this.storageArena, n, this.k);
+				this.nextFriends = FriendTable.offHeap(this.storageArena, n, this.k);
+			} else {
+				long tableBytes = (long) Integer.BYTES * (long) n * (long) (this.k + 1);
+				this.friends = FriendTable.mapped(this.storageArena, this.mappedFile, 0L, n, this.k);
+				this.nextFriends = FriendTable.mapped(this.storageArena, this.mappedFile, tableBytes, n, this.k);
+			}
+		}
 	}
 
 	/*
-	 * Conceptually similar to transposing a sparse matrix. Parallelize using
-	 * groupingBy()?
+	 * Conceptually similar to transposing a sparse matrix: count co-friends, take
+	 * prefix sums, then fill. The previous round's co-friend rows are released
+	 * once the new ones are complete.
 	 */
 	public void refreshAllCoFriendSets() {
-		for (V z : this.coFriends.keySet()) {
-			this.coFriends.get(z).clear(); // remove cofriends of z, if any (redundant when first called)
+		this.buildCoFriendRows(false);
+	}
+
+	/*
+	 * With slack, row y has room for 2*count+k co-friends, so that active-set
+	 * rounds can patch it in place (see patchCoFriends) instead of rebuilding all
+	 * rows; about three times the memory of packed rows. Falls back to packed
+	 * rows if that room would not fit in int offsets.
+	 */
+	private void buildCoFriendRows(boolean slack) {
+		int n = this.points.size();
+		OffHeapArena arena = this.offHeap ? new OffHeapArena() : null;
+		IntSegments offsets = this.offHeap ? IntSegments.offHeap(arena, n + 1L, 1) : IntSegments.onHeap(n + 1L, 1);
+		IntSegments sizes = this.offHeap ? IntSegments.offHeap(arena, n, 1) : IntSegments.onHeap(n, 1);
+		int[] row = new int[this.k];
+		long count = 0L;
+		for (int x = 0; x < n; x++) {
+			int len = this.friends.copyRow(x, row);
+			for (int j = 0; j < len; j++) {
+				sizes.set(row[j], sizes.get(row[j]) + 1); // since y is a friend of x, x is a co-friend of y
+			}
+			count += len;
+		}
+		if (count > Integer.MAX_VALUE) {
+			throw new IllegalStateException("More than " + Integer.MAX_VALUE + " friend pairs");
 		}
-		for (V x : this.friends.keySet()) {
-			for (V y : this.friends.get(x)) {
-				this.coFriends.get(y).add(x); // since y is a friend of x, add x to co-friends of y
+		slack = slack && 2L * count + (long) n * (long) this.k <= Integer.MAX_VALUE;
+		long total = 0L;
+		for (int y = 0; y < n; y++) {
+			offsets.set(y, (int) total); // start of each row
+			int c = sizes.get(y);
+			total += slack ? 2L * c + this.k : c;
+			sizes.set(y, 0); // from here on, fill cursor of row y
+		}
+		offsets.set(n, (int) total);
+		IntSegments ids = this.offHeap ? IntSegments.offHeap(arena, total, 1) : IntSegments.onHeap(total, 1);
+		for (int x = 0; x < n; x++) {
+			int len = this.friends.copyRow(x, row);
+			for (int j = 0; j < len; j++) {
+				int c = sizes.get(row[j]);
+				ids.set(offsets.get(row[j]) + (long) c, x);
+				sizes.set(row[j], c + 1);
 			}
 		}
+		this.coFriendOffsets = offsets;
+		this.coFriendIds = ids;
+		this.coFriendSizes = sizes;
+		if (this.roundArena != null) {
+			this.roundArena.close(); // previous round's co-friend rows
+		}
+		this.roundArena = arena;
+		this.coFriendView = null;
+	}
+
+	int coFriendCount(int x) {
+		return (this.coFriendOffsets == null) ? 0 : this.coFriendSizes.get(x);
+	}
+
+	/*
+	 * Row of x changes from oldRow to newRow: x leaves the co-friend rows of the
+	 * friends it lost, by swapping with the last entry, and joins those of the
+	 * friends it gained. Not thread safe.
+	 *
+	 * @return false if a co-friend row has no room left; rows are then partly
+	 *         patched, and must be rebuilt
+	 */
+	private boolean patchCoFriends(int x, int[] oldRow, int oldLen, int[] newRow, int newLen) {
+		for (int j = 0; j < oldLen; j++) {
+			int y = oldRow[j];
+			if (indexOf(newRow, newLen, y) < 0) {
+				long start = this.coFriendOffsets.get(y);
+				int last = this.coFriendSizes.get(y) - 1;
+				for (int c = 0; c <= last; c++) {
+					if (this.coFriendIds.get(start + c) == x) {
+						this.coFriendIds.set(start + c, this.coFriendIds.get(start + last));
+						this.coFriendSizes.set(y, last);
+						break;
+					}
+				}
+			}
+		}
+		for (int j = 0; j < newLen; j++) {
+			int y = newRow[j];
+			if (indexOf(oldRow, oldLen, y) < 0) {
+				long start = this.coFriendOffsets.get(y);
+				int size = this.coFriendSizes.get(y);
+				if (start + size == this.coFriendOffsets.get(y + 1L)) {
+					return false;
+				}
+				this.coFriendIds.set(start + size, x);
+				this.coFriendSizes.set(y, size + 1);
+			}
+		}
+		return true;
+	}
+
+	private static int indexOf(int[] row, int len, int y) {
+		for (int j = 0; j < len; j++) {
+			if (row[j] == y) {
+				return j;
+			}
+		}
+		return -1;
 	}
 
 	/*
 	 * This is the central algorithm of k-nearest neighbor descent. During the
-	 * execution of this function, the sets friends.get(x) and coFriends.get(x) are
+	 * execution of this function, the friend rows and co-friend rows are
 	 * immutable. Select best k candidates from friends, co-friends, friends of
-	 * friends, and friends of co-friends.
+	 * friends, and friends of co-friends. The result is left in ws.ranking.
 	 */
-	Function<V, NavigableSet<V>> proposeNewFriendSet = x -> {
-		Set<V> pool = new HashSet<>();
-		for (V y : this.friends.get(x)) {
-			pool.addAll(friends.get(y)); // add in friends of friends of x
+	void proposeNewFriendSet(int x, Workspace ws) {
+		int len = this.copyFriends(x, ws.row, 0);
+		int[] myFriends = Arrays.copyOf(ws.row, len);
+		long cfStart = (this.coFriendOffsets == null) ? 0L : this.coFriendOffsets.get(x);
+		int numCoFriends = this.coFriendCount(x);
+		int used = Math.min(numCoFriends, this.coFriendCap);
+		int first = this.coFriendWindow(x, numCoFriends, used);
+		ws.ensurePool((len + used) * (this.k + 1));
+		int poolSize = 0;
+		for (int y : myFriends) {
+			poolSize += this.copyFriends(y, ws.pool, poolSize); // friends of friends of x
 		}
-		for (V z : this.coFriends.get(x)) {
-			pool.add(z); // add in the co-friend
-			pool.addAll(friends.get(z)); // add in friends of co-friends of x
+		for (int i = 0; i < used; i++) {
+			int z = this.coFriendIds.get(cfStart + (first + i) % numCoFriends);
+			ws.pool[poolSize++] = z; // the co-friend
+			poolSize += this.copyFriends(z, ws.pool, poolSize); // friends of co-friends of x
 		}
-		NavigableSet<V> runningK = new TreeSet<V>(crs.apply(x));// The comparator is the ranking from x
-		runningK.addAll(this.friends.get(x)); // Initialize with the current friend set
-		for (V p : pool) {
-			/*
-			 * If p is NOT one of current k best, nor equal to x, and if p is preferred to
-			 * current k-th best, insert p.
-			 */
-			if ((crs.apply(x).compare(p, runningK.last()) < 0) && (!runningK.contains(p)) && (!p.equals(x))) {
-				runningK.remove(runningK.last());
-				runningK.add(p);
+		Arrays.sort(ws.pool, 0, poolSize); // so duplicates are adjacent
+		Ranking runningK = ws.ranking; // The order is the ranking from x
+		runningK.size = 0;
+		for (int j = 0; j < len; j++) {
+			runningK.insertAt(j, myFriends[j], Double.NaN); // Initialize with the current friend set
+		}
+		if (this.boundedDiv != null) {
+			V vx = this.points.get(x);
+			for (int j = 0; j < len; j++) {
+				runningK.scores[j] = this.boundedDiv.applyAsDouble(vx, this.points.get(myFriends[j]),
+						Double.POSITIVE_INFINITY);
+			}
+		}
+		this.evaluations.add(this.scanCandidates(x, ws.pool, poolSize, runningK));
+	}
+
+	/*
+	 * Hash of x and the round number, from the seed: the same in every run with
+	 * the same seed
+	 */
+	private long pointRoundHash(int x) {
+		return this.seed + 0x9E3779B97F4A7C15L * (long) x + 0xC2B2AE3D27D4EB4FL * (long) this.roundNumber;
+	}
+
+	/*
+	 * First of the used co-friends of x. Over the cap, a window of co-friends
+	 * which moves from round to round is used.
+	 */
+	private int coFriendWindow(int x, int numCoFriends, int used) {
+		return (used < numCoFriends) ? Math.floorMod((int) (this.pointRoundHash(x) >>> 33), numCoFriends) : 0;
+	}
+
+	/*
+	 * Current friends of y, from the friend rows, or during an asynchronous round
+	 * from the running list of y, copied under its lock.
+	 */
+	int copyFriends(int y, int[] dst, int offset) {
+		if (!this.asyncRound) {
+			return this.friends.copyRow(y, dst, offset);
+		}
+		synchronized (this.stripes[y & (LOCK_STRIPES - 1)]) {
+			return this.workingFriends.copyRow(y, dst, offset);
+		}
+	}
+
+	/*
+	 * If p is NOT one of current k best, nor equal to x, and if p is preferred to
+	 * current k-th best, insert p. With early abandon, the divergence of the
+	 * current k-th best friend is the bound, and each candidate is scored against
+	 * it. Candidates must be sorted, so repeats are adjacent.
+	 */
+	int scanCandidates(int x, int[] candidates, int count, Ranking runningK) {
+		V vx = this.points.get(x);
+		Comparator<V> cx = crs.apply(vx);
+		int previous = -1;
+		int evaluated = 0;
+		for (int c = 0; c < count; c++) {
+			int p = candidates[c];
+			if (p == previous || p == x || runningK.contains(p)) {
+				previous = p;
+				continue;
+			}
+			previous = p;
+			evaluated++;
+			if (this.boundedDiv != null) {
+				double bound = runningK.scores[runningK.size - 1];
+				double s = this.boundedDiv.applyAsDouble(vx, this.points.get(p), bound);
+				if (s < bound) {
+					this.insertScored(x, p, s, runningK);
+				}
+			} else if (cx.compare(this.points.get(p), this.points.get(runningK.last())) < 0) {
+				this.insertByRank(x, p, runningK);
+				this.trimToWeight(x, runningK);
 			}
 		}
-		return runningK;
-	};
+		return evaluated;
+	}
+
+	private void insertScored(int x, int p, double s, Ranking r) {
+		int lo = 0, hi = r.size;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (r.scores[mid] <= s) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		r.insertAt(lo, p, s);
+		this.trimToWeight(x, r);
+	}
 
 	/*
 	 * Apply the proposeNewFriendSet function to all of the points, in parallel.
 	 * This is the "master stroke".
 	 */
 	public void refreshAllFriendSets() {
-		Map<V, NavigableSet<V>> friendUpdates = this.points.parallelStream()
-				.collect(Collectors.toMap(Function.identity(), x -> proposeNewFriendSet.apply(x))); // choice between
-																									// parallel or not
-		this.friends.putAll(friendUpdates); // replaces previous friend sets with new ones
-		
+		int[] all = IntStream.range(0, this.points.size()).toArray();
+		LongAdder changedRows = new LongAdder();
+		this.lastSchedule = RoundScheduler.run(all, this.loadBalancing ? this::poolCost : null, x -> {
+			Workspace ws = this.workspaces.get();
+			if (this.stopRequested()) {
+				this.nextFriends.setRow(x, ws.row, this.friends.copyRow(x, ws.row)); // keep current friends
+				return;
+			}
+			this.proposeNewFriendSet(x, ws);
+			if (!this.sameRow(x, ws.ranking)) {
+				changedRows.increment();
+			}
+			this.nextFriends.setRow(x, ws.ranking.ids, ws.ranking.size);
+		});
+		this.lastChangedRows = changedRows.sum();
+		FriendTable previous = this.friends; // replaces previous friend sets with new ones
+		this.friends = this.nextFriends;
+		this.nextFriends = previous;
+		this.invalidateViews();
+	}
+
+	/*
+	 * Estimated work of proposeNewFriendSet(x): the candidate pool has up to k+1
+	 * ids per friend and per co-friend used, and each costs one evaluation.
+	 */
+	long poolCost(int x) {
+		long used = Math.min(this.coFriendCount(x), this.coFriendCap);
+		return ((long) this.friends.size(x) + used) * (long) (this.k + 1);
+	}
+
+	/*
+	 * Estimated work of localJoin(x): pairs from a neighborhood of m points
+	 */
+	long joinCost(int x) {
+		long m = 1L + (long) this.friends.size(x)
+				+ Math.min(Math.min(this.coFriendCount(x), this.coFriendCap), 2L * (long) this.joinSample);
+		return m * m;
+	}
+
+	/*
+	 * Symmetric version of refreshAllFriendSets. Every point x runs a local join:
+	 * each pair y, z from x, its friends and its co-friends, at least one of them
+	 * new, is offered to both lists, z to y's and y to z's. Lists are updated in
+	 * place under striped locks, so an improvement found by one worker is seen by
+	 * the others during the same round.
+	 * As in NN-descent, a friend is new until it has taken part in a join: during
+	 * symmetric rounds, row x of nextFriends holds the friends of x which have
+	 * (the joined row). Each round first draws at most joinSample new friends of
+	 * every point (see setJoinSampleRate), marked in drawnArcs; those not drawn
+	 * stay new for a later round. Neighborhoods are limited by the co-friend cap.
+	 *
+	 * @return number of insertions
+	 */
+	long refreshAllFriendSetsSymmetric() {
+		int n = this.points.size();
+		this.loadWorkingLists();
+		this.drawNewFriends();
+		LongAdder insertions = new LongAdder();
+		this.lastSchedule = RoundScheduler.run(IntStream.range(0, n).toArray(),
+				this.loadBalancing ? this::joinCost : null, x -> {
+					if (!this.stopRequested()) {
+						insertions.add(this.localJoin(x, this.workspaces.get()));
+					}
+				});
+		IntStream.range(0, n).parallel().forEach(x -> {
+			Workspace ws = this.workspaces.get();
+			int len = this.workingFriends.copyRow(x, ws.row);
+			ws.ensurePool(len);
+			int joined = 0;
+			for (int j = 0; j < len; j++) { // joined before, or drawn this round
+				if (this.nextFriends.contains(x, ws.row[j]) || this.arcTag(x, ws.row[j]) == 1) {
+					ws.pool[joined++] = ws.row[j];
+				}
+			}
+			this.nextFriends.setRow(x, ws.pool, joined);
+			this.friends.setRow(x, ws.row, len); // row by row, so friends of x are read before they are replaced
+		});
+		this.invalidateViews();
+		return insertions.sum();
+	}
+
+	/*
+	 * First step of a symmetric round: each point draws at most joinSample of its
+	 * new friends, which are those not in its joined row. Arc j of x is bit
+	 * x*k + j of drawnArcs.
+	 */
+	private void drawNewFriends() {
+		int n = this.points.size();
+		long arcs = (long) n * (long) this.k;
+		if (arcs > Integer.MAX_VALUE) {
+			throw new IllegalStateException("More than " + Integer.MAX_VALUE + " friend pairs");
+		}
+		if (this.drawnArcs == null || this.drawnArcs.size() != (int) arcs) {
+			this.drawnArcs = new ConcurrentBitSet((int) arcs);
+		} else {
+			this.drawnArcs.clear();
+		}
+		IntStream.range(0, n).parallel().forEach(x -> {
+			Workspace ws = this.workspaces.get();
+			int len = this.friends.copyRow(x, ws.row);
+			ws.ensurePool(len);
+			int newCount = 0;
+			for (int j = 0; j < len; j++) {
+				if (!this.nextFriends.contains(x, ws.row[j])) {
+					ws.pool[newCount++] = j;
+				}
+			}
+			int drawn = Math.min(newCount, this.joinSample);
+			sampleToFront(ws.pool, 0, newCount, drawn, this.pointRoundHash(x));
+			for (int i = 0; i < drawn; i++) {
+				this.drawnArcs.set(x * this.k + ws.pool[i]);
+			}
+		});
+	}
+
+	/*
+	 * Role of friend y of x in this round's joins: 1 if drawn as new, 0 if old
+	 * (joined before), -1 if new but not drawn, or not a friend of x
+	 */
+	private int arcTag(int x, int y) {
+		for (int j = 0; j < this.friends.size(x); j++) {
+			if (this.friends.get(x, j) == y) {
+				return this.drawnArcs.get(x * this.k + j) ? 1 : (this.nextFriends.contains(x, y) ? 0 : -1);
+			}
+		}
+		return -1;
+	}
+
+	/*
+	 * Copy the friend rows into the running lists, allocating them if needed,
+	 * with the friend rows: in a mapped file, after the two friend tables
+	 */
+	private void loadWorkingLists() {
+		int n = this.points.size();
+		if (this.workingFriends == null || this.workingFriends.getN() != n
+				|| this.workingFriends.isOffHeap() != this.offHeap) {
+			if (!this.offHeap) {
+				this.workingFriends = FriendTable.onHeap(n, this.k);
+			} else if (this.mappedFile == null) {
+				this.workingFriends = FriendTable.offHeap(this.storageArena, n, this.k);
+			} else {
+				long tableBytes = (long) Integer.BYTES * (long) n * (long) (this.k + 1);
+				this.workingFriends = FriendTable.mapped(this.storageArena, this.mappedFile, 2L * tableBytes, n,
+						this.k);
+			}
+			this.workingScores = null;
+		}
+		if (this.boundedDiv == null) {
+			this.workingScores = null;
+		} else if (this.workingScores == null) {
+			this.workingScores = this.offHeap ? DoubleSegments.offHeap(this.storageArena, (long) n * this.k, this.k)
+					: DoubleSegments.onHeap((long) n * this.k, this.k);
+		}
+		if (this.stripes == null) {
+			this.stripes = new Object[LOCK_STRIPES];
+			for (int i = 0; i < LOCK_STRIPES; i++) {
+				this.stripes[i] = new Object();
+			}
+		}
+		IntStream.range(0, n).parallel().forEach(x -> {
+			Workspace ws = this.workspaces.get();
+			this.loadRanking(x, this.friends, ws.ranking, ws.row);
+			this.writeWorking(x, ws.ranking);
+		});
+	}
+
+	/*
+	 * Copy the running lists into nextFriends, at the end of a round
+	 */
+	private void storeWorkingLists() {
+		IntStream.range(0, this.points.size()).parallel().forEach(x -> {
+			Workspace ws = this.workspaces.get();
+			this.nextFriends.setRow(x, ws.row, this.workingFriends.copyRow(x, ws.row));
+		});
+	}
+
+	/*
+	 * Running list of x into r; under the lock of x while a round runs
+	 */
+	private void readWorking(int x, Ranking r) {
+		r.size = this.workingFriends.copyRow(x, r.ids);
+		if (this.workingScores != null) {
+			this.workingScores.get((long) x * this.k, r.scores, 0, r.size);
+		}
+	}
+
+	/*
+	 * r becomes the running list of x; under the lock of x while a round runs
+	 */
+	private void writeWorking(int x, Ranking r) {
+		this.workingFriends.setRow(x, r.ids, r.size);
+		if (this.workingScores != null) {
+			this.workingScores.set((long) x * this.k, r.scores, r.size);
+		}
+	}
+
+	/*
+	 * Asynchronous (Gauss-Seidel) version of refreshAllFriendSets. Points are
+	 * visited in a random order; each new friend list replaces the running list at
+	 * once, under its lock, so points visited later in the round already see it.
+	 * Locks also publish the lists safely between workers. Co-friend rows are those
+	 * of the start of the round.
+	 */
+	void refreshAllFriendSetsAsynchronous() {
+		int n = this.points.size();
+		this.loadWorkingLists();
+		int[] order = IntStream.range(0, n).toArray();
+		for (int i = n - 1; i > 0; i--) { // Fisher-Yates shuffle
+			int j = this.g.nextInt(i + 1);
+			int t = order[i];
+			order[i] = order[j];
+			order[j] = t;
+		}
+		this.asyncRound = true;
+		try {
+			Arrays.stream(order).parallel().filter(x -> !this.stopRequested()).forEach(x -> {
+				Workspace ws = this.workspaces.get();
+				this.proposeNewFriendSet(x, ws);
+				synchronized (this.stripes[x & (LOCK_STRIPES - 1)]) {
+					this.writeWorking(x, ws.ranking);
+				}
+			});
+		} finally {
+			this.asyncRound = false;
+		}
+		this.storeWorkingLists();
+		FriendTable previous = this.friends;
+		this.friends = this.nextFriends;
+		this.nextFriends = previous;
+		this.invalidateViews();
+	}
+
+	/*
+	 * Neighborhood of x, each member tagged new or old, then offers of all pairs
+	 * with at least one new member. Friends of x come as drawn; co-friends are
+	 * tagged by their arc to x, and at most joinSample of each kind are used, as
+	 * in the sampling of reverse neighbors in NN-descent. x itself counts as old.
+	 */
+	int localJoin(int x, Workspace ws) {
+		int len = this.friends.copyRow(x, ws.row);
+		long cfStart = (this.coFriendOffsets == null) ? 0L : this.coFriendOffsets.get(x);
+		int numCoFriends = this.coFriendCount(x);
+		int used = Math.min(numCoFriends, this.coFriendCap);
+		int first = this.coFriendWindow(x, numCoFriends, used);
+		ws.ensurePool(len + used);
+		int m = 0;
+		for (int j = 0; j < len; j++) {
+			int tag = this.arcTag(x, ws.row[j]);
+			if (tag >= 0) {
+				ws.pool[m++] = (ws.row[j] << 1) | tag; // tag bit 0: old, 1: new
+			}
+		}
+		int forward = m;
+		for (int i = 0; i < used; i++) {
+			int z = this.coFriendIds.get(cfStart + (first + i) % numCoFriends);
+			int tag = this.arcTag(z, x);
+			if (tag >= 0) {
+				ws.pool[m++] = (z << 1) | tag;
+			}
+		}
+		int newCount = forward + partitionNewFirst(ws.pool, forward, m);
+		long h = this.pointRoundHash(x);
+		int newUsed = Math.min(newCount - forward, this.joinSample);
+		int oldUsed = Math.min(m - newCount, this.joinSample);
+		h = sampleToFront(ws.pool, forward, newCount, newUsed, h);
+		sampleToFront(ws.pool, newCount, m, oldUsed, h);
+		System.arraycopy(ws.pool, newCount, ws.pool, forward + newUsed, oldUsed);
+		m = forward + newUsed + oldUsed;
+		Arrays.sort(ws.pool, 0, m); // same id with both tags: old comes first
+		int distinct = 0;
+		for (int i = 0; i < m; i++) {
+			if (distinct > 0 && (ws.pool[distinct - 1] >>> 1) == (ws.pool[i] >>> 1)) {
+				ws.pool[distinct - 1] |= ws.pool[i]; // new in either role means new
+			} else {
+				ws.pool[distinct++] = ws.pool[i];
+			}
+		}
+		newCount = partitionNewFirst(ws.pool, 0, distinct);
+		int inserted = 0;
+		for (int i = 0; i < newCount; i++) {
+			int a = ws.pool[i] >>> 1;
+			inserted += this.offer(a, x, ws) ? 1 : 0;
+			inserted += this.offer(x, a, ws) ? 1 : 0;
+			for (int j = i + 1; j < distinct; j++) { // both old: compared in an earlier round
+				int b = ws.pool[j] >>> 1;
+				inserted += this.offer(a, b, ws) ? 1 : 0;
+				inserted += this.offer(b, a, ws) ? 1 : 0;
+			}
+		}
+		return inserted;
+	}
+
+	/*
+	 * Move the entries of a[from], ..., a[to-1] tagged new before those tagged old
+	 *
+	 * @return number tagged new
+	 */
+	private static int partitionNewFirst(int[] a, int from, int to) {
+		int next = from;
+		for (int i = from; i < to; i++) {
+			if ((a[i] & 1) != 0) {
+				swap(a, i, next++);
+			}
+		}
+		return next - from;
+	}
+
+	private static void swap(int[] a, int i, int j) {
+		int t = a[i];
+		a[i] = a[j];
+		a[j] = t;
+	}
+
+	/*
+	 * Partial Fisher-Yates shuffle: move a random sample of count entries of
+	 * a[from], ..., a[to-1] to the front of that range
+	 *
+	 * @return the next state of the random stream h
+	 */
+	private static long sampleToFront(int[] a, int from, int to, int count, long h) {
+		if (count == to - from) {
+			return h;
+		}
+		for (int i = from; i < from + count; i++) {
+			h = h * 0x5851F42D4C957F2DL + 0x14057B7EF767814FL; // LCG step
+			swap(a, i, i + (int) (((h >>> 33) * (long) (to - i)) >>> 31));
+		}
+		return h;
+	}
+
+	/*
+	 * Try to insert b into the running list of a. The bound (or the worst friend)
+	 * is read under the lock, the candidate is scored outside it, and the list is
+	 * checked again before insertion, since another worker may have improved it.
+	 */
+	boolean offer(int a, int b, Workspace ws) {
+		Object lock = this.stripes[a & (LOCK_STRIPES - 1)];
+		double bound;
+		int worst;
+		synchronized (lock) {
+			if (this.workingFriends.contains(a, b)) {
+				return false;
+			}
+			int size = this.workingFriends.size(a);
+			worst = this.workingFriends.get(a, size - 1);
+			bound = (this.boundedDiv != null) ? this.workingScores.get((long) a * this.k + size - 1) : Double.NaN;
+		}
+		this.evaluations.increment();
+		V va = this.points.get(a);
+		Ranking r = ws.ranking;
+		if (this.boundedDiv != null) {
+			double s = this.boundedDiv.applyAsDouble(va, this.points.get(b), bound);
+			if (s >= bound) {
+				return false;
+			}
+			synchronized (lock) {
+				this.readWorking(a, r);
+				if (r.contains(b) || s >= r.scores[r.size - 1]) {
+					return false;
+				}
+				this.insertScored(a, b, s, r);
+				this.writeWorking(a, r);
+				return true;
+			}
+		}
+		if (crs.apply(va).compare(this.points.get(b), this.points.get(worst)) >= 0) {
+			return false;
+		}
+		synchronized (lock) {
+			this.readWorking(a, r);
+			if (r.contains(b)) {
+				return false;
+			}
+			this.insertByRank(a, b, r);
+			this.trimToWeight(a, r);
+			this.writeWorking(a, r);
+			return true;
+		}
+	}
+
+	/*
+	 * Active-set version of refreshAllFriendSets: only points in the frontier are
+	 * refreshed, and only rows which changed are written. New rows go to
+	 * nextFriends while the round reads friends, then are copied back, so the
+	 * cost is proportional to the frontier rather than to n. The co-friend rows
+	 * are patched for the changed rows only, unless one runs out of slack, when
+	 * all are rebuilt.
+	 *
+	 * @return number of points refreshed
+	 */
+	int refreshActiveFriendSets() {
+		int[] active = this.frontier.toArray();
+		this.changed.clear();
+		this.lastSchedule = RoundScheduler.run(active, this.loadBalancing ? this::poolCost : null, x -> {
+			if (this.stopRequested()) {
+				return;
+			}
+			Workspace ws = this.workspaces.get();
+			this.proposeNewFriendSet(x, ws);
+			if (!this.sameRow(x, ws.ranking)) {
+				this.nextFriends.setRow(x, ws.ranking.ids, ws.ranking.size);
+				this.changed.set(x);
+			}
+		});
+		this.lastChanged = this.changed.toArray();
+		boolean patched = true;
+		int[] oldRow = new int[this.k], newRow = new int[this.k];
+		for (int i = 0; i < this.lastChanged.length && patched; i++) {
+			int x = this.lastChanged[i];
+			patched = this.patchCoFriends(x, oldRow, this.friends.copyRow(x, oldRow), newRow,
+					this.nextFriends.copyRow(x, newRow));
+		}
+		Arrays.stream(this.lastChanged).parallel().forEach(x -> {
+			Workspace ws = this.workspaces.get();
+			int len = this.nextFriends.copyRow(x, ws.row);
+			this.friends.setRow(x, ws.row, len);
+		});
+		if (!patched) {
+			this.buildCoFriendRows(true);
+			this.coFriendRebuilds++;
+		}
+		if (this.lastChanged.length > 0) {
+			this.invalidateViews();
+		}
+		return active.length;
+	}
+
+	private boolean sameRow(int x, Ranking r) {
+		if (this.friends.size(x) != r.size) {
+			return false;
+		}
+		for (int j = 0; j < r.size; j++) {
+			if (this.friends.get(x, j) != r.ids[j]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Next frontier: every point which changed, with its friends and co-friends.
+	 * Uses the co-friend rows of the new friend rows.
+	 */
+	void advanceFrontier() {
+		this.frontier.clear();
+		Arrays.stream(this.lastChanged).parallel().forEach(c -> {
+			this.frontier.set(c);
+			for (int j = 0; j < this.friends.size(c); j++) {
+				this.frontier.set(this.friends.get(c, j));
+			}
+			long cfStart = (this.coFriendOffsets == null) ? 0L : this.coFriendOffsets.get(c);
+			for (long i = cfStart; i < cfStart + this.coFriendCount(c); i++) {
+				this.frontier.set(this.coFriendIds.get(i));
+			}
+		});
 	}
 
 	/*
@@ -202,37 +1493,102 @@ public class KNNDescent<V> {
 	 * during the algorithm. If it is less after r+1 rounds than it was after r
 	 * rounds (probably due to sampling errors at the plateau) this is a sign to
 	 * stop.
+	 *
+	 * Revised October 2020: samples are drawn in parallel batches, and batches are
+	 * added until the 95% confidence interval has half-width at most
+	 * clusteringPrecision, or sampleRate * n samples are taken. Membership is by
+	 * id. If sampleRate >= 1, the exact rate is computed instead.
 	 */
+	static final int CLUSTERING_BATCH = 1 << 10; // samples per parallel batch
+	static final double Z_95 = 1.96; // standard normal quantile for a 95% confidence interval
+	double clusteringPrecision = 0.01; // target half-width of the confidence interval
+
 	double estimateFriendClustering(double sampleRate) {
-		Set<V> sample = new HashSet<>();
-		int sampleSize = (int) Math.ceil(sampleRate * (double) this.points.size());
-		while (sample.size() < sampleSize) {
-			sample.add(this.points.get(g.nextInt(points.size()))); // add randomly chosen points to the sample
-		}
-		V y, z;
-		int index0, index1;
-		List<V> tempList = new ArrayList<>(); // List better than Set for drawing random samples
-		int counter = 0;
-		for (V x : sample) {
-			tempList.clear();
-			tempList.addAll(this.friends.get(x));
-			/*
-			 * Sample index0 and index1 uniformly from unordered pairs in {0, 1, ..., k-1}
-			 */
-			index0 = g.nextInt(k);
-			index1 = g.nextInt(k - 1);
-			if (index1 >= index0) {
-				index1++; // ensures index0 and index1 are different
+		if (sampleRate >= 1.0) {
+			this.lastHalfWidth = 0.0;
+			return this.exactFriendClustering();
+		}
+		long start = System.nanoTime();
+		int n = this.points.size();
+		long maxSamples = Math.max(1L, (long) Math.ceil(sampleRate * (double) n));
+		long sampleSize = 0L, counter = 0L;
+		double halfWidth = Double.POSITIVE_INFINITY;
+		while (sampleSize < maxSamples && halfWidth > this.clusteringPrecision) {
+			int batch = (int) Math.min((long) CLUSTERING_BATCH, maxSamples - sampleSize);
+			long batchSeed = this.g.nextLong();
+			int[] outcomes = IntStream.range(0, batch).parallel()
+					.map(i -> this.sampleFriendPair(new SplittableRandom(batchSeed + (long) i))).toArray();
+			for (int outcome : outcomes) {
+				if (outcome >= 0) {
+					sampleSize++; // outcome -1: no pair of friends to sample
+					counter += outcome;
+				}
 			}
-			y = tempList.get(index0); // a uniformly selected random friend of x
-			z = tempList.get(index1); // a uniformly selected random friend of x, different from y
-			if (this.friends.get(y).contains(z) || this.friends.get(z).contains(y)) {
-				counter++;
+			if (sampleSize == 0L) {
+				break;
 			}
+			double p = (double) counter / (double) sampleSize;
+			/*
+			 * Normal approximation, with p moved away from 0 and 1 so that early batches
+			 * do not claim a width of zero
+			 */
+			double pp = Math.min(Math.max(p, 0.5 / (double) sampleSize), 1.0 - 0.5 / (double) sampleSize);
+			halfWidth = Z_95 * Math.sqrt(pp * (1.0 - pp) / (double) sampleSize);
 		}
-		System.out
-				.println("In sampling " + sampleSize + " pairs of friends, " + counter + " were friends or cofriends.");
-		return (double) counter / (double) sampleSize;
+		this.lastHalfWidth = halfWidth;
+		System.out.println("In sampling " + sampleSize + " pairs of friends, " + counter
+				+ " were friends or cofriends (95% CI +/- " + (float) halfWidth + ", "
+				+ (System.nanoTime() - start) / 1000000L + " ms).");
+		return (sampleSize > 0) ? (double) counter / (double) sampleSize : 0.0;
+	}
+
+	/*
+	 * One sample: 1 if two distinct random friends y, z of a random point x are
+	 * friends or cofriends, 0 if not, -1 if x has fewer than two friends.
+	 */
+	private int sampleFriendPair(SplittableRandom gi) {
+		int x = gi.nextInt(this.points.size());
+		int m = this.friends.size(x); // less than k is possible with multiplicities
+		if (m < 2) {
+			return -1;
+		}
+		/*
+		 * Sample index0 and index1 uniformly from unordered pairs in {0, 1, ..., m-1}
+		 */
+		int index0 = gi.nextInt(m);
+		int index1 = gi.nextInt(m - 1);
+		if (index1 >= index0) {
+			index1++; // ensures index0 and index1 are different
+		}
+		int y = this.friends.get(x, index0); // a uniformly selected random friend of x
+		int z = this.friends.get(x, index1); // a uniformly selected random friend of x, different from y
+		return (this.friends.contains(y, z) || this.friends.contains(z, y)) ? 1 : 0;
+	}
+
+	/**
+	 * Friend clustering rate over every point x and every pair of friends of x,
+	 * with each point weighted equally, in parallel. Costs about n k^3 / 2 integer
+	 * comparisons, no divergences.
+	 */
+	public double exactFriendClustering() {
+		DoubleSummaryStatistics rates = IntStream.range(0, this.points.size()).parallel()
+				.filter(x -> this.friends.size(x) >= 2)
+				.mapToDouble(x -> {
+					int m = this.friends.size(x);
+					int hits = 0;
+					for (int i = 0; i < m; i++) {
+						int y = this.friends.get(x, i);
+						for (int j = i + 1; j < m; j++) {
+							int z = this.friends.get(x, j);
+							if (this.friends.contains(y, z) || this.friends.contains(z, y)) {
+								hits++;
+							}
+						}
+					}
+					return (double) hits / (0.5 * (double) m * (double) (m - 1));
+				}).summaryStatistics();
+		System.out.println("Exact friend clustering over " + rates.getCount() + " points.");
+		return (rates.getCount() > 0) ? rates.getAverage() : 0.0;
 	}
 
 	/*
@@ -240,69 +1596,336 @@ public class KNNDescent<V> {
 	 * EXPENSIVE! Let s[i] denote the number of true k-NN of sample point i which
 	 * appear in the friend set of the sample point. . Report
 	 * DoubleSummaryStatistics of {s[0]/m, s[1]/m, ..., s[m-1]/m). It is hoped the
-	 * mean is close to 1.
+	 * mean is close to 1. The sample points are scanned in parallel.
 	 */
 	public DoubleSummaryStatistics qualityAssessment(int sampleSize) {
-		Set<V> sample = new HashSet<>();
-		while (sample.size() < sampleSize) {
-			sample.add(this.points.get(g.nextInt(points.size()))); // add randomly chosen points to the sample
-		}
-		List<Double> proportionCaptured = new ArrayList<>(); // p->t if exactly t of point p's true k-NN were found
-		for (V x : sample) {
-			NavigableSet<V> runningK = new TreeSet<V>(crs.apply(x));// The comparator is the ranking from x
-			runningK.addAll(this.friends.get(x)); // has k elements
+		return this.qualityAssessment(sampleSize, false);
+	}
+
+	/*
+	 * @param withinBudget when true, sample points not started before the
+	 *                     deadline or cancellation are left out
+	 */
+	private DoubleSummaryStatistics qualityAssessment(int sampleSize, boolean withinBudget) {
+		Set<Integer> sample = new HashSet<>();
+		int n = this.points.size();
+		while (sample.size() < Math.min(sampleSize, n)) {
+			sample.add(g.nextInt(n)); // add randomly chosen points to the sample
+		}
+		int[] all = IntStream.range(0, n).toArray();
+		return sample.parallelStream().filter(x -> !(withinBudget && this.stopRequested())).mapToDouble(x -> {
+			Workspace ws = this.workspaces.get();
+			Ranking runningK = ws.ranking;
+			this.loadRanking(x, this.friends, runningK, ws.row); // has k elements
 			/*
 			 * Compute the TRUE k-NN set. As we run through the points, do NOT compare x to
 			 * itself. Only remove the worst point only if the new candidate is currently
 			 * absent from the list
 			 */
-			for (V p : this.points) {
-				if ((crs.apply(x).compare(p, runningK.last()) < 0) && (!runningK.contains(p)) && (!p.equals(x))) {
-					runningK.remove(runningK.last());
-					runningK.add(p);
-				}
-			}
+			this.scanCandidates(x, all, n, runningK);
 			/*
 			 * How many elements of runningK are in friends.get(x)?
 			 */
-			long numberCaptured = runningK.stream().filter(p -> this.friends.get(x).contains(p)).count();
-			if (runningK.size() == k) {
-				proportionCaptured.add((double) numberCaptured / (double) this.k);
-			} else {
-				System.out.println("Error occurred during qualityAssessment: k-NN set did not have k elements.");
+			long numberCaptured = Arrays.stream(runningK.ids, 0, runningK.size).filter(p -> this.friends.contains(x, p))
+					.count();
+			if (this.mult != null) {
+				return (double) numberCaptured / (double) runningK.size;
+			} else if (runningK.size == k) {
+				return (double) numberCaptured / (double) this.k;
 			}
+			System.out.println("Error occurred during qualityAssessment: k-NN set did not have k elements.");
+			return Double.NaN;
+		}).filter(p -> !Double.isNaN(p)).summaryStatistics();
+	}
+
+	/**
+	 * Switch on early abandon scoring, in the pool scan of each round and in
+	 * qualityAssessment. The bounded divergence must rank points in the same order
+	 * as the comparators supplied by the ranking system.
+	 *
+	 * @param divergence for example PointInSimplex.earlyAbandonDivergence(counter)
+	 * @param counter    the counter used by divergence, for per-round reports; may
+	 *                   be null
+	 */
+	public void setEarlyAbandon(BoundedDivergence<V> divergence, TermCounter counter) {
+		this.boundedDiv = divergence;
+		this.termCounter = counter;
+	}
+
+	/**
+	 * Declare that each point stands for several identical points. Call before
+	 * kNNDescentAlgorithm. Friend sets then have variable size: the shortest
+	 * prefix whose multiplicities, plus those of the other copies of x, add up to
+	 * at least k. Pass k to the weighted CohesionGraphBuilder too, so that the
+	 * last friend counts only for the copies needed to reach k.
+	 *
+	 * @param pointMultiplicity for example from DuplicateCollapser.getMultiplicity()
+	 */
+	public void setMultiplicities(ToIntFunction<V> pointMultiplicity) {
+		this.multiplicity = pointMultiplicity;
+	}
+
+	/**
+	 * Refresh only the points whose own friends, or whose friends' or co-friends'
+	 * friends, changed in the previous round. The run then ends when no point is
+	 * left to refresh (or after maxRounds), instead of when the friend clustering
+	 * coefficient stops rising. Call before kNNDescentAlgorithm.
+	 */
+	public void setActiveSetScheduling(boolean on) {
+		this.activeSetScheduling = on;
+	}
+
+	/**
+	 * Fix the seed from which the random initial friends, and the samples of the
+	 * convergence check, are drawn. Call before kNNDescentAlgorithm.
+	 */
+	public void setSeed(long randomSeed) {
+		this.seed = randomSeed;
+		this.g = new SplittableRandom(randomSeed);
+	}
+
+	/**
+	 * Schedule the points of a round by estimated work (friend and co-friend
+	 * counts): heavy points, such as hubs with many co-friends, get tasks of their
+	 * own and start first; light points are packed into chunks of similar work.
+	 * Applies to synchronous, active-set and symmetric rounds. Core utilisation is
+	 * reported for each round whether or not this is on.
+	 */
+	public void setLoadBalancing(boolean on) {
+		this.loadBalancing = on;
+	}
+
+	/**
+	 * @return busy time of the workers in the last refresh, as a fraction of wall
+	 *         time times the number of cores; NaN before the first round
+	 */
+	public double getLastUtilisation() {
+		return (this.lastSchedule == null) ? Double.NaN : this.lastSchedule.utilisation();
+	}
+
+	/**
+	 * Replace each point's own pool scan by the symmetric local join: pairs of
+	 * points in a neighborhood are offered to both lists, and only pairs with a
+	 * new member are evaluated, among a sample (see setJoinSampleRate). Takes
+	 * precedence over active-set scheduling. Call before kNNDescentAlgorithm.
+	 */
+	public void setSymmetricUpdates(boolean on) {
+		this.symmetricUpdates = on;
+	}
+
+	/**
+	 * @param halfWidth target half-width of the 95% confidence interval of the
+	 *                  sampled friend clustering rate; sampleRate then only caps
+	 *                  the sample size
+	 */
+	public void setClusteringPrecision(double halfWidth) {
+		this.clusteringPrecision = halfWidth;
+	}
+
+	/**
+	 * @param cap at most this many co-friends of a point, and their friends, enter
+	 *            its candidate pool in one round; a window of co-friends which
+	 *            moves from round to round is used for points with more
+	 */
+	public void setCoFriendCap(int cap) {
+		this.coFriendCap = Math.max(0, cap);
+	}
+
+	/**
+	 * @param rate each symmetric round joins at most ceil(rate * k) new friends of
+	 *             a point, and as many new and old co-friends; friends not drawn
+	 *             stay new for a later round. 1 or more joins them all. Default
+	 *             0.5: on Dirichlet points, fewer evaluations than synchronous
+	 *             rounds at the same recall, while all pairs take more
+	 */
+	public void setJoinSampleRate(double rate) {
+		this.joinSample = (rate >= 1.0) ? Integer.MAX_VALUE : Math.max(1, (int) Math.ceil(rate * (double) this.k));
+	}
+
+	/**
+	 * @param sampleSize number of points whose true k-NN are computed, by brute
+	 *                   force, to estimate recall at the end of a run; 0 for none.
+	 *                   By default, none for kNNDescentAlgorithm(maxRounds,
+	 *                   sampleRate), and DEFAULT_RECALL_SAMPLE for anytime runs
+	 */
+	public void setRecallSampleSize(int sampleSize) {
+		this.recallSampleSize = sampleSize;
+	}
+
+	/**
+	 * Asynchronous rounds: points are refreshed in a random order, and each new
+	 * friend list is visible at once to the workers refreshing other points, rather
+	 * than from the next round. Call before kNNDescentAlgorithm.
+	 */
+	public void setAsynchronous(boolean on) {
+		this.asynchronous = on;
+	}
+
+	/**
+	 * @param listener called with the round number after each round, when the
+	 *                 friend rows are consistent; may be null
+	 */
+	public void setRoundListener(IntConsumer listener) {
+		this.roundListener = listener;
+	}
+
+	/**
+	 * @return number of candidates scored against a friend list since the friend
+	 *         sets were initialized (qualityAssessment is not counted)
+	 */
+	public long getEvaluationCount() {
+		return this.evaluations.sum();
+	}
+
+	/**
+	 * Keep friend and co-friend rows off the Java heap. Call before
+	 * kNNDescentAlgorithm. Co-friend rows always use direct memory, and are
+	 * released at the end of the round which used them.
+	 *
+	 * @param file if null, friend rows use direct memory; otherwise they are
+	 *             memory-mapped from this file, which is created if necessary
+	 */
+	public void useOffHeapStorage(Path file) {
+		this.offHeap = true;
+		this.mappedFile = file;
+	}
+
+	/**
+	 * Free all off-heap memory. The friend rows are then no longer available.
+	 */
+	public void releaseOffHeapStorage() {
+		if (this.roundArena != null) {
+			this.roundArena.close();
+			this.roundArena = null;
+			this.coFriendOffsets = null;
+			this.coFriendIds = null;
+			this.coFriendSizes = null;
+		}
+		if (this.storageArena != null) {
+			this.storageArena.close();
+			this.storageArena = null;
+			this.friends = null;
+			this.nextFriends = null;
+			this.workingFriends = null;
+			this.workingScores = null;
 		}
+		this.invalidateViews();
+	}
+
+	/**
+	 * @return bytes of off-heap memory currently held
+	 */
+	public long offHeapBytes() {
+		return ((this.storageArena == null) ? 0L : this.storageArena.getBytesAllocated())
+				+ ((this.roundArena == null) ? 0L : this.roundArena.getBytesAllocated());
+	}
 
-		return proportionCaptured.stream().mapToDouble(w -> w.doubleValue()).summaryStatistics();
+	private void invalidateViews() {
+		this.friendView = null;
+		this.coFriendView = null;
+	}
+
+	private Map<V, Integer> idOf() {
+		if (this.idOf == null) {
+			Map<V, Integer> ids = new HashMap<>(2 * this.points.size());
+			for (int i = 0; i < this.points.size(); i++) {
+				ids.put(this.points.get(i), i);
+			}
+			this.idOf = ids;
+		}
+		return this.idOf;
 	}
 
 	/**
 	 * @return the friends
 	 * This getter will be used by LocalDepthCohesion<V>
+	 * Built from the friend rows on the first call after each round. Ties in the
+	 * ranking from x are broken by position in the list of points.
 	 */
 	public Map<V, NavigableSet<V>> getFriends() {
-		return friends;
+		if (this.friendView == null) {
+			Map<V, Integer> ids = this.idOf();
+			this.friendView = IntStream.range(0, this.points.size()).parallel().boxed()
+					.collect(Collectors.toMap(x -> this.points.get(x), x -> {
+						Comparator<V> cx = crs.apply(this.points.get(x));
+						NavigableSet<V> set = new TreeSet<V>((a, b) -> {
+							int c = cx.compare(a, b);
+							return (c != 0) ? c : Integer.compare(ids.get(a), ids.get(b));
+						});
+						for (int j = 0; j < this.friends.size(x); j++) {
+							set.add(this.points.get(this.friends.get(x, j)));
+						}
+						return set;
+					}));
+		}
+		return friendView;
+	}
+
+	/**
+	 * @param kPrefix at most k
+	 * @return the best kPrefix friends of each point: views of the sets returned
+	 *         by getFriends(), not copies. Without multiplicities, this is the
+	 *         friend map of a descent at kPrefix.
+	 */
+	public Map<V, NavigableSet<V>> getFriends(int kPrefix) {
+		return prefixes(this.getFriends(), kPrefix);
+	}
+
+	/**
+	 * @param sortedSets friend sets, sorted by rank
+	 * @return map x -> the first kPrefix elements of sortedSets.get(x), as a
+	 *         headSet view
+	 */
+	public static <V> Map<V, NavigableSet<V>> prefixes(Map<V, NavigableSet<V>> sortedSets, int kPrefix) {
+		return sortedSets.entrySet().parallelStream().collect(Collectors.toMap(Map.Entry::getKey, e -> {
+			NavigableSet<V> set = e.getValue();
+			if (set.size() <= kPrefix) {
+				return set;
+			}
+			Iterator<V> it = set.iterator();
+			for (int j = 0; j < kPrefix; j++) {
+				it.next();
+			}
+			return set.headSet(it.next(), false); // elements ranked before the (kPrefix+1)-th
+		}));
 	}
 
 	/**
 	 * @return the coFriends
 	 */
 	public Map<V, Set<V>> getCoFriends() {
-		return coFriends;
+		if (this.coFriendView == null) {
+			this.coFriendView = IntStream.range(0, this.points.size()).boxed()
+					.collect(Collectors.toMap(x -> this.points.get(x), x -> {
+						Set<V> set = new HashSet<>();
+						for (int c = 0; c < this.coFriendCount(x); c++) {
+							set.add(this.points.get(this.coFriendIds.get(this.coFriendOffsets.get(x) + c)));
+						}
+						return set;
+					}));
+		}
+		return coFriendView;
+	}
+
+	/**
+	 * @return the friend rows, indexed by position in the list of points
+	 */
+	public FriendTable getFriendTable() {
+		return friends;
 	}
 
 	/*
 	 * For diagnostics
 	 */
 	public IntSummaryStatistics friendStats() {
-		return this.friends.entrySet().stream().mapToInt(e -> e.getValue().size()).summaryStatistics();
+		return IntStream.range(0, this.points.size()).map(x -> this.friends.size(x)).summaryStatistics();
 	}
 	/*
 	 * For diagnostics
 	 */
 
 	public IntSummaryStatistics coFriendStats() {
-		return this.coFriends.entrySet().stream().mapToInt(e -> e.getValue().size()).summaryStatistics();
+		return IntStream.range(0, this.points.size()).map(x -> this.coFriendCount(x)).summaryStatistics();
 	}
 
 	/**
@@ -0,0 +1,149 @@
+/**
+ * Runs one step of a descent round (a task per point id) across the cores,
+ * and measures how busy the cores were.
+ *
+ * Without a cost function, the ids go to a parallel stream. With one, the
+ * scheduler balances by estimated work: points whose cost exceeds the target
+ * chunk cost get a task of their own, the others are packed, in id order, into
+ * chunks of about the target cost, and the tasks are submitted heaviest first,
+ * so that a hub with thousands of co-friends starts early instead of being
+ * the tail of the round. Target chunk cost is total cost / (CHUNKS_PER_CORE *
+ * cores).
+ * @since October 2020
+ */
+package algorithms;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.function.IntToLongFunction;
+
+/**
+ * @author rwrd
+ *
+ */
+final class RoundScheduler {
+
+	static final int CHUNKS_PER_CORE = 8;
+
+	/**
+	 * Utilisation of one step: busy time of the tasks, against wall time times
+	 * the number of cores. Busy time is wall time per task, which includes time
+	 * a thread waits for a core when there are more threads than cores, so
+	 * utilisation is capped at 1.
+	 */
+	static final class Report {
+		final int cores, tasks, heavyTasks;
+		final long wallNanos, busyNanos, longestTaskNanos;
+
+		Report(int numCores, int numTasks, int numHeavy, long wall, long busy, long longest) {
+			this.cores = numCores;
+			this.tasks = numTasks;
+			this.heavyTasks = numHeavy;
+			this.wallNanos = wall;
+			this.busyNanos = busy;
+			this.longestTaskNanos = longest;
+		}
+
+		double utilisation() {
+			return (wallNanos > 0L) ? Math.min(1.0, (double) busyNanos / ((double) wallNanos * (double) cores))
+					: 1.0;
+		}
+
+		@Override
+		public String toString() {
+			return "Core utilisation " + Math.round(100.0 * this.utilisation()) + "% (busy "
+					+ (float) (1.0e-9 * busyNanos) + " s over " + (float) (1.0e-9 * wallNanos) + " s wall x " + cores
+					+ " cores); " + ((tasks > 0) ? tasks + " tasks, " + heavyTasks + " heavy, " : "parallel stream, ")
+					+ "longest " + (float) (1.0e-9 * longestTaskNanos) + " s.";
+		}
+	}
+
+	private RoundScheduler() {
+	}
+
+	/**
+	 * @param ids  points to process
+	 * @param cost estimated work of each point; null for a plain parallel stream
+	 * @param body the work for one point
+	 */
+	static Report run(int[] ids, IntToLongFunction cost, IntConsumer body) {
+		int cores = Runtime.getRuntime().availableProcessors(); // not the pool size, which is at least 1 plus the caller
+		LongAdder busy = new LongAdder();
+		LongAccumulator longest = new LongAccumulator(Math::max, 0L);
+		long start = System.nanoTime();
+		if (cost == null) {
+			Arrays.stream(ids).parallel().forEach(x -> {
+				long t0 = System.nanoTime();
+				body.accept(x);
+				long t = System.nanoTime() - t0;
+				busy.add(t);
+				longest.accumulate(t);
+			});
+			return new Report(cores, 0, 0, System.nanoTime() - start, busy.sum(), longest.get());
+		}
+		long[] costs = new long[ids.length];
+		long total = 0L;
+		for (int i = 0; i < ids.length; i++) {
+			costs[i] = Math.max(1L, cost.applyAsLong(ids[i]));
+			total += costs[i];
+		}
+		long target = Math.max(1L, total / ((long) CHUNKS_PER_CORE * (long) cores));
+		List<int[]> chunks = new ArrayList<>();
+		List<Long> chunkCosts = new ArrayList<>();
+		int heavy = 0;
+		int[] buffer = new int[ids.length];
+		int buffered = 0;
+		long bufferCost = 0L;
+		for (int i = 0; i < ids.length; i++) {
+			if (costs[i] >= target) {
+				chunks.add(new int[] { ids[i] }); // a task of its own
+				chunkCosts.add(costs[i]);
+				heavy++;
+				continue;
+			}
+			buffer[buffered++] = ids[i];
+			bufferCost += costs[i];
+			if (bufferCost >= target) {
+				chunks.add(Arrays.copyOf(buffer, buffered));
+				chunkCosts.add(bufferCost);
+				buffered = 0;
+				bufferCost = 0L;
+			}
+		}
+		if (buffered > 0) {
+			chunks.add(Arrays.copyOf(buffer, buffered));
+			chunkCosts.add(bufferCost);
+		}
+		Integer[] order = new Integer[chunks.size()];
+		for (int c = 0; c < order.length; c++) {
+			order[c] = c;
+		}
+		Arrays.sort(order, Comparator.comparingLong(c -> -chunkCosts.get(c))); // heaviest first
+		ForkJoinPool pool = ForkJoinPool.commonPool();
+		List<ForkJoinTask<?>> tasks = new ArrayList<>(order.length);
+		for (int c : order) {
+			int[] chunk = chunks.get(c);
+			tasks.add(pool.submit(() -> {
+				long t0 = System.nanoTime();
+				for (int x : chunk) {
+					body.accept(x);
+				}
+				long t = System.nanoTime() - t0;
+				busy.add(t);
+				longest.accumulate(t);
+			}));
+		}
+		for (ForkJoinTask<?> task : tasks) {
+			task.join();
+		}
+		return new Report(cores, tasks.size(), heavy, System.nanoTime() - start, busy.sum(), longest.get());
+	}
+
+}
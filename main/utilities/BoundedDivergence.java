@@ -0,0 +1,28 @@
+/**
+ * A divergence which may stop early. When D(x | y) < bound, the exact value is
+ * returned. Otherwise the computation may be abandoned part way through, and
+ * some value >= bound is returned.
+ *
+ * This is valid for Kullback-Liebler divergence of normalised vectors, written
+ * as sum_i [p_i log(p_i / q_i) - p_i + q_i], because every term is
+ * non-negative, so every partial sum is a lower bound for the total.
+ * @since October 2020
+ */
+package utilities;
+
+/**
+ * @author rwrd
+ *
+ */
+@FunctionalInterface
+public interface BoundedDivergence<V> {
+
+	/**
+	 * @param x     base point
+	 * @param y     candidate point
+	 * @param bound typically the divergence from x of its current k-th best friend
+	 * @return D(x | y) if this is less than bound, otherwise a value >= bound
+	 */
+	double applyAsDouble(V x, V y, double bound);
+
+}
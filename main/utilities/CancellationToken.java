@@ -0,0 +1,25 @@
+/**
+ * Request, from any thread, that a long computation stop early.
+ * The computation polls isCancelled() between chunks of work, and is expected
+ * to leave its results in a consistent state when it stops.
+ * @since October 2020
+ */
+package utilities;
+
+/**
+ * @author rwrd
+ *
+ */
+public class CancellationToken {
+
+	private volatile boolean cancelled = false;
+
+	public void cancel() {
+		this.cancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+}
@@ -0,0 +1,111 @@
+/**
+ * Fixed size set of ints 0, 1, ..., n-1, which many threads may add to at once.
+ * Each word of 64 bits is an element of an AtomicLongArray, updated by
+ * compare-and-set, so no update is lost. Reads which overlap with updates see
+ * each bit either before or after its update; callers which need a consistent
+ * picture read after the parallel phase that writes.
+ * @since October 2020
+ */
+package utilities;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * @author rwrd
+ *
+ */
+public class ConcurrentBitSet {
+
+	final int n;
+	final AtomicLongArray words;
+
+	public ConcurrentBitSet(int size) {
+		this.n = size;
+		this.words = new AtomicLongArray((size + 63) >>> 6);
+	}
+
+	/**
+	 * @return true if i was absent, and this call added it
+	 */
+	public boolean set(int i) {
+		int w = i >>> 6;
+		long mask = 1L << i; // shift is mod 64
+		long old;
+		do {
+			old = this.words.get(w);
+			if ((old & mask) != 0L) {
+				return false;
+			}
+		} while (!this.words.compareAndSet(w, old, old | mask));
+		return true;
+	}
+
+	public boolean get(int i) {
+		return (this.words.get(i >>> 6) & (1L << i)) != 0L;
+	}
+
+	/**
+	 * Add every element 0, 1, ..., n-1. Not atomic as a whole.
+	 */
+	public void setAll() {
+		int last = this.words.length() - 1;
+		for (int w = 0; w < last; w++) {
+			this.words.set(w, -1L);
+		}
+		if (last >= 0) {
+			int tail = this.n - (last << 6);
+			this.words.set(last, (tail == 64) ? -1L : (1L << tail) - 1L);
+		}
+	}
+
+	/**
+	 * Remove every element. Not atomic as a whole.
+	 */
+	public void clear() {
+		for (int w = 0; w < this.words.length(); w++) {
+			this.words.set(w, 0L);
+		}
+	}
+
+	public int cardinality() {
+		int count = 0;
+		for (int w = 0; w < this.words.length(); w++) {
+			count += Long.bitCount(this.words.get(w));
+		}
+		return count;
+	}
+
+	public boolean isEmpty() {
+		for (int w = 0; w < this.words.length(); w++) {
+			if (this.words.get(w) != 0L) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the elements, in increasing order
+	 */
+	public int[] toArray() {
+		int[] elements = new int[this.cardinality()];
+		int count = 0;
+		for (int w = 0; w < this.words.length() && count < elements.length; w++) {
+			long word = this.words.get(w);
+			while (word != 0L && count < elements.length) {
+				elements[count++] = (w << 6) + Long.numberOfTrailingZeros(word);
+				word &= word - 1L; // drop lowest set bit
+			}
+		}
+		return (count == elements.length) ? elements : Arrays.copyOf(elements, count);
+	}
+
+	/**
+	 * @return capacity n
+	 */
+	public int size() {
+		return n;
+	}
+
+}
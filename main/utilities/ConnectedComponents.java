@@ -0,0 +1,183 @@
+/**
+ * Connected components of an undirected IntGraph (both arcs of each edge
+ * stored), by parallel lock-free union-find.
+ * Each vertex has a parent in an AtomicIntegerArray; a root is its own parent.
+ * Union links the larger of two roots under the smaller by compare-and-set, so
+ * parents only ever decrease and no cycle can form; find() halves paths as it
+ * goes. The root of a component is therefore its smallest vertex.
+ * Work is organised as in Afforest [1]: link along the first few arcs of every
+ * vertex, pick the largest component from a sample, then link the remaining arcs
+ * of vertices outside it only. Since both arcs of each edge are stored, an edge
+ * between the large component and another vertex is still seen from the other
+ * end.
+ * Labels are dense, 0, 1, ..., in order of smallest vertex.
+ * The arcs may also be chosen by a filter on CSR rows, so that a subgraph is
+ * never built.
+ *
+ * Reference:
+ * [1] Sutton, Michael; Ben-Nun, Tal; Barak, Amnon. Optimizing parallel graph
+ * connectivity computation via subgraph sampling. IPDPS 2018, 12--21.
+ * @since October 2020
+ */
+package utilities;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.IntStream;
+
+/**
+ * @author rwrd
+ *
+ */
+public class ConnectedComponents {
+
+	static final int NEIGHBOR_ROUNDS = 2; // arcs per vertex linked before sampling
+	static final int SAMPLE_SIZE = 1024; // vertices sampled to find the largest component
+
+	final int[] label;
+	final int count;
+
+	/**
+	 * Decides whether arc a, in row x, is an edge
+	 */
+	public interface ArcFilter {
+		boolean test(int x, int a);
+	}
+
+	/**
+	 * @param graph undirected: y is an out-neighbor of x exactly when x is an
+	 *              out-neighbor of y
+	 */
+	public ConnectedComponents(IntGraph graph) {
+		this(graph.offsets, graph.targets, null);
+	}
+
+	/**
+	 * Components of the subgraph of the arcs that pass keep
+	 *
+	 * @param rowOffsets n+1 row boundaries
+	 * @param arcs       targets, row by row
+	 * @param keep       may be null, for every arc; must accept the arc x->y
+	 *                   exactly when it accepts y->x
+	 */
+	public ConnectedComponents(int[] rowOffsets, int[] arcs, ArcFilter keep) {
+		int n = rowOffsets.length - 1;
+		AtomicIntegerArray parent = new AtomicIntegerArray(n);
+		IntStream.range(0, n).parallel().forEach(x -> parent.set(x, x));
+		for (int r = 0; r < NEIGHBOR_ROUNDS; r++) {
+			final int round = r;
+			IntStream.range(0, n).parallel().forEach(x -> {
+				int a = rowOffsets[x] + round;
+				if (a < rowOffsets[x + 1] && (keep == null || keep.test(x, a))) {
+					union(parent, x, arcs[a]);
+				}
+			});
+		}
+		int largest = (n == 0) ? -1 : largestSampled(parent, n);
+		IntStream.range(0, n).parallel().forEach(x -> {
+			if (find(parent, x) != largest) {
+				for (int a = rowOffsets[x] + NEIGHBOR_ROUNDS; a < rowOffsets[x + 1]; a++) {
+					if (keep == null || keep.test(x, a)) {
+						union(parent, x, arcs[a]);
+					}
+				}
+			}
+		});
+		/*
+		 * Roots are the smallest vertices of their components: number them in order
+		 */
+		int[] root = new int[n];
+		IntStream.range(0, n).parallel().forEach(x -> root[x] = find(parent, x));
+		int[] dense = new int[n];
+		int c = 0;
+		for (int x = 0; x < n; x++) {
+			if (root[x] == x) {
+				dense[x] = c++;
+			}
+		}
+		this.label = root;
+		IntStream.range(0, n).parallel().forEach(x -> this.label[x] = dense[root[x]]);
+		this.count = c;
+	}
+
+	/*
+	 * Root of x, halving the path to it
+	 */
+	static int find(AtomicIntegerArray parent, int x) {
+		while (true) {
+			int p = parent.get(x);
+			if (p == x) {
+				return x;
+			}
+			int gp = parent.get(p);
+			if (gp != p) {
+				parent.compareAndSet(x, p, gp); // may fail if another thread got there first; either is fine
+			}
+			x = gp;
+		}
+	}
+
+	/*
+	 * Merge the components of x and y: the larger root is linked under the smaller
+	 */
+	static void union(AtomicIntegerArray parent, int x, int y) {
+		while (true) {
+			int rx = find(parent, x), ry = find(parent, y);
+			if (rx == ry) {
+				return;
+			}
+			int high = Math.max(rx, ry), low = Math.min(rx, ry);
+			if (parent.compareAndSet(high, high, low)) {
+				return;
+			} // otherwise high stopped being a root meanwhile: try again
+		}
+	}
+
+	/*
+	 * Most frequent root among sampled vertices, with a fixed seed so the work
+	 * done is reproducible
+	 */
+	static int largestSampled(AtomicIntegerArray parent, int n) {
+		SplittableRandom g = new SplittableRandom(n);
+		Map<Integer, Integer> frequency = new HashMap<>();
+		int best = find(parent, 0), bestCount = 0;
+		for (int i = 0; i < SAMPLE_SIZE; i++) {
+			int r = find(parent, g.nextInt(n));
+			int f = frequency.merge(r, 1, Integer::sum);
+			if (f > bestCount) {
+				best = r;
+				bestCount = f;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * @return component label of each vertex, from 0 to getCount()-1; the
+	 *         array itself, not a copy
+	 */
+	public int[] getLabels() {
+		return label;
+	}
+
+	/**
+	 * @return number of components, isolated vertices included
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return number of vertices in each component, by label
+	 */
+	public int[] sizes() {
+		int[] size = new int[this.count];
+		for (int l : this.label) {
+			size[l]++;
+		}
+		return size;
+	}
+
+}
@@ -0,0 +1,130 @@
+/**
+ * Fixed length array of doubles, indexed by long: the double counterpart of
+ * IntSegments, on the Java heap or in direct memory, in segments of at most
+ * OffHeapArena.MAX_SEGMENT_BYTES. Off-heap accesses first check that the owning
+ * arena is still open, and throw IllegalStateException otherwise.
+ * @since October 2020
+ */
+package utilities;
+
+import java.nio.DoubleBuffer;
+
+/**
+ * @author rwrd
+ *
+ */
+public class DoubleSegments {
+
+	final long length;
+	final int segmentLength; // doubles per segment (the last segment may be shorter)
+	final DoubleBuffer[] segments;
+	final double[] array; // the only segment, when on the heap; null otherwise
+	final OffHeapArena arena; // owner of off-heap segments; null on the heap
+
+	private DoubleSegments(long n, int alignment, OffHeapArena owner) {
+		if (n < 0L) {
+			throw new IllegalArgumentException("Negative length " + n);
+		}
+		this.length = n;
+		int maxDoubles = OffHeapArena.MAX_SEGMENT_BYTES / Double.BYTES;
+		this.segmentLength = Math.max(1, maxDoubles - maxDoubles % Math.max(1, alignment));
+		this.segments = new DoubleBuffer[(int) Math.max(1L, (n + segmentLength - 1) / segmentLength)];
+		this.arena = owner;
+		this.array = (owner == null && this.segments.length == 1) ? new double[(int) n] : null;
+	}
+
+	private int segmentSize(int s) {
+		return (int) Math.min((long) this.segmentLength, this.length - (long) s * (long) this.segmentLength);
+	}
+
+	/**
+	 * @param n         number of doubles
+	 * @param alignment segment length will be a multiple of this
+	 * @return zeroed storage on the Java heap
+	 */
+	public static DoubleSegments onHeap(long n, int alignment) {
+		DoubleSegments storage = new DoubleSegments(n, alignment, null);
+		for (int s = 0; s < storage.segments.length; s++) {
+			storage.segments[s] = DoubleBuffer
+					.wrap((storage.array != null) ? storage.array : new double[storage.segmentSize(s)]);
+		}
+		return storage;
+	}
+
+	/**
+	 * @return zeroed storage in direct memory, released when arena closes
+	 */
+	public static DoubleSegments offHeap(OffHeapArena arena, long n, int alignment) {
+		DoubleSegments storage = new DoubleSegments(n, alignment, arena);
+		for (int s = 0; s < storage.segments.length; s++) {
+			storage.segments[s] = arena.allocate(Double.BYTES * storage.segmentSize(s)).asDoubleBuffer();
+		}
+		return storage;
+	}
+
+	private void checkOpen() {
+		if (this.arena != null && this.arena.isClosed()) {
+			throw new IllegalStateException("Off-heap storage was released");
+		}
+	}
+
+	public double get(long i) {
+		if (this.array != null) {
+			return this.array[(int) i];
+		}
+		this.checkOpen();
+		return this.segments[(int) (i / segmentLength)].get((int) (i % segmentLength));
+	}
+
+	public void set(long i, double value) {
+		if (this.array != null) {
+			this.array[(int) i] = value;
+			return;
+		}
+		this.checkOpen();
+		this.segments[(int) (i / segmentLength)].put((int) (i % segmentLength), value);
+	}
+
+	/**
+	 * Copy len doubles starting at i into dst, from position dstOffset. The range
+	 * must not straddle segments, which holds for aligned rows.
+	 */
+	public void get(long i, double[] dst, int dstOffset, int len) {
+		if (this.array != null) {
+			System.arraycopy(this.array, (int) i, dst, dstOffset, len);
+			return;
+		}
+		this.checkOpen();
+		DoubleBuffer segment = this.segments[(int) (i / segmentLength)];
+		int offset = (int) (i % segmentLength);
+		for (int j = 0; j < len; j++) {
+			dst[dstOffset + j] = segment.get(offset + j);
+		}
+	}
+
+	/**
+	 * Copy len doubles from src into positions starting at i. Same alignment rule
+	 * as get(i, dst, dstOffset, len).
+	 */
+	public void set(long i, double[] src, int len) {
+		if (this.array != null) {
+			System.arraycopy(src, 0, this.array, (int) i, len);
+			return;
+		}
+		this.checkOpen();
+		DoubleBuffer segment = this.segments[(int) (i / segmentLength)];
+		int offset = (int) (i % segmentLength);
+		for (int j = 0; j < len; j++) {
+			segment.put(offset + j, src[j]);
+		}
+	}
+
+	public long length() {
+		return length;
+	}
+
+	public boolean isOffHeap() {
+		return this.arena != null;
+	}
+
+}
@@ -0,0 +1,166 @@
+/**
+ * Ingestion pre-pass which collapses duplicate points, since identical points
+ * waste KNN descent work, and friend sets ordered by divergence keep only one
+ * of a group of tied points. The multiplicities are consumed by
+ * KNNDescent.setMultiplicities() and the weighted CohesionGraphBuilder
+ * constructor.
+ * Each point is reduced to its content vector (e.g. PointInSimplex.getP()), whose
+ * 64-bit fingerprint is computed in parallel. Points with equal fingerprints AND
+ * equal contents are collapsed into one representative, which carries a
+ * multiplicity count.
+ *
+ * Optionally, near-duplicates are merged too: contents are snapped to a grid of
+ * spacing tolerance before fingerprinting, and a point joins a representative in
+ * the same grid cell only if no coordinate differs by more than tolerance.
+ * Near-duplicates which straddle a cell boundary are NOT merged, so merging is
+ * conservative: no point is ever merged with a representative further than
+ * tolerance away.
+ * @since October 2020
+ */
+package utilities;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+/**
+ * @author rwrd
+ *
+ */
+public class DuplicateCollapser<V> {
+
+	final List<V> representatives; // one per group, in order of first appearance
+	final Map<V, Integer> multiplicity; // keyset = representatives
+	final Map<V, V> representativeOf; // keyset = all input points
+	final double tolerance; // 0.0 means exact duplicates only
+
+	/**
+	 * @param points    input points; duplicates may be distinct objects
+	 * @param contents  content vector of a point; all vectors of the same length
+	 * @param tolerance maximum coordinate difference for near-duplicates; use 0.0
+	 *                  to collapse exact duplicates only
+	 */
+	public DuplicateCollapser(List<V> points, Function<V, double[]> contents, double tolerance) {
+		if (tolerance < 0.0) {
+			throw new IllegalArgumentException("Tolerance must be non-negative: " + tolerance);
+		}
+		this.tolerance = tolerance;
+		long start = System.currentTimeMillis();
+		/*
+		 * Contents and fingerprints, in parallel
+		 */
+		double[][] vectors = new double[points.size()][];
+		long[] fingerprints = new long[points.size()];
+		IntStream.range(0, points.size()).parallel().forEach(i -> {
+			vectors[i] = contents.apply(points.get(i));
+			fingerprints[i] = (tolerance > 0.0) ? fingerprint(snap(vectors[i], tolerance)) : fingerprint(vectors[i]);
+		});
+		/*
+		 * Group sequentially, so that representatives are in order of first
+		 * appearance. Each fingerprint maps to the indices of representatives having
+		 * that fingerprint (usually one; more only after a hash collision).
+		 */
+		Map<Long, List<Integer>> buckets = new HashMap<>(2 * points.size());
+		List<Integer> repIndices = new ArrayList<>();
+		int[] repOf = new int[points.size()];
+		for (int i = 0; i < points.size(); i++) {
+			List<Integer> bucket = buckets.computeIfAbsent(fingerprints[i], f -> new ArrayList<>(1));
+			repOf[i] = -1;
+			for (int r : bucket) {
+				if (this.matches(vectors[r], vectors[i])) {
+					repOf[i] = r;
+					break;
+				}
+			}
+			if (repOf[i] < 0) {
+				bucket.add(i);
+				repIndices.add(i);
+				repOf[i] = i;
+			}
+		}
+		this.representatives = new ArrayList<>(repIndices.size());
+		this.multiplicity = new HashMap<>(2 * repIndices.size());
+		this.representativeOf = new HashMap<>(2 * points.size());
+		for (int r : repIndices) {
+			this.representatives.add(points.get(r));
+			this.multiplicity.put(points.get(r), 0);
+		}
+		for (int i = 0; i < points.size(); i++) {
+			V rep = points.get(repOf[i]);
+			this.representativeOf.put(points.get(i), rep);
+			this.multiplicity.merge(rep, 1, Integer::sum);
+		}
+		System.out.println(points.size() + " points collapsed to " + this.representatives.size()
+				+ " representatives in " + (.001 * (double) (System.currentTimeMillis() - start)) + " secs.");
+	}
+
+	/*
+	 * Exact equality, or every coordinate within tolerance
+	 */
+	private boolean matches(double[] u, double[] v) {
+		if (this.tolerance == 0.0) {
+			return Arrays.equals(u, v);
+		}
+		if (u.length != v.length) {
+			return false;
+		}
+		for (int i = 0; i < u.length; i++) {
+			if (Math.abs(u[i] - v[i]) > this.tolerance) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Grid cell of a vector, as integer coordinates stored in doubles
+	 */
+	static double[] snap(double[] v, double spacing) {
+		return Arrays.stream(v).map(z -> Math.floor(z / spacing)).toArray();
+	}
+
+	/**
+	 * 64-bit fingerprint of the bit patterns of a vector, mixing each word with
+	 * the SplitMix64 finalizer.
+	 */
+	public static long fingerprint(double[] v) {
+		long h = 0x9E3779B97F4A7C15L ^ (long) v.length;
+		for (double z : v) {
+			h = mix64(h + Double.doubleToLongBits(z == 0.0 ? 0.0 : z)); // treat -0.0 as 0.0
+		}
+		return h;
+	}
+
+	private static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * @return the representatives, one per group of duplicates
+	 */
+	public List<V> getRepresentatives() {
+		return Collections.unmodifiableList(representatives);
+	}
+
+	/**
+	 * @return the multiplicity of each representative (at least 1)
+	 */
+	public Map<V, Integer> getMultiplicity() {
+		return Collections.unmodifiableMap(multiplicity);
+	}
+
+	/**
+	 * @return the representative standing for each input point
+	 */
+	public Map<V, V> getRepresentativeOf() {
+		return Collections.unmodifiableMap(representativeOf);
+	}
+
+}
@@ -5,20 +5,22 @@
  * @author  WorldSEnder, 2017
  * Richard Darling adds:
  * StronglyConnectedComponentsTest verified it on 5.6.2020
+ * Revised October 2020: Guava graphs are adapted to StrongComponents, which
+ * works on int rows (iterative Tarjan, or trimming plus forward-backward
+ * search). GraphTraverser remains for post order traversals.
  */
 package utilities;
 
-import java.util.Collections;
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
-import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.graph.ElementOrder;
 import com.google.common.graph.Graph;
 import com.google.common.graph.GraphBuilder;
-import com.google.common.graph.Graphs;
 import com.google.common.graph.MutableGraph;
 
 public class GraphUtils {
@@ -28,6 +30,10 @@ public class GraphUtils {
     /**
      * Guarantees: the graph will be directed and forest-like without self loops.
      * 
+     * Revised October 2020: an adapter. The nodes get int ids, in the order of graph.nodes(), and
+     * StrongComponents does the work on int rows. Component sets are ImmutableSets, whose hash codes are
+     * cached, so putting the edges of the condensed graph does not rehash whole components.
+     * 
      * @param graph
      * @return the SCC graph. each node contains all the nodes in the CC of the original graph
      */
@@ -35,39 +41,40 @@ public class GraphUtils {
         if (graph.nodes().isEmpty()) {
             throw new IllegalArgumentException("Can't find components in an empty graph");
         }
+        final List<T> nodes = new ArrayList<>(graph.nodes());
+        final Map<T, Integer> id = new HashMap<>(2 * nodes.size());
+        for (int x = 0; x < nodes.size(); x++) {
+            id.put(nodes.get(x), x);
+        }
+        final int[] offsets = new int[nodes.size() + 1];
+        for (int x = 0; x < nodes.size(); x++) {
+            offsets[x + 1] = offsets[x] + graph.successors(nodes.get(x)).size();
+        }
+        final int[] targets = new int[offsets[nodes.size()]];
+        for (int x = 0; x < nodes.size(); x++) {
+            int a = offsets[x];
+            for (T y : graph.successors(nodes.get(x))) {
+                targets[a++] = id.get(y);
+            }
+        }
+        final StrongComponents components = new StrongComponents(new IntGraph(offsets, targets));
         final MutableGraph<Set<T>> result = GraphBuilder.directed().allowsSelfLoops(false)
                 .nodeOrder(ElementOrder.insertion()).build();
-        // Kosaraju's algorithm
-
-        final Map<T, Set<T>> ccStore = new HashMap<>(graph.nodes().size());
-        // Step 1
-        final ImmutableList<T> topologicalOrder = GraphUtils.traverse(graph).postOrderTraversal(graph.nodes()).toList()
-                .reverse();
-        // Step 2
-        final Graph<T> transposeGraph = Graphs.transpose(graph);
-        // Step 3
-        for (T node : topologicalOrder) {
-            if (ccStore.keySet().contains(node)) {
-                continue;
+        final List<Set<T>> componentSets = new ArrayList<>(components.getCount());
+        for (int c = 0; c < components.getCount(); c++) {
+            final ImmutableSet.Builder<T> members = ImmutableSet.builderWithExpectedSize(components.size(c));
+            for (int j = 0; j < components.size(c); j++) {
+                members.add(nodes.get(components.member(c, j)));
+            }
+            componentSets.add(members.build());
+            result.addNode(componentSets.get(c));
+        }
+        final IntGraph condensation = components.getCondensation();
+        for (int c = 0; c < condensation.size(); c++) {
+            for (int a = condensation.start(c); a < condensation.end(c); a++) {
+                result.putEdge(componentSets.get(c), componentSets.get(condensation.target(a)));
             }
-            final Set<T> connectedComponent = new HashSet<>();
-            final Set<T> hitExistingNodes = new HashSet<>();
-
-            GraphUtils.traverse(transposeGraph)
-                    .postOrderTraversal(Collections.singleton(node), ccStore.keySet(), hitExistingNodes::add)
-                    .forEach(connectedComponent::add);
-
-            result.addNode(connectedComponent);
-            hitExistingNodes.forEach(n -> {
-                // We encounter a connection between connected components
-                Set<T> existingCC = ccStore.get(n);
-                result.putEdge(existingCC, connectedComponent);
-            });
-            connectedComponent.forEach(n -> {
-                ccStore.put(n, connectedComponent);
-            });
         }
-
         return result;
     }
 
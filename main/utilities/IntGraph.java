@@ -0,0 +1,120 @@
+/**
+ * Directed graph on vertices 0, 1, ..., n-1, in compressed sparse row form:
+ * the out-neighbors of x are targets[offsets[x]], ..., targets[offsets[x+1]-1].
+ * Immutable once built. An undirected graph is stored with both arcs of each
+ * edge.
+ * Edge positions are ints, so the number of arcs must stay below 2^31.
+ * @since October 2020
+ */
+package utilities;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * @author rwrd
+ *
+ */
+public class IntGraph {
+
+	final int[] offsets; // n+1 row boundaries
+	final int[] targets;
+
+	/**
+	 * @param rowOffsets n+1 non-decreasing positions, from 0 to arcs.length
+	 * @param arcs       out-neighbors, row by row
+	 */
+	public IntGraph(int[] rowOffsets, int[] arcs) {
+		if (rowOffsets.length == 0 || rowOffsets[0] != 0 || rowOffsets[rowOffsets.length - 1] != arcs.length) {
+			throw new IllegalArgumentException("Row offsets do not span " + arcs.length + " arcs");
+		}
+		this.offsets = rowOffsets;
+		this.targets = arcs;
+	}
+
+	/**
+	 * Subgraph of the arcs at positions a of rows of a larger CSR structure for
+	 * which keep.test(a) holds, keeping their order. Built in parallel over rows:
+	 * one pass counts, one fills.
+	 *
+	 * @param rowOffsets n+1 row boundaries of the larger structure
+	 * @param arcs       its targets
+	 */
+	public static IntGraph select(int[] rowOffsets, int[] arcs, IntPredicate keep) {
+		int n = rowOffsets.length - 1;
+		int[] offsets = new int[n + 1];
+		IntStream.range(0, n).parallel().forEach(x -> {
+			int count = 0;
+			for (int a = rowOffsets[x]; a < rowOffsets[x + 1]; a++) {
+				if (keep.test(a)) {
+					count++;
+				}
+			}
+			offsets[x + 1] = count;
+		});
+		Arrays.parallelPrefix(offsets, Integer::sum);
+		int[] targets = new int[offsets[n]];
+		IntStream.range(0, n).parallel().forEach(x -> {
+			int b = offsets[x];
+			for (int a = rowOffsets[x]; a < rowOffsets[x + 1]; a++) {
+				if (keep.test(a)) {
+					targets[b++] = arcs[a];
+				}
+			}
+		});
+		return new IntGraph(offsets, targets);
+	}
+
+	/**
+	 * @return the graph with every arc reversed; each row lists its sources in
+	 *         increasing order
+	 */
+	public IntGraph transpose() {
+		int n = this.size();
+		int[] offsets = new int[n + 1];
+		for (int y : this.targets) {
+			offsets[y + 1]++;
+		}
+		Arrays.parallelPrefix(offsets, Integer::sum);
+		int[] fill = Arrays.copyOf(offsets, n);
+		int[] sources = new int[this.targets.length];
+		for (int x = 0; x < n; x++) {
+			for (int a = this.offsets[x]; a < this.offsets[x + 1]; a++) {
+				sources[fill[this.targets[a]]++] = x;
+			}
+		}
+		return new IntGraph(offsets, sources);
+	}
+
+	public int size() {
+		return this.offsets.length - 1;
+	}
+
+	public int arcCount() {
+		return this.targets.length;
+	}
+
+	/**
+	 * @return first arc of row x
+	 */
+	public int start(int x) {
+		return this.offsets[x];
+	}
+
+	/**
+	 * @return one past the last arc of row x
+	 */
+	public int end(int x) {
+		return this.offsets[x + 1];
+	}
+
+	public int target(int a) {
+		return this.targets[a];
+	}
+
+	public int outDegree(int x) {
+		return this.offsets[x + 1] - this.offsets[x];
+	}
+
+}
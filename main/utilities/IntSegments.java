@@ -0,0 +1,152 @@
+/**
+ * Fixed length array of ints, indexed by long, stored in segments of at most
+ * OffHeapArena.MAX_SEGMENT_BYTES. The segments are either int[] arrays on the
+ * Java heap, direct memory, or a memory-mapped file, all seen as IntBuffers.
+ * Callers that keep rows of fixed width can ask for a segment size which is a
+ * multiple of the row width, so that no row straddles two segments.
+ * When the ints fit in one heap segment, which is the usual case, the array is
+ * read directly, with no division by the segment length. Off-heap accesses
+ * first check that the owning arena is still open, and throw
+ * IllegalStateException otherwise.
+ * @since October 2020
+ */
+package utilities;
+
+import java.nio.IntBuffer;
+import java.nio.file.Path;
+
+/**
+ * @author rwrd
+ *
+ */
+public class IntSegments {
+
+	final long length;
+	final int segmentLength; // ints per segment (the last segment may be shorter)
+	final IntBuffer[] segments;
+	final int[] array; // the only segment, when on the heap; null otherwise
+	final OffHeapArena arena; // owner of off-heap segments; null on the heap
+
+	private IntSegments(long n, int alignment, OffHeapArena owner) {
+		if (n < 0L) {
+			throw new IllegalArgumentException("Negative length " + n);
+		}
+		this.length = n;
+		int maxInts = OffHeapArena.MAX_SEGMENT_BYTES / Integer.BYTES;
+		this.segmentLength = Math.max(1, maxInts - maxInts % Math.max(1, alignment));
+		this.segments = new IntBuffer[(int) Math.max(1L, (n + segmentLength - 1) / segmentLength)];
+		this.arena = owner;
+		this.array = (owner == null && this.segments.length == 1) ? new int[(int) n] : null;
+	}
+
+	private int segmentSize(int s) {
+		return (int) Math.min((long) this.segmentLength, this.length - (long) s * (long) this.segmentLength);
+	}
+
+	/**
+	 * @param n         number of ints
+	 * @param alignment segment length will be a multiple of this
+	 * @return zeroed storage on the Java heap
+	 */
+	public static IntSegments onHeap(long n, int alignment) {
+		IntSegments storage = new IntSegments(n, alignment, null);
+		for (int s = 0; s < storage.segments.length; s++) {
+			storage.segments[s] = IntBuffer.wrap((storage.array != null) ? storage.array : new int[storage.segmentSize(s)]);
+		}
+		return storage;
+	}
+
+	/**
+	 * @return zeroed storage in direct memory, released when arena closes
+	 */
+	public static IntSegments offHeap(OffHeapArena arena, long n, int alignment) {
+		IntSegments storage = new IntSegments(n, alignment, arena);
+		for (int s = 0; s < storage.segments.length; s++) {
+			storage.segments[s] = arena.allocate(Integer.BYTES * storage.segmentSize(s)).asIntBuffer();
+		}
+		return storage;
+	}
+
+	/**
+	 * @param headerBytes bytes at the start of the file which are not part of the
+	 *                    array
+	 * @return storage mapped from a file, unmapped when arena closes. Existing
+	 *         file contents are kept.
+	 */
+	public static IntSegments mapped(OffHeapArena arena, Path file, long headerBytes, long n, int alignment) {
+		IntSegments storage = new IntSegments(n, alignment, arena);
+		long position = headerBytes;
+		for (int s = 0; s < storage.segments.length; s++) {
+			int bytes = Integer.BYTES * storage.segmentSize(s);
+			storage.segments[s] = arena.map(file, position, bytes).asIntBuffer();
+			position += bytes;
+		}
+		return storage;
+	}
+
+	private void checkOpen() {
+		if (this.arena != null && this.arena.isClosed()) {
+			throw new IllegalStateException("Off-heap storage was released");
+		}
+	}
+
+	public int get(long i) {
+		if (this.array != null) {
+			return this.array[(int) i];
+		}
+		this.checkOpen();
+		return this.segments[(int) (i / segmentLength)].get((int) (i % segmentLength));
+	}
+
+	public void set(long i, int value) {
+		if (this.array != null) {
+			this.array[(int) i] = value;
+			return;
+		}
+		this.checkOpen();
+		this.segments[(int) (i / segmentLength)].put((int) (i % segmentLength), value);
+	}
+
+	/**
+	 * Copy len ints starting at i into dst, from position dstOffset. The range
+	 * must not straddle segments, which holds for aligned rows.
+	 */
+	public void get(long i, int[] dst, int dstOffset, int len) {
+		if (this.array != null) {
+			System.arraycopy(this.array, (int) i, dst, dstOffset, len);
+			return;
+		}
+		this.checkOpen();
+		IntBuffer segment = this.segments[(int) (i / segmentLength)];
+		int offset = (int) (i % segmentLength);
+		for (int j = 0; j < len; j++) {
+			dst[dstOffset + j] = segment.get(offset + j);
+		}
+	}
+
+	/**
+	 * Copy len ints from src into positions starting at i. Same alignment rule as
+	 * get(i, dst, dstOffset, len).
+	 */
+	public void set(long i, int[] src, int len) {
+		if (this.array != null) {
+			System.arraycopy(src, 0, this.array, (int) i, len);
+			return;
+		}
+		this.checkOpen();
+		IntBuffer segment = this.segments[(int) (i / segmentLength)];
+		int offset = (int) (i % segmentLength);
+		for (int j = 0; j < len; j++) {
+			segment.put(offset + j, src[j]);
+		}
+	}
+
+	public long length() {
+		return length;
+	}
+
+	public boolean isOffHeap() {
+		return this.arena != null;
+	}
+
+}
@@ -0,0 +1,148 @@
+/**
+ * Owner of a group of off-heap buffers, which are all released together by
+ * close(). Buffers come either from direct memory, or from memory-mapped files.
+ *
+ * This plays the role of an Arena of the Foreign Memory API, which is not
+ * available at the Java level this project targets. Direct and mapped
+ * ByteBuffers are normally released only when the garbage collector finds them
+ * unreachable; close() releases them at once through the JDK's buffer cleaner
+ * (sun.misc.Unsafe.invokeCleaner, JDK 9+). If that is unavailable, close() only
+ * drops the references, and release falls back to the garbage collector.
+ *
+ * After close(), no buffer obtained from this arena may be used. The holders
+ * of such buffers in this project (IntSegments, PointStore) check isClosed()
+ * on every access and throw IllegalStateException rather than read freed
+ * memory; close() must not race with those reads.
+ * @since October 2020
+ */
+package utilities;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * @author rwrd
+ *
+ */
+public class OffHeapArena implements AutoCloseable {
+
+	/*
+	 * Buffers are limited to int indices, so large arrays are split into segments
+	 * of at most this many bytes.
+	 */
+	public static final int MAX_SEGMENT_BYTES = 1 << 30;
+	private static final Object UNSAFE;
+	private static final Method INVOKE_CLEANER;
+	static {
+		Object unsafe = null;
+		Method invokeCleaner = null;
+		try {
+			Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+			Field f = unsafeClass.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			unsafe = f.get(null);
+			invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			unsafe = null;
+			invokeCleaner = null;
+		}
+		UNSAFE = unsafe;
+		INVOKE_CLEANER = invokeCleaner;
+	}
+
+	private final List<ByteBuffer> owned;
+	private long bytesAllocated;
+	private volatile boolean closed; // read without the lock by buffer holders
+
+	public OffHeapArena() {
+		this.owned = new ArrayList<>();
+		this.bytesAllocated = 0L;
+		this.closed = false;
+	}
+
+	/**
+	 * @param bytes at most MAX_SEGMENT_BYTES
+	 * @return zeroed direct buffer in native byte order
+	 */
+	public synchronized ByteBuffer allocate(int bytes) {
+		this.checkOpen();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+		this.owned.add(buffer);
+		this.bytesAllocated += bytes;
+		return buffer;
+	}
+
+	/**
+	 * Map a region of a file, creating or extending the file if necessary.
+	 *
+	 * @param file   path of the backing file
+	 * @param offset start of the region, in bytes
+	 * @param bytes  at most MAX_SEGMENT_BYTES
+	 * @return read-write mapped buffer in native byte order
+	 */
+	public synchronized ByteBuffer map(Path file, long offset, int bytes) {
+		this.checkOpen();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, offset, bytes)
+					.order(ByteOrder.nativeOrder());
+			this.owned.add(buffer);
+			this.bytesAllocated += bytes;
+			return buffer;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not map " + file, e);
+		}
+	}
+
+	/**
+	 * @return true once close() has been called
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+
+	private void checkOpen() {
+		if (this.closed) {
+			throw new IllegalStateException("Arena is closed");
+		}
+	}
+
+	/**
+	 * @return total bytes allocated or mapped by this arena, and not yet released
+	 */
+	public synchronized long getBytesAllocated() {
+		return bytesAllocated;
+	}
+
+	/**
+	 * Release every buffer of this arena.
+	 */
+	@Override
+	public synchronized void close() {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		if (INVOKE_CLEANER != null) {
+			for (ByteBuffer buffer : this.owned) {
+				try {
+					INVOKE_CLEANER.invoke(UNSAFE, buffer);
+				} catch (ReflectiveOperationException | RuntimeException e) {
+					// leave this buffer to the garbage collector
+				}
+			}
+		}
+		this.owned.clear();
+		this.bytesAllocated = 0L;
+	}
+
+}
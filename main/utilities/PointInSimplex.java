@@ -1,104 +1,200 @@
 /**
- * 
+ *
  * Represents a probability distribution on d points
  * as a point in interior of d-dimensional simplex in R^(d+1).
  * The divergence method uses Kullback-Liebler divergence.
  * Since many computations may occur, the logs of the probabilities
  * p_1, ...p_d are precomputed and saved.
- * Also the associated comparator.
- * 
+ *
  * For testing clustering algorithms, we record the index of the template
  * used to build the point; typically this means a vector of d parameters for
  * a Dirichlet distribution.
+ *
+ * Revised October 2020: the probabilities, log probabilities and template live
+ * in a columnar PointStore. This object is only a flyweight (store, row).
+ * It is its own comparator, so getCprtr() allocates nothing.
  * @since June 1, -2020
- * 
+ *
  */
 package utilities;
 
+import java.nio.DoubleBuffer;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.function.ToDoubleBiFunction;
 
 /**
  * @author rwrd
  *
  */
-public class PointInSimplex {
+public class PointInSimplex implements Comparator<PointInSimplex> {
 
-	final int d; // dimension
-	final double[] p; // all > 0
-	final int template; // which template was used to generate p? Use Integer.MIN_VALUE if irrelevant.
-	double[] logp;
-	Comparator<PointInSimplex> cprtr;
+	final PointStore store; // holds p, logp and template for this point
+	final int row; // which row of the store
 
 	/**
-	 * 
+	 * Stand-alone point, in a store of one row. Each such point costs a store
+	 * object and its small arrays: to hold many points, use PointStore.add()
+	 * instead.
 	 */
 	public PointInSimplex(int dimension, double[] probabilities, int myTemplate) {
-		this.d = dimension;
-		this.p = probabilities;
-		this.template = myTemplate;
-		this.logp = Arrays.stream(this.p).map(z -> Math.log(z)).toArray();
-		/*
-		 * Refer to this object as x. rank_x(y) < rank_x(z) means D(x | y) < D(x | z).
-		 * Revised June 4, 2020.
-		 */
-		this.cprtr = (y, z) -> Double.compare(div.applyAsDouble(this, y), div.applyAsDouble(this, z));
+		this.store = new PointStore(dimension);
+		this.row = 0;
+		this.store.write(0, probabilities, myTemplate, null);
 	}
 
 	/*
-	 * Kullback-Liebler divergence. Efficiency occurs because each PointInSimplex
-	 * object only computes its log probabilities ONCE. The divergence computation
-	 * involves addition and multiplication only
+	 * Flyweight for a row of an existing store. Only PointStore calls this.
 	 */
-	ToDoubleBiFunction<PointInSimplex, PointInSimplex> div = (x, y) -> {
+	PointInSimplex(PointStore pointStore, int myRow) {
+		this.store = pointStore;
+		this.row = myRow;
+	}
+
+	/*
+	 * Kullback-Liebler divergence. Efficiency occurs because the log probabilities
+	 * are computed ONCE, when the point enters its store. The divergence
+	 * computation involves addition and multiplication only. When x and y share a
+	 * store, both rows are read from the same two arrays.
+	 */
+	public static double divergence(PointInSimplex x, PointInSimplex y) {
+		final int d = x.store.d;
+		if (d != y.store.d) {
+			return Double.NaN;
+		}
+		if (x.store.isOffHeap() || y.store.isOffHeap()) {
+			return bufferDivergence(x, y);
+		}
+		final double[] xp = x.store.p, xlogp = x.store.logp, ylogp = y.store.logp;
+		final int xo = x.row * d, yo = y.row * d;
 		double s = 0.0;
-		if (x.d == y.d) {
-			for (int i = 0; i < x.d; i++) {
-				s += x.p[i] * (x.logp[i] - y.logp[i]); //arithmetic
+		for (int i = 0; i < d; i++) {
+			s += xp[xo + i] * (xlogp[xo + i] - ylogp[yo + i]); // arithmetic
+		}
+		return s;
+	}
+
+	/*
+	 * Same formula, reading rows through buffers, for off-heap stores
+	 */
+	private static double bufferDivergence(PointInSimplex x, PointInSimplex y) {
+		final int d = x.store.d;
+		final DoubleBuffer xp = x.store.pRows(x.row), xlogp = x.store.logpRows(x.row), ylogp = y.store.logpRows(y.row);
+		final int xo = x.store.rowOffset(x.row), yo = y.store.rowOffset(y.row);
+		double s = 0.0;
+		for (int i = 0; i < d; i++) {
+			s += xp.get(xo + i) * (xlogp.get(xo + i) - ylogp.get(yo + i));
+		}
+		return s;
+	}
+
+	/*
+	 * Early abandon version of Kullback-Liebler divergence. Each term p log(p/q) -
+	 * p + q is non-negative, and the terms sum to D(x | y) when p and q both sum to
+	 * 1. The partial sum is compared with bound after every block of terms; once
+	 * it reaches bound, y cannot beat the current k-th best friend of x.
+	 */
+	static final int ABANDON_BLOCK = 8; // # terms between checks against the bound
+
+	public static double divergenceWithin(PointInSimplex x, PointInSimplex y, double bound, TermCounter counter) {
+		final int d = x.store.d;
+		if (d != y.store.d) {
+			return Double.NaN;
+		}
+		double s = 0.0;
+		int i = 0;
+		if (x.store.isOffHeap() || y.store.isOffHeap()) {
+			final DoubleBuffer xp = x.store.pRows(x.row), xlogp = x.store.logpRows(x.row), yp = y.store.pRows(y.row),
+					ylogp = y.store.logpRows(y.row);
+			final int xo = x.store.rowOffset(x.row), yo = y.store.rowOffset(y.row);
+			while (i < d) {
+				int end = Math.min(d, i + ABANDON_BLOCK);
+				for (; i < end; i++) {
+					s += xp.get(xo + i) * (xlogp.get(xo + i) - ylogp.get(yo + i)) - xp.get(xo + i) + yp.get(yo + i);
+				}
+				if (s >= bound) {
+					break;
+				}
 			}
-			return s;
 		} else {
-			return Double.NaN;
+			final double[] xp = x.store.p, xlogp = x.store.logp, yp = y.store.p, ylogp = y.store.logp;
+			final int xo = x.row * d, yo = y.row * d;
+			while (i < d) {
+				int end = Math.min(d, i + ABANDON_BLOCK);
+				for (; i < end; i++) {
+					s += xp[xo + i] * (xlogp[xo + i] - ylogp[yo + i]) - xp[xo + i] + yp[yo + i];
+				}
+				if (s >= bound) {
+					break;
+				}
+			}
+		}
+		if (counter != null) {
+			counter.record(i, d);
 		}
-	};
+		return s;
+	}
+
+	/**
+	 * @param counter may be null
+	 * @return the early abandon kernel, in the form used by KNNDescent
+	 */
+	public static BoundedDivergence<PointInSimplex> earlyAbandonDivergence(TermCounter counter) {
+		return (x, y, bound) -> divergenceWithin(x, y, bound, counter);
+	}
 
 	/*
 	 * @param PointInSimplex Equality means equality of the probability vectors
 	 */
 	public boolean equals(PointInSimplex y) {
-		if (!(this.d == y.d)) {
+		final int d = this.store.d;
+		if (!(d == y.store.d)) {
 			return false;
 		} else {
-			int counter = this.d; // in how many components do the probabilities disagree?
-			for (int i = 0; i < this.d; i++) {
-				if (this.p[i] == y.p[i]) {
-					counter--;
-				}
-			}
-			return (counter == 0) ? true : false; // true means no disagreements
+			return Arrays.equals(this.getP(), y.getP());
 		}
 	}
 
 	/**
-	 * @return the cprtr
+	 * Refer to this object as x. rank_x(y) < rank_x(z) means D(x | y) < D(x | z).
+	 * Revised June 4, 2020.
+	 */
+	@Override
+	public int compare(PointInSimplex y, PointInSimplex z) {
+		return Double.compare(divergence(this, y), divergence(this, z));
+	}
+
+	/**
+	 * @return the cprtr: this point, as the comparator of its friends
 	 */
 	public Comparator<PointInSimplex> getCprtr() {
-		return cprtr;
+		return this;
 	}
 
 	/**
-	 * @return the p
+	 * @return a copy of the p
 	 */
 	public double[] getP() {
-		return p;
+		final int d = this.store.d;
+		if (!this.store.isOffHeap()) {
+			return Arrays.copyOfRange(this.store.p, this.row * d, this.row * d + d);
+		}
+		double[] copy = new double[d];
+		this.store.pRows(this.row).get(this.store.rowOffset(this.row), copy, 0, d);
+		return copy;
 	}
 
 	/**
 	 * @return the template
 	 */
 	public int getTemplate() {
-		return template;
+		return this.store.template[this.row];
+	}
+
+	/**
+	 * @return the row of this point in its store
+	 */
+	public int getRow() {
+		return row;
 	}
 
 }
@@ -0,0 +1,275 @@
+/**
+ * Columnar storage for many points in the same d-dimensional simplex.
+ * All probability vectors are held row by row in ONE array of length n*d, and
+ * all log probability vectors in another, so a divergence between two stored
+ * points reads two contiguous rows, and there is no per-point array or lambda.
+ * Each stored point is represented by a PointInSimplex flyweight holding only
+ * (store, row).
+ *
+ * Points should be added before any algorithm starts to read them.
+ *
+ * The rows may also be kept off the Java heap, in direct memory or in a
+ * memory-mapped file owned by an OffHeapArena; see offHeap() and mapped().
+ * Off-heap stores have a fixed capacity, and rows never straddle two segments.
+ * Once the arena is closed, reading a row throws IllegalStateException.
+ * @since October 2020
+ */
+package utilities;
+
+import java.nio.DoubleBuffer;
+import java.nio.file.Path;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * @author rwrd
+ *
+ */
+public class PointStore {
+
+	final int d; // dimension
+	double[] p; // row i occupies p[i*d], ..., p[i*d + d - 1]; all > 0. Null when off-heap.
+	double[] logp; // same layout as p
+	DoubleBuffer pView, logpView; // buffer views of p and logp, made on request
+	/*
+	 * Off-heap rows: row i is in segment i / rowsPerSegment, at offset
+	 * (i % rowsPerSegment) * d
+	 */
+	DoubleBuffer[] pSegments, logpSegments;
+	int rowsPerSegment;
+	OffHeapArena arena; // owner of the off-heap rows; reads fail once it is closed
+	int[] template; // template[i] is the template of row i
+	PointInSimplex[] handles; // one canonical flyweight per row, so points can be map keys
+	int size; // number of rows in use
+
+	/**
+	 * @param dimension      d
+	 * @param expectedPoints initial capacity, in rows; the store grows if needed
+	 */
+	public PointStore(int dimension, int expectedPoints) {
+		this.d = dimension;
+		int capacity = Math.max(1, expectedPoints);
+		int length = arrayLength(capacity, dimension);
+		this.p = new double[length];
+		this.logp = new double[length];
+		this.template = new int[capacity];
+		this.handles = new PointInSimplex[capacity];
+		this.size = 0;
+	}
+
+	/*
+	 * Store of one row, for a stand-alone PointInSimplex: no handles, since the
+	 * point is not reached through the store
+	 */
+	PointStore(int dimension) {
+		this.d = dimension;
+		this.p = new double[dimension];
+		this.logp = new double[dimension];
+		this.template = new int[1];
+		this.size = 0;
+	}
+
+	/*
+	 * Length n*d of the heap arrays, which must fit in an int
+	 */
+	private static int arrayLength(long rows, int dimension) {
+		long length = rows * (long) dimension;
+		if (length > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException(rows + " rows of dimension " + dimension
+					+ " exceed the largest heap array; use an off-heap store");
+		}
+		return (int) length;
+	}
+
+	private PointStore(int dimension, int capacity, OffHeapArena arena, Path file) {
+		this.d = dimension;
+		this.arena = arena;
+		this.rowsPerSegment = Math.max(1, OffHeapArena.MAX_SEGMENT_BYTES / (Double.BYTES * dimension));
+		int numSegments = Math.max(1, (capacity + this.rowsPerSegment - 1) / this.rowsPerSegment);
+		this.pSegments = new DoubleBuffer[numSegments];
+		this.logpSegments = new DoubleBuffer[numSegments];
+		long position = 0L;
+		for (int s = 0; s < numSegments; s++) {
+			int rows = Math.min(this.rowsPerSegment, capacity - s * this.rowsPerSegment);
+			int bytes = Double.BYTES * dimension * Math.max(1, rows);
+			if (file == null) {
+				this.pSegments[s] = arena.allocate(bytes).asDoubleBuffer();
+				this.logpSegments[s] = arena.allocate(bytes).asDoubleBuffer();
+			} else {
+				this.pSegments[s] = arena.map(file, position, bytes).asDoubleBuffer();
+				this.logpSegments[s] = arena.map(file, position + bytes, bytes).asDoubleBuffer();
+				position += 2L * bytes;
+			}
+		}
+		this.template = new int[Math.max(1, capacity)];
+		this.handles = new PointInSimplex[Math.max(1, capacity)];
+		this.size = 0;
+	}
+
+	/**
+	 * @param arena    owner of the direct memory
+	 * @param capacity fixed number of rows
+	 * @return empty store whose rows are in direct memory
+	 */
+	public static PointStore offHeap(OffHeapArena arena, int dimension, int capacity) {
+		return new PointStore(dimension, capacity, arena, null);
+	}
+
+	/**
+	 * @param arena    owner of the mapping
+	 * @param file     backing file, created if necessary
+	 * @param capacity fixed number of rows
+	 * @return empty store whose rows are memory-mapped from file
+	 */
+	public static PointStore mapped(OffHeapArena arena, Path file, int dimension, int capacity) {
+		return new PointStore(dimension, capacity, arena, file);
+	}
+
+	/**
+	 * Copy a probability vector into the next free row.
+	 *
+	 * @param probabilities length d, all > 0
+	 * @param myTemplate    which template was used to generate the point
+	 * @return the flyweight for the new row
+	 */
+	public synchronized PointInSimplex add(double[] probabilities, int myTemplate) {
+		if (this.size == this.handles.length) {
+			this.grow();
+		}
+		PointInSimplex handle = new PointInSimplex(this, this.size);
+		this.write(this.size, probabilities, myTemplate, handle);
+		return handle;
+	}
+
+	/*
+	 * Used by add(), and by the stand-alone PointInSimplex constructor, which
+	 * builds a store of one row around itself, with no handle.
+	 */
+	void write(int row, double[] probabilities, int myTemplate, PointInSimplex handle) {
+		if (probabilities.length != this.d) {
+			throw new IllegalArgumentException("Expected " + this.d + " probabilities, found " + probabilities.length);
+		}
+		if (this.p != null) {
+			int offset = row * this.d;
+			for (int i = 0; i < this.d; i++) {
+				this.p[offset + i] = probabilities[i];
+				this.logp[offset + i] = Math.log(probabilities[i]);
+			}
+		} else {
+			DoubleBuffer pRows = this.pRows(row), logpRows = this.logpRows(row);
+			int offset = this.rowOffset(row);
+			for (int i = 0; i < this.d; i++) {
+				pRows.put(offset + i, probabilities[i]);
+				logpRows.put(offset + i, Math.log(probabilities[i]));
+			}
+		}
+		this.template[row] = myTemplate;
+		if (this.handles != null) {
+			this.handles[row] = handle;
+		}
+		this.size = Math.max(this.size, row + 1);
+	}
+
+	private void grow() {
+		if (this.p == null) {
+			throw new IllegalStateException("Off-heap PointStore is full: capacity " + this.handles.length);
+		}
+		int maxRows = (Integer.MAX_VALUE - 8) / this.d;
+		if (this.handles.length >= maxRows) {
+			arrayLength(this.handles.length + 1L, this.d); // throws
+		}
+		int capacity = (int) Math.min(2L * this.handles.length, (long) maxRows);
+		int length = arrayLength(capacity, this.d);
+		this.pView = null;
+		this.logpView = null;
+		this.p = Arrays.copyOf(this.p, length);
+		this.logp = Arrays.copyOf(this.logp, length);
+		this.template = Arrays.copyOf(this.template, capacity);
+		this.handles = Arrays.copyOf(this.handles, capacity);
+	}
+
+	/*
+	 * Buffer holding a row of probabilities, and the position of the row in it.
+	 * On the heap, this is a view of the whole array p.
+	 */
+	DoubleBuffer pRows(int row) {
+		if (this.p != null) {
+			if (this.pView == null) {
+				this.pView = DoubleBuffer.wrap(this.p);
+			}
+			return this.pView;
+		}
+		this.checkOpen();
+		return this.pSegments[row / this.rowsPerSegment];
+	}
+
+	DoubleBuffer logpRows(int row) {
+		if (this.logp != null) {
+			if (this.logpView == null) {
+				this.logpView = DoubleBuffer.wrap(this.logp);
+			}
+			return this.logpView;
+		}
+		this.checkOpen();
+		return this.logpSegments[row / this.rowsPerSegment];
+	}
+
+	private void checkOpen() {
+		if (this.arena.isClosed()) {
+			throw new IllegalStateException("Off-heap PointStore was released with its arena");
+		}
+	}
+
+	int rowOffset(int row) {
+		return (this.p != null) ? row * this.d : (row % this.rowsPerSegment) * this.d;
+	}
+
+	/**
+	 * @return true if the rows are in direct memory or a mapped file
+	 */
+	public boolean isOffHeap() {
+		return this.p == null;
+	}
+
+	/**
+	 * @param row 0, 1, ..., size()-1
+	 * @return the flyweight for that row
+	 */
+	public PointInSimplex get(int row) {
+		return this.handles[row];
+	}
+
+	/**
+	 * @return read-only list view of all stored points, in row order. Suitable as
+	 *         the dataPoints argument of KNNDescent.
+	 */
+	public List<PointInSimplex> asList() {
+		return new AbstractList<PointInSimplex>() {
+			@Override
+			public PointInSimplex get(int row) {
+				return PointStore.this.handles[row];
+			}
+
+			@Override
+			public int size() {
+				return PointStore.this.size;
+			}
+		};
+	}
+
+	/**
+	 * @return number of stored points
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return the dimension
+	 */
+	public int getDimension() {
+		return this.d;
+	}
+
+}
@@ -0,0 +1,263 @@
+/**
+ *
+ * Sparse counterpart of PointInSimplex, for probability distributions on d points
+ * where d is large (tens of thousands) but only a small fraction of the entries
+ * are materially nonzero. Only the nonzero entries are stored, as sorted
+ * index/value arrays. Every absent entry is smoothed to the floor eps, in the same
+ * way as DirichletRandomVector.simulate(alpha): the stored values are rescaled so
+ * that stored values plus (d - nnz) * eps sum to 1.
+ *
+ * Kullback-Liebler divergence is computed by merging the two index arrays. Terms
+ * where neither point has a stored entry are eps * (log eps - log eps) = 0, so the
+ * cost of one divergence is O(nnz(x) + nnz(y)), not O(d).
+ * @since October 2020
+ *
+ */
+package utilities;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * @author rwrd
+ *
+ */
+public class SparsePointInSimplex {
+
+	public static final double DEFAULT_EPS = 1.0E-6; // same floor as DirichletRandomVector
+	final int d; // dimension
+	final int[] index; // strictly increasing, all in 0, 1, ..., d-1
+	final double[] p; // p[j] is the probability at index[j]; all > eps
+	final double[] logp;
+	final double eps, logEps; // probability, and log probability, of every absent entry
+	final int template; // which template was used to generate p? Use Integer.MIN_VALUE if irrelevant.
+	Comparator<SparsePointInSimplex> cprtr;
+
+	/**
+	 * @param dimension  d
+	 * @param indices    positions of the nonzero entries (need not be sorted, must
+	 *                   be distinct)
+	 * @param weights    positive weights at those positions (need not sum to 1)
+	 * @param epsilon    probability assigned to every absent entry; d * epsilon
+	 *                   must be less than 1
+	 * @param myTemplate which template was used to generate the point
+	 */
+	public SparsePointInSimplex(int dimension, int[] indices, double[] weights, double epsilon, int myTemplate) {
+		if (indices.length != weights.length) {
+			throw new IllegalArgumentException("Index and weight arrays differ in length");
+		}
+		if (epsilon <= 0.0 || epsilon * (double) dimension >= 1.0) {
+			throw new IllegalArgumentException("Need 0 < eps < 1/d, but eps = " + epsilon + ", d = " + dimension);
+		}
+		this.d = dimension;
+		this.eps = epsilon;
+		this.logEps = Math.log(epsilon);
+		this.template = myTemplate;
+		/*
+		 * Sort the entries by index, so that divergence can merge two points.
+		 */
+		int[] order = IntStream.range(0, indices.length).boxed().sorted((a, b) -> Integer.compare(indices[a], indices[b]))
+				.mapToInt(Integer::intValue).toArray();
+		this.index = new int[indices.length];
+		this.p = new double[indices.length];
+		double sum = 0.0;
+		for (int j = 0; j < order.length; j++) {
+			this.index[j] = indices[order[j]];
+			if (this.index[j] < 0 || this.index[j] >= dimension || (j > 0 && this.index[j] == this.index[j - 1])) {
+				throw new IllegalArgumentException("Index " + this.index[j] + " is repeated or out of range");
+			}
+			if (!(weights[order[j]] > 0.0)) {
+				throw new IllegalArgumentException("Weight at index " + this.index[j] + " is not positive");
+			}
+			sum += weights[order[j]];
+		}
+		/*
+		 * Smoothing, as in DirichletRandomVector: the d - nnz absent entries carry eps
+		 * each, the stored entries carry eps plus their share of the remainder.
+		 */
+		double eps1 = 1.0 - epsilon * (double) dimension;
+		for (int j = 0; j < order.length; j++) {
+			this.p[j] = epsilon + eps1 * weights[order[j]] / sum;
+		}
+		this.logp = Arrays.stream(this.p).map(z -> Math.log(z)).toArray();
+		/*
+		 * Refer to this object as x. rank_x(y) < rank_x(z) means D(x | y) < D(x | z).
+		 */
+		this.cprtr = (y, z) -> Double.compare(divergence(this, y), divergence(this, z));
+	}
+
+	public SparsePointInSimplex(int dimension, int[] indices, double[] weights, int myTemplate) {
+		this(dimension, indices, weights, DEFAULT_EPS, myTemplate);
+	}
+
+	/**
+	 * Keep only the entries of a dense vector which exceed a threshold.
+	 *
+	 * @param dense      nonnegative weights, length d
+	 * @param threshold  entries less than or equal to this are treated as absent
+	 * @param epsilon    floor for absent entries
+	 * @param myTemplate which template was used to generate the point
+	 * @return sparse point with the same (smoothed) distribution
+	 */
+	public static SparsePointInSimplex sparsify(double[] dense, double threshold, double epsilon, int myTemplate) {
+		int[] idx = IntStream.range(0, dense.length).filter(i -> dense[i] > threshold).toArray();
+		double[] w = Arrays.stream(idx).mapToDouble(i -> dense[i]).toArray();
+		return new SparsePointInSimplex(dense.length, idx, w, epsilon, myTemplate);
+	}
+
+	/*
+	 * Kullback-Liebler divergence D(x | y) by sparse merge. Four kinds of index i:
+	 * stored in both, stored in x only, stored in y only (x_i = eps), stored in
+	 * neither (contributes zero, never visited). Only addition and multiplication.
+	 */
+	public static double divergence(SparsePointInSimplex x, SparsePointInSimplex y) {
+		if (x.d != y.d || x.eps != y.eps) {
+			return Double.NaN;
+		}
+		double s = 0.0;
+		int a = 0, b = 0;
+		final int na = x.index.length, nb = y.index.length;
+		while (a < na && b < nb) {
+			if (x.index[a] == y.index[b]) {
+				s += x.p[a] * (x.logp[a] - y.logp[b]);
+				a++;
+				b++;
+			} else if (x.index[a] < y.index[b]) {
+				s += x.p[a] * (x.logp[a] - y.logEps);
+				a++;
+			} else {
+				s += x.eps * (x.logEps - y.logp[b]);
+				b++;
+			}
+		}
+		for (; a < na; a++) {
+			s += x.p[a] * (x.logp[a] - y.logEps);
+		}
+		for (; b < nb; b++) {
+			s += x.eps * (x.logEps - y.logp[b]);
+		}
+		return s;
+	}
+
+	/*
+	 * Early abandon version of the sparse merge, using the non-negative terms p
+	 * log(p/q) - p + q. Indices stored in neither point contribute eps - eps = 0,
+	 * so the merge still visits only stored indices. The running sum is checked
+	 * against bound every ABANDON_BLOCK merge steps.
+	 */
+	static final int ABANDON_BLOCK = 16;
+
+	public static double divergenceWithin(SparsePointInSimplex x, SparsePointInSimplex y, double bound,
+			TermCounter counter) {
+		if (x.d != y.d || x.eps != y.eps) {
+			return Double.NaN;
+		}
+		double s = 0.0;
+		int a = 0, b = 0, steps = 0;
+		final int na = x.index.length, nb = y.index.length;
+		while (a < na || b < nb) {
+			if (b == nb || (a < na && x.index[a] < y.index[b])) {
+				s += x.p[a] * (x.logp[a] - y.logEps) - x.p[a] + y.eps;
+				a++;
+			} else if (a == na || x.index[a] > y.index[b]) {
+				s += x.eps * (x.logEps - y.logp[b]) - x.eps + y.p[b];
+				b++;
+			} else {
+				s += x.p[a] * (x.logp[a] - y.logp[b]) - x.p[a] + y.p[b];
+				a++;
+				b++;
+			}
+			if (++steps % ABANDON_BLOCK == 0 && s >= bound) {
+				break;
+			}
+		}
+		if (counter != null) {
+			/*
+			 * Offered terms: size of the union of stored indices, which is only known
+			 * if the merge ran to the end. Otherwise count the unvisited entries of both.
+			 */
+			counter.record(steps, steps + (na - a) + (nb - b));
+		}
+		return s;
+	}
+
+	/**
+	 * @param counter may be null
+	 * @return the early abandon kernel, in the form used by KNNDescent
+	 */
+	public static BoundedDivergence<SparsePointInSimplex> earlyAbandonDivergence(TermCounter counter) {
+		return (x, y, bound) -> divergenceWithin(x, y, bound, counter);
+	}
+
+	/*
+	 * @param SparsePointInSimplex Equality means equality of the probability
+	 * vectors
+	 */
+	public boolean equals(SparsePointInSimplex y) {
+		return this.d == y.d && this.eps == y.eps && Arrays.equals(this.index, y.index) && Arrays.equals(this.p, y.p);
+	}
+
+	/**
+	 * @return the full vector of d probabilities. Allocates O(d) memory: intended
+	 *         for small examples and for tests.
+	 */
+	public double[] toDense() {
+		double[] dense = new double[this.d];
+		Arrays.fill(dense, this.eps);
+		for (int j = 0; j < this.index.length; j++) {
+			dense[this.index[j]] = this.p[j];
+		}
+		return dense;
+	}
+
+	/**
+	 * @return number of stored (nonzero) entries
+	 */
+	public int getNonZeroCount() {
+		return index.length;
+	}
+
+	/**
+	 * @return the cprtr
+	 */
+	public Comparator<SparsePointInSimplex> getCprtr() {
+		return cprtr;
+	}
+
+	/**
+	 * @return the indices of the stored entries, in increasing order
+	 */
+	public int[] getIndices() {
+		return index;
+	}
+
+	/**
+	 * @return the stored probabilities, aligned with getIndices()
+	 */
+	public double[] getValues() {
+		return p;
+	}
+
+	/**
+	 * @return the eps
+	 */
+	public double getEps() {
+		return eps;
+	}
+
+	/**
+	 * @return the dimension
+	 */
+	public int getDimension() {
+		return d;
+	}
+
+	/**
+	 * @return the template
+	 */
+	public int getTemplate() {
+		return template;
+	}
+
+}
@@ -0,0 +1,72 @@
+/**
+ * Thread safe tally of how many terms of a divergence were actually evaluated,
+ * out of how many would have been evaluated without early abandoning.
+ * @since October 2020
+ */
+package utilities;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author rwrd
+ *
+ */
+public class TermCounter {
+	final LongAdder evaluated; // terms actually summed
+	final LongAdder offered; // terms in the full divergence
+	final LongAdder calls, abandoned;
+
+	public TermCounter() {
+		this.evaluated = new LongAdder();
+		this.offered = new LongAdder();
+		this.calls = new LongAdder();
+		this.abandoned = new LongAdder();
+	}
+
+	/*
+	 * Called once per divergence evaluation
+	 */
+	public void record(int termsEvaluated, int termsOffered) {
+		this.evaluated.add(termsEvaluated);
+		this.offered.add(termsOffered);
+		this.calls.increment();
+		if (termsEvaluated < termsOffered) {
+			this.abandoned.increment();
+		}
+	}
+
+	/**
+	 * @return average fraction of divergence terms evaluated, or NaN if nothing
+	 *         was recorded
+	 */
+	public double fractionEvaluated() {
+		long off = this.offered.sum();
+		return (off == 0L) ? Double.NaN : (double) this.evaluated.sum() / (double) off;
+	}
+
+	/**
+	 * @return fraction of calls which were abandoned before the last term
+	 */
+	public double fractionAbandoned() {
+		long c = this.calls.sum();
+		return (c == 0L) ? Double.NaN : (double) this.abandoned.sum() / (double) c;
+	}
+
+	public long getCalls() {
+		return this.calls.sum();
+	}
+
+	public void reset() {
+		this.evaluated.reset();
+		this.offered.reset();
+		this.calls.reset();
+		this.abandoned.reset();
+	}
+
+	@Override
+	public String toString() {
+		return this.getCalls() + " bounded divergences, " + (100.0 * this.fractionAbandoned()) + "% abandoned early, "
+				+ (100.0 * this.fractionEvaluated()) + "% of terms evaluated";
+	}
+
+}
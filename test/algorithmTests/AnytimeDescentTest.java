@@ -0,0 +1,86 @@
+/**
+ * KNN descent under a wall-clock budget, and under cancellation from another
+ * thread. Prints the summary of each run, and checks that every friend row is
+ * complete (k distinct friends, none equal to the point itself) after the run
+ * is cut short.
+ */
+package algorithmTests;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import algorithms.DescentSummary;
+import algorithms.FriendTable;
+import algorithms.KNNDescent;
+import utilities.CancellationToken;
+import utilities.PointInSimplex;
+import utilities.PointStore;
+
+/**
+ * @author rwrd
+ *
+ */
+public class AnytimeDescentTest {
+
+	static boolean consistent(FriendTable table, int k) {
+		int[] row = new int[k];
+		for (int x = 0; x < table.getN(); x++) {
+			int len = table.copyRow(x, row);
+			final int self = x;
+			if (len != k || Arrays.stream(row).distinct().count() != k || Arrays.stream(row).anyMatch(y -> y == self)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param args d n k budgetMillis cancelMillis
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int d = Integer.parseInt(args[0]);
+		int n = Integer.parseInt(args[1]);
+		int k = Integer.parseInt(args[2]);
+		long budgetMillis = Long.parseLong(args[3]);
+		long cancelMillis = Long.parseLong(args[4]);
+		Random g = new Random();
+		PointStore store = new PointStore(d, n);
+		for (int i = 0; i < n; i++) {
+			double[] vec = g.doubles(d).map(x -> -Math.log(x)).toArray(); // exponential random variables
+			double sum = Arrays.stream(vec).sum();
+			for (int j = 0; j < d; j++) {
+				vec[j] = vec[j] / sum;
+			} // normalize so sum is 1
+			store.add(vec, Integer.MIN_VALUE);
+		}
+		List<PointInSimplex> points = store.asList();
+		/*
+		 * Deadline
+		 */
+		KNNDescent<PointInSimplex> knnd = new KNNDescent<>(points, x -> x.getCprtr(), k);
+		DescentSummary summary = knnd.kNNDescentAlgorithm(100, 0.1, Duration.ofMillis(budgetMillis), null);
+		System.out.println("Budget " + budgetMillis + " ms: " + summary.getStopReason() + ", rounds "
+				+ summary.getRounds() + ", consistent rows " + consistent(knnd.getFriendTable(), k));
+		/*
+		 * Cancellation from another thread
+		 */
+		CancellationToken token = new CancellationToken();
+		Thread canceller = new Thread(() -> {
+			try {
+				Thread.sleep(cancelMillis);
+			} catch (InterruptedException e) {
+				return;
+			}
+			token.cancel();
+		});
+		canceller.start();
+		knnd = new KNNDescent<>(points, x -> x.getCprtr(), k);
+		summary = knnd.kNNDescentAlgorithm(100, 0.1, null, token);
+		canceller.join();
+		System.out.println("Cancel after " + cancelMillis + " ms: " + summary.getStopReason() + ", rounds "
+				+ summary.getRounds() + ", consistent rows " + consistent(knnd.getFriendTable(), k));
+	}
+
+}
@@ -0,0 +1,56 @@
+/**
+ * Cluster hierarchy of Dirichlet points: the flat clustering at the mean
+ * cohesion must give the labels of CohesionGraphBuilder. Then thresholds are
+ * slid from half to twice the mean cohesion, reporting cluster counts, the
+ * largest cluster and the time of each cut.
+ */
+package algorithmTests;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import algorithms.ClusterHierarchy;
+import algorithms.Clustering;
+import algorithms.CohesionGraphBuilder;
+import algorithms.KNNDescent;
+import utilities.PointInSimplex;
+import utilities.PointStore;
+
+/**
+ * @author rwrd
+ *
+ */
+public class ClusterHierarchyTest {
+
+	/**
+	 * @param args d n k
+	 */
+	public static void main(String[] args) {
+		int d = Integer.parseInt(args[0]);
+		int n = Integer.parseInt(args[1]);
+		int k = Integer.parseInt(args[2]);
+		Random g = new Random();
+		PointStore store = new PointStore(d, n);
+		for (int i = 0; i < n; i++) {
+			double[] vec = g.doubles(d).map(x -> -Math.log(x)).toArray(); // Dirichlet(1, ..., 1)
+			double sum = Arrays.stream(vec).sum();
+			store.add(Arrays.stream(vec).map(x -> x / sum).toArray(), i);
+		}
+		KNNDescent<PointInSimplex> knnd = new KNNDescent<>(store.asList(), x -> x.getCprtr(), k);
+		knnd.kNNDescentAlgorithm(2 * knnd.getExpanderBasedRoundCount(), 0.1);
+		CohesionGraphBuilder<PointInSimplex> builder = new CohesionGraphBuilder<>(knnd.getFriends());
+		double tau = builder.getEmpiricalMeanCohesion();
+		ClusterHierarchy<PointInSimplex> hierarchy = new ClusterHierarchy<>(builder, 0.5 * tau);
+		System.out.println("RESULT at tau = " + tau + ": " + hierarchy.clusterCount(tau) + " clusters; same labels: "
+				+ Arrays.equals(builder.getComponentLabels(), hierarchy.labels(tau)));
+		for (double f = 0.5; f <= 2.0; f += 0.25) {
+			long start = System.nanoTime();
+			Clustering<PointInSimplex> flat = hierarchy.cut(f * tau);
+			long micros = (System.nanoTime() - start) / 1000L;
+			int largest = Arrays.stream(flat.sizes()).max().orElse(0);
+			System.out.println("RESULT t = " + f + " tau: " + flat.getCount() + " clusters, largest " + largest
+					+ ", cut in " + micros + " microseconds");
+		}
+	}
+
+}
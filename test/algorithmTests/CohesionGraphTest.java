@@ -18,7 +18,6 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
@@ -41,6 +40,7 @@ import algorithms.CohesionGraphBuilder;
 import algorithms.KNNDescent;
 import utilities.DirichletRandomVector;
 import utilities.PointInSimplex;
+import utilities.PointStore;
 
 /**
  * @author rwrd
@@ -50,6 +50,7 @@ public class CohesionGraphTest {
 	int d, nc, n, k, numSampledPairs;
 	Random g;
 	DirichletRandomVector drv;
+	PointStore store; // rows of all the points
 	List<PointInSimplex> points;
 	KNNDescent<PointInSimplex> knnd;
 	CohesionGraphBuilder<PointInSimplex> cohere;
@@ -73,6 +74,7 @@ public class CohesionGraphTest {
 				.mapToInt(z -> (int) Math.round(z * (double) numPoints)).toArray(); /// rounding means these may not sum
 																					/// exactly to n
 		this.points = new ArrayList<PointInSimplex>();
+		this.store = new PointStore(this.d, numPoints);
 		/*
 		 * Generate samples from d-dimensional Dirichlet(k_1, k_2, ...k_d)
 		 * distributions. Samples fall into nc groups. Within a group, samples are
@@ -81,7 +83,7 @@ public class CohesionGraphTest {
 		 */
 		for (int c = 0; c < nc; c++) {
 			for (double[] p : this.drv.simulateWithRandomParams(this.d, clusterSizes[c])) {
-				this.points.add(new PointInSimplex(this.d, p, c));
+				this.points.add(this.store.add(p, c));
 			}
 		}
 		this.n = this.points.size(); // may differ by a few from numPoints
@@ -244,10 +246,8 @@ public class CohesionGraphTest {
 	 */
 	ToIntBiFunction<PointInSimplex, PointInSimplex> clusterValidator = (x, y) -> {
 		boolean sameTemplate = (Integer.compare(x.getTemplate(), y.getTemplate()) == 0); // fields of x, y
-		// Find connected component of the cluster graph which contains x.
-		Set<PointInSimplex> componentX = this.cohere.getStronglyConnectedComponents().nodes().stream()
-				.filter(component -> component.contains(x)).findFirst().orElse(new HashSet<>());
-		boolean sameComponent = componentX.contains(y);
+		// Component labels of the cluster graph: one lookup each for x and y
+		boolean sameComponent = this.cohere.getClustering().sameCluster(x, y);
 		int templateBit = sameTemplate ? 0 : 2;
 		int reportBit = sameComponent ? 0 : 1;
 		return templateBit + reportBit;
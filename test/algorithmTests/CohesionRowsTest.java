@@ -0,0 +1,233 @@
+/**
+ * The compressed rows of CohesionGraphBuilder against a reference build with
+ * Guava graphs, from the same KNN descent friends: the formulas of the builder
+ * as it was before the rows replaced the graphs, evaluated point by point, with
+ * copies of a point ranked by position.
+ * Every focus size and mutual friend bit, every cohesion value (arcs and
+ * diagonal), every cluster arc, and the strong components must agree; the mean
+ * cohesion may differ in the last bits, from the summation order.
+ * Run once with multiplicity 1, and once with multiplicities 1, 2, 3.
+ */
+package algorithmTests;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.stream.Collectors;
+
+import com.google.common.graph.EndpointPair;
+import com.google.common.graph.Graph;
+import com.google.common.graph.GraphBuilder;
+import com.google.common.graph.MutableGraph;
+import com.google.common.graph.MutableValueGraph;
+import com.google.common.graph.ValueGraphBuilder;
+
+import algorithms.CohesionGraphBuilder;
+import algorithms.FocusGraph;
+import algorithms.KNNDescent;
+import utilities.GraphUtils;
+import utilities.IntGraph;
+import utilities.PointInSimplex;
+import utilities.PointStore;
+
+/**
+ * @author rwrd
+ *
+ */
+public class CohesionRowsTest {
+
+	/*
+	 * Focus, mutual friend, cohesion and cluster graphs, by the Guava formulas
+	 */
+	static class Reference<V> {
+		final Map<V, NavigableSet<V>> friends;
+		final ToIntFunction<V> multiplicity;
+		final double nV;
+		final MutableValueGraph<V, Integer> focusGraph;
+		final MutableGraph<V> mutualFriendGraph;
+		final MutableValueGraph<V, Double> cohesionGraph;
+		final MutableGraph<V> clusterGraph;
+		final double empiricalMeanCohesion;
+
+		Reference(Map<V, NavigableSet<V>> neighborSets, ToIntFunction<V> pointMultiplicity) {
+			this.friends = neighborSets.keySet().stream().collect(Collectors.toUnmodifiableMap(Function.identity(),
+					x -> Collections.unmodifiableNavigableSet(neighborSets.get(x))));
+			this.multiplicity = pointMultiplicity;
+			this.nV = (double) this.friends.keySet().stream().mapToLong(x -> pointMultiplicity.applyAsInt(x)).sum();
+			this.focusGraph = ValueGraphBuilder.undirected().allowsSelfLoops(false).build();
+			this.mutualFriendGraph = GraphBuilder.undirected().allowsSelfLoops(false).build();
+			for (V x : this.friends.keySet()) {
+				for (V y : this.friends.get(x)) {
+					if (this.focusGraph.hasEdgeConnecting(y, x)) {
+						this.mutualFriendGraph.putEdge(x, y); // 2nd time the pair {x, y} has occurred
+					} else {
+						this.focusGraph.putEdgeValue(x, y, this.focusSize(x, y));
+					}
+				}
+			}
+			this.cohesionGraph = ValueGraphBuilder.directed().allowsSelfLoops(true).build();
+			double weightedTrace = 0.0;
+			for (V x : this.friends.keySet()) {
+				Map<V, Double> row = this.cohesionRow(x);
+				for (Map.Entry<V, Double> e : row.entrySet()) {
+					this.cohesionGraph.putEdgeValue(x, e.getKey(), e.getValue());
+				}
+				weightedTrace += (double) this.multiplicity.applyAsInt(x) * row.get(x);
+			}
+			this.empiricalMeanCohesion = 0.5 * weightedTrace / this.nV;
+			this.clusterGraph = GraphBuilder.directed().allowsSelfLoops(false).build();
+			for (EndpointPair<V> e : this.cohesionGraph.edges()) {
+				double w = Math.min(this.cohesionGraph.edgeValueOrDefault(e.source(), e.target(), 0.0),
+						this.cohesionGraph.edgeValueOrDefault(e.target(), e.source(), 0.0));
+				if (!e.source().equals(e.target()) && w > this.empiricalMeanCohesion) {
+					this.clusterGraph.putEdge(e);
+				}
+			}
+		}
+
+		/*
+		 * |V_{x,y}| for y a friend of x, by Proposition 6.1 of Darling
+		 */
+		int focusSize(V x, V y) {
+			int xRanksY = this.weight(this.friends.get(x).headSet(y)) + this.multiplicity.applyAsInt(x);
+			int counter = 0;
+			if (!this.friends.get(y).contains(x)) {
+				for (V z : this.friends.get(x).headSet(y)) {
+					if (this.friends.get(y).contains(z)) {
+						counter += this.multiplicity.applyAsInt(z);
+					}
+				}
+				return xRanksY + this.weight(this.friends.get(y)) + this.multiplicity.applyAsInt(y) - counter;
+			}
+			int yRanksX = this.weight(this.friends.get(y).headSet(x)) + this.multiplicity.applyAsInt(y);
+			for (V z : this.friends.get(x).headSet(y)) {
+				if (this.friends.get(y).headSet(x).contains(z)) {
+					counter += this.multiplicity.applyAsInt(z);
+				}
+			}
+			return xRanksY + yRanksX - counter;
+		}
+
+		/*
+		 * v -> (n-1)*C_{x,v}, for v a friend of x or v = x
+		 */
+		Map<V, Double> cohesionRow(V x) {
+			Map<V, Double> row = new HashMap<>();
+			int mx = this.multiplicity.applyAsInt(x);
+			double cohesionValue = 1.0 - ((double) (this.weight(this.friends.get(x)) + mx - 1) - 1.0) / this.nV;
+			Iterator<V> reverseIt = this.friends.get(x).descendingIterator();
+			while (reverseIt.hasNext()) {
+				V v = reverseIt.next();
+				double summand = this.friends.get(v).contains(x)
+						? 1.0 / (double) this.focusGraph.edgeValueOrDefault(x, v, Integer.valueOf(0))
+						: 1.0 / this.nV;
+				summand *= (double) this.multiplicity.applyAsInt(v);
+				cohesionValue += summand;
+				row.put(v, cohesionValue - 0.5 * summand); // tie-break
+			}
+			double copies = 0.0; // copies x_i, x_j are mutual, with focus of size max(i, j) + 1
+			for (int j = 1; j < mx; j++) {
+				copies += 2.0 * (double) j / (double) (j + 1);
+			}
+			cohesionValue += copies / (double) mx;
+			row.put(x, cohesionValue);
+			return row;
+		}
+
+		int weight(Set<V> pointSet) {
+			int w = 0;
+			for (V z : pointSet) {
+				w += this.multiplicity.applyAsInt(z);
+			}
+			return w;
+		}
+	}
+
+	/*
+	 * Compare every row of the builder with the reference, and report
+	 */
+	static <V> void compare(String label, CohesionGraphBuilder<V> builder, Reference<V> reference) {
+		FocusGraph<V> focus = builder.getFocus();
+		double[] cohesion = builder.getCohesionRows();
+		double[] diagonal = builder.getCohesionDiagonal();
+		IntGraph clusterRows = builder.getClusterRows();
+		long focusMismatches = 0L, mutualMismatches = 0L, cohesionMismatches = 0L, clusterMismatches = 0L;
+		long clusterArcs = 0L;
+		for (int x = 0; x < focus.size(); x++) {
+			V vx = focus.point(x);
+			for (int a = focus.start(x); a < focus.end(x); a++) {
+				V vy = focus.point(focus.target(a));
+				if (reference.focusGraph.edgeValueOrDefault(vx, vy, -1) != focus.focusSize(a)) {
+					focusMismatches++;
+				}
+				if (reference.mutualFriendGraph.hasEdgeConnecting(vx, vy) != focus.isMutual(a)) {
+					mutualMismatches++;
+				}
+				if (reference.cohesionGraph.edgeValueOrDefault(vx, vy, Double.NaN) != cohesion[a]) {
+					cohesionMismatches++;
+				}
+			}
+			if (reference.cohesionGraph.edgeValueOrDefault(vx, vx, Double.NaN) != diagonal[x]) {
+				cohesionMismatches++;
+			}
+			Set<V> successors = new HashSet<>();
+			for (int a = clusterRows.start(x); a < clusterRows.end(x); a++) {
+				successors.add(focus.point(clusterRows.target(a)));
+			}
+			clusterArcs += successors.size();
+			Set<V> expected = reference.clusterGraph.nodes().contains(vx) ? reference.clusterGraph.successors(vx)
+					: Collections.emptySet();
+			if (!successors.equals(expected)) {
+				clusterMismatches++;
+			}
+		}
+		boolean sameArcCount = focus.arcCount() == reference.friends.values().stream().mapToLong(Set::size).sum()
+				&& focus.mutualPairCount() == (long) reference.mutualFriendGraph.edges().size()
+				&& clusterArcs == (long) reference.clusterGraph.edges().size();
+		Graph<Set<V>> components = builder.getStronglyConnectedComponents();
+		Set<Set<V>> builderComponents = (components == null) ? Collections.emptySet()
+				: new HashSet<>(components.nodes());
+		Set<Set<V>> referenceComponents = reference.clusterGraph.edges().isEmpty() ? Collections.emptySet()
+				: new HashSet<>(GraphUtils.findStronglyConnectedComponents(reference.clusterGraph).nodes());
+		System.out.println("RESULT " + label + ": focus sizes " + focusMismatches + " mismatches, mutual bits "
+				+ mutualMismatches + ", cohesion values " + cohesionMismatches + ", cluster rows "
+				+ clusterMismatches + "; arc counts agree " + sameArcCount + "; same strong components "
+				+ builderComponents.equals(referenceComponents) + " (" + builderComponents.size() + ")");
+		System.out.println("RESULT " + label + ": mean cohesion " + builder.getEmpiricalMeanCohesion()
+				+ ", reference " + reference.empiricalMeanCohesion + ", difference "
+				+ (builder.getEmpiricalMeanCohesion() - reference.empiricalMeanCohesion));
+	}
+
+	/**
+	 * @param args d n k
+	 */
+	public static void main(String[] args) {
+		int d = Integer.parseInt(args[0]);
+		int n = Integer.parseInt(args[1]);
+		int k = Integer.parseInt(args[2]);
+		Random g = new Random();
+		PointStore store = new PointStore(d, n);
+		for (int i = 0; i < n; i++) {
+			double[] vec = g.doubles(d).map(x -> -Math.log(x)).toArray(); // Dirichlet(1, ..., 1)
+			double sum = Arrays.stream(vec).sum();
+			store.add(Arrays.stream(vec).map(x -> x / sum).toArray(), i);
+		}
+		KNNDescent<PointInSimplex> knnd = new KNNDescent<>(store.asList(), x -> x.getCprtr(), k);
+		knnd.kNNDescentAlgorithm(2 * knnd.getExpanderBasedRoundCount(), 0.1);
+		Map<PointInSimplex, NavigableSet<PointInSimplex>> friends = knnd.getFriends();
+		ToIntFunction<PointInSimplex> single = x -> 1;
+		ToIntFunction<PointInSimplex> multiple = x -> 1 + x.getTemplate() % 3;
+		compare("multiplicity 1", new CohesionGraphBuilder<>(friends, single), new Reference<>(friends, single));
+		compare("multiplicities 1-3", new CohesionGraphBuilder<>(friends, multiple),
+				new Reference<>(friends, multiple));
+	}
+
+}
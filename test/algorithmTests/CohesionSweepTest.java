@@ -0,0 +1,103 @@
+/**
+ * One KNN descent at K, then cohesion and clustering for several k <= K in one
+ * sweep. Each k is checked against a separate CohesionGraphBuilder on the
+ * prefix friend sets: mean cohesion, cluster graph edges and components must
+ * agree, and the sweep must take less time than the separate builders. Both
+ * are run once untimed first, so that neither is timed cold. Points are tilted
+ * Dirichlet samples, as in CornerBasedCohesionGraphTest.
+ */
+package algorithmTests;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.TreeMap;
+
+import algorithms.CohesionGraphBuilder;
+import algorithms.CohesionSweep;
+import algorithms.KNNDescent;
+import utilities.PointInSimplex;
+import utilities.PointStore;
+
+/**
+ * @author rwrd
+ *
+ */
+public class CohesionSweepTest {
+
+	/*
+	 * Dirichlet with parameter 2(d-1) on one random coordinate, 2 elsewhere
+	 */
+	static PointStore tiltedDirichletSamples(int d, int n, Random g) {
+		PointStore store = new PointStore(d, n);
+		for (int i = 0; i < n; i++) {
+			int boost = Math.min(d - 1, (int) Math.floor(-((double) d / 2.0) * Math.log(g.nextDouble())));
+			double[] vec = new double[d];
+			double sum = 0.0;
+			for (int c = 0; c < d; c++) {
+				int shape = (c == boost) ? 2 * (d - 1) : 2;
+				for (int j = 0; j < shape; j++) {
+					vec[c] -= Math.log(g.nextDouble()); // add Exponential r.v.
+				}
+				sum += vec[c];
+			}
+			for (int c = 0; c < d; c++) {
+				vec[c] /= sum;
+			}
+			store.add(vec, boost);
+		}
+		return store;
+	}
+
+	static int components(CohesionGraphBuilder<PointInSimplex> b) {
+		return (b.getStronglyConnectedComponents() == null) ? 0 : b.getStronglyConnectedComponents().nodes().size();
+	}
+
+	/**
+	 * @param args d n K k_1 k_2 ...
+	 */
+	public static void main(String[] args) {
+		int d = Integer.parseInt(args[0]);
+		int n = Integer.parseInt(args[1]);
+		int kMax = Integer.parseInt(args[2]);
+		int[] ks = Arrays.stream(args, 3, args.length).mapToInt(Integer::parseInt).toArray();
+		PointStore store = tiltedDirichletSamples(d, n, new Random());
+		KNNDescent<PointInSimplex> knnd = new KNNDescent<>(store.asList(), x -> x.getCprtr(), kMax);
+		knnd.kNNDescentAlgorithm(2 * knnd.getExpanderBasedRoundCount(), 0.1);
+		Map<PointInSimplex, NavigableSet<PointInSimplex>> friends = knnd.getFriends();
+		new CohesionSweep<>(friends, ks).run(); // warm-up
+		separate(knnd, ks);
+		long start = System.currentTimeMillis();
+		NavigableMap<Integer, CohesionGraphBuilder<PointInSimplex>> swept = new CohesionSweep<>(friends, ks).run();
+		double sweepSeconds = 0.001 * (double) (System.currentTimeMillis() - start);
+		start = System.currentTimeMillis();
+		NavigableMap<Integer, CohesionGraphBuilder<PointInSimplex>> singles = separate(knnd, ks);
+		double separateSeconds = 0.001 * (double) (System.currentTimeMillis() - start);
+		boolean agree = true;
+		for (int k : ks) {
+			CohesionGraphBuilder<PointInSimplex> single = singles.get(k);
+			CohesionGraphBuilder<PointInSimplex> fromSweep = swept.get(k);
+			System.out.println("RESULT k = " + k + ": mean cohesion " + fromSweep.getEmpiricalMeanCohesion() + " vs "
+					+ single.getEmpiricalMeanCohesion() + "; cluster edges " + fromSweep.getClusterGraph().edges().size()
+					+ " vs " + single.getClusterGraph().edges().size() + "; components " + components(fromSweep)
+					+ " vs " + components(single));
+			agree &= Math.abs(fromSweep.getEmpiricalMeanCohesion() - single.getEmpiricalMeanCohesion()) <= 1.0e-12
+					&& fromSweep.getClusterGraph().edges().equals(single.getClusterGraph().edges())
+					&& components(fromSweep) == components(single);
+		}
+		System.out.println("RESULT sweep " + sweepSeconds + " secs; separate builders " + separateSeconds
+				+ " secs; results agree " + agree + ": " + ((agree && sweepSeconds < separateSeconds) ? "PASS" : "FAIL"));
+	}
+
+	static NavigableMap<Integer, CohesionGraphBuilder<PointInSimplex>> separate(KNNDescent<PointInSimplex> knnd,
+			int[] ks) {
+		NavigableMap<Integer, CohesionGraphBuilder<PointInSimplex>> builders = new TreeMap<>();
+		for (int k : ks) {
+			builders.put(k, new CohesionGraphBuilder<>(knnd.getFriends(k)));
+		}
+		return builders;
+	}
+
+}
@@ -18,7 +18,6 @@ import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NavigableSet;
@@ -39,8 +38,11 @@ import com.google.common.graph.ImmutableGraph;
 import com.google.common.graph.ImmutableValueGraph;
 
 import algorithms.CohesionGraphBuilder;
+import algorithms.DescentPlan;
+import algorithms.DescentPlanner;
 import algorithms.KNNDescent;
 import utilities.PointInSimplex;
+import utilities.PointStore;
 
 /**
  * @author rwrd
@@ -49,6 +51,7 @@ import utilities.PointInSimplex;
 public class CornerBasedCohesionGraphTest {
 	int d, n, k, numSampledPairs;
 	Random g;
+	PointStore store; // rows of all the points
 	List<PointInSimplex> points;
 	KNNDescent<PointInSimplex> knnd;
 	CohesionGraphBuilder<PointInSimplex> cohere;
@@ -81,7 +84,7 @@ public class CornerBasedCohesionGraphTest {
 		for (int i = 0; i < this.d; i++) {
 			vec[i] = vec[i] / sum;
 		}
-		return new PointInSimplex(this.d, vec, boost);
+		return this.store.add(vec, boost);
 	};
 
 	/*
@@ -96,6 +99,7 @@ public class CornerBasedCohesionGraphTest {
 		this.k = numNeighbors;
 		this.numSampledPairs = Math.min(10000, (this.n * (this.n - 1)) / 2); // for testing cluster quality
 		g = new Random();
+		this.store = new PointStore(this.d, this.n);
 		/*
 		 * Generate the set of points, and the framework for K-nearest neighbor descent
 		 */
@@ -142,13 +146,19 @@ public class CornerBasedCohesionGraphTest {
 		System.out.println("Maximum available memory: " + (double) rt.maxMemory() / gB + " Gb.");
 		System.out.println("_/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ ");
 		System.out.println("KNN Descent applied to tilted Dirichlet samples of dimension " + test.d);
-		int maxRounds = 2 * test.knnd.getExpanderBasedRoundCount();
-		double sampleRate = 0.5;
 		System.out.println("n = " + test.n + " points; " + test.k + " nearest friends.");
+		/*
+		 * Engine, rounds and sampling rate come from a pilot run
+		 */
 		long start = System.currentTimeMillis();
-		test.knnd.kNNDescentAlgorithm(maxRounds, sampleRate);
+		DescentPlan plan = new DescentPlanner<>(test.points, test.klcmpr, test.k).plan();
+		System.out.println("Planning took " + (0.001 * (double) (System.currentTimeMillis() - start)) + " seconds.");
+		System.out.println(plan.explain());
+		System.out.println("_/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ ");
+		start = System.currentTimeMillis();
+		plan.execute(test.knnd);
 		long duration = System.currentTimeMillis() - start;
-		System.out.println("Total time for KNN descent: " + (0.001*(double)duration) + " seconds.");
+		System.out.println("Total time for k-NN graph: " + (0.001*(double)duration) + " seconds.");
 		System.out.println("Preparing focus graph and cohesion matrix.");
 		System.out.println("_/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ ");
 		start = System.currentTimeMillis();
@@ -319,10 +329,8 @@ public class CornerBasedCohesionGraphTest {
 	 */
 	ToIntBiFunction<PointInSimplex, PointInSimplex> clusterValidator = (x, y) -> {
 		boolean sameBooster = (Integer.compare(x.getTemplate(), y.getTemplate()) == 0); // fields of x, y
-		// Find connected component of the cluster graph which contains x.
-		Set<PointInSimplex> componentX = this.cohere.getStronglyConnectedComponents().nodes().stream()
-				.filter(component -> component.contains(x)).findFirst().orElse(new HashSet<>());
-		boolean sameComponent = componentX.contains(y);
+		// Component labels of the cluster graph: one lookup each for x and y
+		boolean sameComponent = this.cohere.getClustering().sameCluster(x, y);
 		int cornerBit = sameBooster ? 0 : 2;
 		int reportBit = sameComponent ? 0 : 1;
 		return cornerBit + reportBit;
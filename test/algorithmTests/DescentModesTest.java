@@ -0,0 +1,183 @@
+/**
+ * Compare update modes of KNNDescent on the same Dirichlet samples and the same
+ * seed: time, rounds, candidate evaluations, and recall of the true k-NN on a
+ * fixed sample of points (computed once, by brute force).
+ * Recall is also reported after each round, for time-to-recall curves.
+ * Modes: synchronous (default), load balanced, symmetric local join (sampled,
+ * or all pairs), asynchronous, and a merge
+ * of R independent replicas. Recall per CPU-second is reported for each.
+ * Then each single-run mode runs again until it reaches the recall of the
+ * synchronous run, for a comparison of evaluations at equal recall.
+ */
+package algorithmTests;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import algorithms.DescentReplicas;
+import algorithms.FriendTable;
+import algorithms.KNNDescent;
+import utilities.CancellationToken;
+import utilities.PointInSimplex;
+import utilities.PointStore;
+
+/**
+ * @author rwrd
+ *
+ */
+public class DescentModesTest {
+
+	int d, n, k;
+	long seed;
+	List<PointInSimplex> points;
+	int[] sample; // ids whose true k-NN are known
+	int[][] trueFriends;
+	Function<PointInSimplex, Comparator<PointInSimplex>> klcmpr = x -> x.getCprtr();
+
+	public DescentModesTest(int dimension, int numPoints, int numNeighbors, int sampleSize) {
+		this.d = dimension;
+		this.n = numPoints;
+		this.k = numNeighbors;
+		Random g = new Random();
+		this.seed = g.nextLong();
+		PointStore store = new PointStore(d, n);
+		for (int i = 0; i < n; i++) {
+			double[] vec = g.doubles(d).map(x -> -Math.log(x)).toArray(); // exponential random variables
+			double sum = Arrays.stream(vec).sum();
+			for (int j = 0; j < d; j++) {
+				vec[j] = vec[j] / sum;
+			} // normalize so sum is 1
+			store.add(vec, Integer.MIN_VALUE);
+		}
+		this.points = store.asList();
+		this.sample = g.ints(0, n).distinct().limit(sampleSize).toArray();
+		this.trueFriends = Arrays.stream(this.sample).parallel().mapToObj(x -> {
+			PointInSimplex px = this.points.get(x);
+			double[] div = new double[n];
+			Integer[] order = new Integer[n];
+			for (int y = 0; y < n; y++) {
+				div[y] = (y == x) ? Double.POSITIVE_INFINITY : PointInSimplex.divergence(px, this.points.get(y));
+				order[y] = y;
+			}
+			Arrays.sort(order, (y, z) -> Double.compare(div[y], div[z]));
+			return Arrays.stream(order).limit(k).mapToInt(Integer::intValue).toArray();
+		}).toArray(int[][]::new);
+	}
+
+	/*
+	 * Proportion of true k-NN of the sample points found by the descent
+	 */
+	double recall(FriendTable table) {
+		long found = 0L;
+		for (int i = 0; i < this.sample.length; i++) {
+			for (int y : this.trueFriends[i]) {
+				if (table.contains(this.sample[i], y)) {
+					found++;
+				}
+			}
+		}
+		return (double) found / (double) (this.sample.length * this.k);
+	}
+
+	/*
+	 * CPU time of the whole process, all threads, in seconds
+	 */
+	static double cpuSeconds() {
+		return 1.0e-9 * (double) ((com.sun.management.OperatingSystemMXBean) ManagementFactory
+				.getOperatingSystemMXBean()).getProcessCpuTime();
+	}
+
+	double report(String mode, double seconds, double cpu, long evaluations, FriendTable table) {
+		double recall = this.recall(table);
+		System.out.println("RESULT " + mode + ": " + seconds + " seconds, " + (float) cpu + " CPU-seconds, "
+				+ evaluations + " evaluations, recall " + recall + ", recall per CPU-second " + (float) (recall / cpu));
+		return recall;
+	}
+
+	/*
+	 * @return recall at the end
+	 */
+	double run(String mode, Consumer<KNNDescent<PointInSimplex>> setup) {
+		KNNDescent<PointInSimplex> knnd = new KNNDescent<>(this.points, this.klcmpr, this.k);
+		knnd.setSeed(this.seed);
+		setup.accept(knnd);
+		long start = System.currentTimeMillis();
+		double cpuStart = cpuSeconds();
+		knnd.setRoundListener(round -> System.out.println("CURVE " + mode + " round " + round + ": "
+				+ (0.001 * (double) (System.currentTimeMillis() - start)) + " seconds, recall "
+				+ this.recall(knnd.getFriendTable())));
+		knnd.setRecallSampleSize(0);
+		knnd.kNNDescentAlgorithm(2 * knnd.getExpanderBasedRoundCount(), 0.1);
+		double seconds = 0.001 * (double) (System.currentTimeMillis() - start);
+		return this.report(mode, seconds, cpuSeconds() - cpuStart, knnd.getEvaluationCount(),
+				knnd.getFriendTable());
+	}
+
+	/*
+	 * Run until recall reaches target, checked after each round
+	 */
+	void runToRecall(String mode, Consumer<KNNDescent<PointInSimplex>> setup, double target) {
+		KNNDescent<PointInSimplex> knnd = new KNNDescent<>(this.points, this.klcmpr, this.k);
+		knnd.setSeed(this.seed);
+		setup.accept(knnd);
+		CancellationToken reached = new CancellationToken();
+		knnd.setRoundListener(round -> {
+			if (this.recall(knnd.getFriendTable()) >= target) {
+				reached.cancel();
+			}
+		});
+		knnd.setRecallSampleSize(0);
+		int rounds = knnd.kNNDescentAlgorithm(4 * knnd.getExpanderBasedRoundCount(), 0.1, null, reached).getRounds();
+		System.out.println("EQUAL RECALL " + mode + ": " + (reached.isCancelled() ? "reached " : "did not reach ")
+				+ target + " in " + rounds + " rounds, " + knnd.getEvaluationCount() + " evaluations, recall "
+				+ this.recall(knnd.getFriendTable()));
+	}
+
+	void runReplicas(int replicas) {
+		DescentReplicas<PointInSimplex> descents = new DescentReplicas<>(this.points, this.klcmpr, this.k, replicas);
+		descents.setSeed(this.seed);
+		long start = System.currentTimeMillis();
+		double cpuStart = cpuSeconds();
+		KNNDescent<PointInSimplex> merged = descents.run(
+				(int) Math.ceil(Math.log((double) this.n) / Math.log((double) this.k)), 0.1);
+		double seconds = 0.001 * (double) (System.currentTimeMillis() - start);
+		this.report(replicas + " replicas", seconds, cpuSeconds() - cpuStart, descents.getTotalEvaluations(),
+				merged.getFriendTable());
+	}
+
+	/**
+	 * @param args d n k
+	 */
+	public static void main(String[] args) {
+		int d = Integer.parseInt(args[0]);
+		int n = Integer.parseInt(args[1]);
+		int k = Integer.parseInt(args[2]);
+		DescentModesTest test = new DescentModesTest(d, n, k, 100);
+		System.out.println("n = " + n + " Dirichlet samples of dimension " + d + "; " + k + " nearest friends.");
+		double target = test.run("synchronous", knnd -> {
+		});
+		test.run("load balanced", knnd -> knnd.setLoadBalancing(true));
+		test.run("symmetric", knnd -> knnd.setSymmetricUpdates(true));
+		test.run("symmetric, all pairs", knnd -> {
+			knnd.setSymmetricUpdates(true);
+			knnd.setJoinSampleRate(1.0);
+		});
+		test.run("asynchronous", knnd -> knnd.setAsynchronous(true));
+		test.runReplicas(2);
+		test.runReplicas(4);
+		test.runToRecall("synchronous", knnd -> {
+		}, target);
+		test.runToRecall("symmetric", knnd -> knnd.setSymmetricUpdates(true), target);
+		test.runToRecall("symmetric, all pairs", knnd -> {
+			knnd.setSymmetricUpdates(true);
+			knnd.setJoinSampleRate(1.0);
+		}, target);
+		test.runToRecall("asynchronous", knnd -> knnd.setAsynchronous(true), target);
+	}
+
+}
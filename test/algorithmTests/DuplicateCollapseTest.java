@@ -0,0 +1,131 @@
+/**
+ * Data with many exact duplicates: each of m distinct Dirichlet samples is
+ * repeated a random number of times (1 + Geometric).
+ * (1) KNN descent and cohesion on all n points, duplicates included.
+ * (2) Collapse duplicates, then KNN descent and cohesion on the representatives,
+ * weighted by multiplicity.
+ * Compare running times, mean cohesion and cluster counts.
+ * (3) The same with exact k-NN on both sides, where the empirical and
+ * theoretical mean cohesion must agree to RELATIVE_TOLERANCE. Cluster counts
+ * are reported but may differ: a representative's cohesion values are the
+ * averages over its copies, whose own values depend on their positions.
+ */
+package algorithmTests;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import algorithms.CohesionGraphBuilder;
+import algorithms.KNNDescent;
+import utilities.DuplicateCollapser;
+import utilities.PointInSimplex;
+import utilities.PointStore;
+
+/**
+ * @author rwrd
+ *
+ */
+public class DuplicateCollapseTest {
+	int d, m, k;
+	double repeatProb; // probability of one more copy
+	Random g;
+	List<PointInSimplex> points;
+	Function<PointInSimplex, Comparator<PointInSimplex>> klcmpr = x -> x.getCprtr();
+	static final double RELATIVE_TOLERANCE = 1.0e-9;
+
+	public DuplicateCollapseTest(int dimension, int numDistinct, int numNeighbors, double repeatProbability) {
+		this.d = dimension;
+		this.m = numDistinct;
+		this.k = numNeighbors;
+		this.repeatProb = repeatProbability;
+		g = new Random();
+		PointStore store = new PointStore(d, 2 * m);
+		for (int i = 0; i < m; i++) {
+			double[] vec = g.doubles(d).map(u -> -Math.log(u)).toArray();
+			double sum = Arrays.stream(vec).sum();
+			for (int j = 0; j < d; j++) {
+				vec[j] = vec[j] / sum;
+			}
+			int corner = g.nextInt(d);
+			vec[corner] += 1.0; // tilt towards a random corner
+			for (int j = 0; j < d; j++) {
+				vec[j] = vec[j] / 2.0;
+			}
+			do {
+				store.add(vec, corner); // distinct objects, identical contents
+			} while (g.nextDouble() < repeatProb);
+		}
+		this.points = new ArrayList<>(store.asList());
+		System.out.println(m + " distinct points, " + points.size() + " points in all.");
+	}
+
+	static void report(String label, CohesionGraphBuilder<PointInSimplex> cohere, long millis) {
+		int components = (cohere.getStronglyConnectedComponents() == null) ? 0
+				: (int) cohere.getStronglyConnectedComponents().nodes().stream().filter(c -> c.size() > 1).count();
+		System.out.println(label + ": " + (0.001 * (double) millis) + " secs; empirical mean cohesion "
+				+ cohere.getEmpiricalMeanCohesion() + "; theoretical " + cohere.getTheoreticalMeanCohesion() + "; "
+				+ components + " non-trivial components.");
+	}
+
+	static boolean agree(double a, double b) {
+		return Math.abs(a - b) <= RELATIVE_TOLERANCE * Math.max(Math.abs(a), Math.abs(b));
+	}
+
+	/**
+	 * @param args d, number of distinct points, k, repeat probability
+	 */
+	public static void main(String[] args) {
+		int d = Integer.parseInt(args[0]);
+		int m = Integer.parseInt(args[1]);
+		int k = Integer.parseInt(args[2]);
+		double q = Double.parseDouble(args[3]);
+		DuplicateCollapseTest test = new DuplicateCollapseTest(d, m, k, q);
+		/*
+		 * (1) Uncollapsed
+		 */
+		long start = System.currentTimeMillis();
+		KNNDescent<PointInSimplex> knnd = new KNNDescent<>(test.points, test.klcmpr, k);
+		knnd.kNNDescentAlgorithm(2 * knnd.getExpanderBasedRoundCount(), 0.1);
+		CohesionGraphBuilder<PointInSimplex> cohere = new CohesionGraphBuilder<>(knnd.getFriends());
+		long uncollapsed = System.currentTimeMillis() - start;
+		/*
+		 * (2) Collapsed, weighted by multiplicity
+		 */
+		start = System.currentTimeMillis();
+		DuplicateCollapser<PointInSimplex> collapser = new DuplicateCollapser<>(test.points, x -> x.getP(), 0.0);
+		Map<PointInSimplex, Integer> mult = collapser.getMultiplicity();
+		KNNDescent<PointInSimplex> knndW = new KNNDescent<>(collapser.getRepresentatives(), test.klcmpr, k);
+		knndW.setMultiplicities(x -> mult.get(x));
+		knndW.kNNDescentAlgorithm(2 * knndW.getExpanderBasedRoundCount(), 0.1);
+		CohesionGraphBuilder<PointInSimplex> cohereW = new CohesionGraphBuilder<>(knndW.getFriends(),
+				x -> mult.get(x), k);
+		long collapsed = System.currentTimeMillis() - start;
+		/*
+		 * (3) Exact k-NN, uncollapsed and collapsed
+		 */
+		KNNDescent<PointInSimplex> exact = new KNNDescent<>(test.points, test.klcmpr, k);
+		exact.exactSearch();
+		CohesionGraphBuilder<PointInSimplex> cohereExact = new CohesionGraphBuilder<>(exact.getFriends());
+		KNNDescent<PointInSimplex> exactW = new KNNDescent<>(collapser.getRepresentatives(), test.klcmpr, k);
+		exactW.setMultiplicities(x -> mult.get(x));
+		exactW.exactSearch();
+		CohesionGraphBuilder<PointInSimplex> cohereExactW = new CohesionGraphBuilder<>(exactW.getFriends(),
+				x -> mult.get(x), k);
+		System.out.println("_/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ _/ ");
+		report("Uncollapsed (" + test.points.size() + " points)", cohere, uncollapsed);
+		report("Collapsed (" + collapser.getRepresentatives().size() + " representatives)", cohereW, collapsed);
+		report("Exact uncollapsed", cohereExact, 0L);
+		report("Exact collapsed", cohereExactW, 0L);
+		boolean empirical = agree(cohereExact.getEmpiricalMeanCohesion(), cohereExactW.getEmpiricalMeanCohesion());
+		boolean theoretical = agree(cohereExact.getTheoreticalMeanCohesion(),
+				cohereExactW.getTheoreticalMeanCohesion());
+		System.out.println("RESULT exact k-NN: empirical mean cohesion agrees " + empirical
+				+ ", theoretical agrees " + theoretical + ": " + ((empirical && theoretical) ? "PASS" : "FAIL"));
+	}
+
+}
@@ -0,0 +1,153 @@
+/**
+ * Cluster labels of Dirichlet points, by CohesionGraphBuilder and by the fused
+ * labels-only FusedCohesionClustering, from the same KNN descent friends.
+ * From the friend sets, both sum tau over the same point order, so the two
+ * values must be equal; from the friend table, the order differs, so they need
+ * only agree to 1e-12. The partitions are compared through the points: the
+ * labels must correspond one to one.
+ * Reports the time of each, the heap in use after each, with the result held,
+ * and the bytes allocated by each, which bound its peak heap. The fused
+ * clustering from the friend table must allocate less than the builder.
+ * The fused clustering is then saved and loaded back over point ids.
+ */
+package algorithmTests;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import algorithms.Clustering;
+import algorithms.CohesionGraphBuilder;
+import algorithms.FriendTable;
+import algorithms.FusedCohesionClustering;
+import algorithms.KNNDescent;
+import utilities.PointInSimplex;
+import utilities.PointStore;
+
+/**
+ * @author rwrd
+ *
+ */
+public class FusedClusteringTest {
+
+	static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/*
+	 * Bytes allocated so far by all live threads, parallel workers included
+	 */
+	static long allocatedBytes() {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		return Arrays.stream(threads.getThreadAllocatedBytes(threads.getAllThreadIds())).filter(b -> b > 0L).sum();
+	}
+
+	/*
+	 * Do two labellings of the same points, each in its own point order, give
+	 * the same partition?
+	 */
+	static <V> boolean samePartition(List<V> points, int[] labels, List<V> otherPoints, int[] otherLabels,
+			int count) {
+		Map<V, Integer> otherLabelOf = new HashMap<>();
+		for (int x = 0; x < otherPoints.size(); x++) {
+			otherLabelOf.put(otherPoints.get(x), otherLabels[x]);
+		}
+		int[] image = new int[count]; // label -> other label + 1, 0 while unseen
+		Set<Integer> used = new HashSet<>();
+		for (int x = 0; x < points.size(); x++) {
+			int other = otherLabelOf.get(points.get(x));
+			if (image[labels[x]] == 0) {
+				if (!used.add(other)) {
+					return false;
+				}
+				image[labels[x]] = other + 1;
+			} else if (image[labels[x]] != other + 1) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param args d n k
+	 */
+	public static void main(String[] args) throws IOException {
+		int d = Integer.parseInt(args[0]);
+		int n = Integer.parseInt(args[1]);
+		int k = Integer.parseInt(args[2]);
+		Random g = new Random();
+		PointStore store = new PointStore(d, n);
+		for (int i = 0; i < n; i++) {
+			double[] vec = g.doubles(d).map(x -> -Math.log(x)).toArray(); // Dirichlet(1, ..., 1)
+			double sum = Arrays.stream(vec).sum();
+			store.add(Arrays.stream(vec).map(x -> x / sum).toArray(), i);
+		}
+		List<PointInSimplex> points = new ArrayList<>(store.asList());
+		KNNDescent<PointInSimplex> knnd = new KNNDescent<>(points, x -> x.getCprtr(), k);
+		knnd.kNNDescentAlgorithm(2 * knnd.getExpanderBasedRoundCount(), 0.1);
+		Map<PointInSimplex, NavigableSet<PointInSimplex>> friends = knnd.getFriends();
+		FriendTable table = knnd.getFriendTable();
+		knnd = null;
+		long base = usedHeap();
+		long allocated = allocatedBytes();
+		long start = System.currentTimeMillis();
+		CohesionGraphBuilder<PointInSimplex> builder = new CohesionGraphBuilder<>(friends);
+		long builderMillis = System.currentTimeMillis() - start;
+		long builderAllocated = allocatedBytes() - allocated;
+		long builderHeap = usedHeap() - base;
+		int[] builderLabels = builder.getComponentLabels();
+		List<PointInSimplex> builderPoints = builder.getFocus().getPoints();
+		double builderTau = builder.getEmpiricalMeanCohesion();
+		builder = null;
+		base = usedHeap();
+		allocated = allocatedBytes();
+		start = System.currentTimeMillis();
+		FusedCohesionClustering<PointInSimplex> fromTable = new FusedCohesionClustering<>(points, table);
+		long tableMillis = System.currentTimeMillis() - start;
+		long tableAllocated = allocatedBytes() - allocated;
+		long tableHeap = usedHeap() - base;
+		FusedCohesionClustering<PointInSimplex> fused = new FusedCohesionClustering<>(friends);
+		System.out.println("RESULT builder: " + builderMillis + " ms, " + (builderHeap >> 10) + " KiB held, "
+				+ (builderAllocated >> 10) + " KiB allocated, tau " + builderTau);
+		System.out.println("RESULT fused from friend sets: tau " + fused.getEmpiricalMeanCohesion() + "; same tau: "
+				+ (fused.getEmpiricalMeanCohesion() == builderTau) + "; " + fused.getComponentCount()
+				+ " components; same partition: " + samePartition(fused.getPoints(), fused.getLabels(), builderPoints,
+						builderLabels, fused.getComponentCount()));
+		boolean tableAgrees = Math.abs(fromTable.getEmpiricalMeanCohesion() - builderTau) <= 1.0e-12 * builderTau
+				&& samePartition(fromTable.getPoints(), fromTable.getLabels(), builderPoints, builderLabels,
+						fromTable.getComponentCount());
+		System.out.println("RESULT fused from friend table: " + tableMillis + " ms, " + (tableHeap >> 10)
+				+ " KiB held, " + (tableAllocated >> 10) + " KiB allocated, tau " + fromTable.getEmpiricalMeanCohesion()
+				+ "; tau and partition agree " + tableAgrees + ": "
+				+ ((tableAgrees && tableAllocated < builderAllocated) ? "PASS" : "FAIL"));
+		Path file = Files.createTempFile("clusters", ".bin");
+		file.toFile().deleteOnExit();
+		Clustering<PointInSimplex> clustering = fused.getClustering();
+		clustering.save(file, x -> x.getTemplate());
+		Clustering<Long> loaded = Clustering.load(file);
+		List<Long> ids = clustering.getPoints().stream().map(x -> (long) x.getTemplate())
+				.collect(Collectors.toList());
+		System.out.println("RESULT saved in " + Files.size(file) + " bytes; loaded " + loaded.getCount()
+				+ " clusters; same partition: "
+				+ samePartition(ids, clustering.getLabels(), loaded.getPoints(), loaded.getLabels(),
+						clustering.getCount()));
+		Files.deleteIfExists(file);
+	}
+
+}
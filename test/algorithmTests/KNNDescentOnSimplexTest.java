@@ -20,6 +20,8 @@ import java.util.stream.Stream;
 
 import algorithms.KNNDescent;
 import utilities.PointInSimplex;
+import utilities.PointStore;
+import utilities.TermCounter;
 
 /**
  * @author rwrd
@@ -29,6 +31,7 @@ public class KNNDescentOnSimplexTest {
 
 	int d, n, k;
 	Random g;
+	PointStore store; // rows of all the points
 	List<PointInSimplex> points;
 	KNNDescent<PointInSimplex> knnd;
 
@@ -41,7 +44,7 @@ public class KNNDescentOnSimplexTest {
 		for (int i = 0; i < this.d; i++) {
 			vec[i] = vec[i] / sum;
 		} // normalize so sum is 1
-		return new PointInSimplex(this.d, vec, Integer.MIN_VALUE);
+		return this.store.add(vec, Integer.MIN_VALUE);
 	};
 
 	/*
@@ -55,6 +58,7 @@ public class KNNDescentOnSimplexTest {
 		this.n = numPoints;
 		this.k = numNeighbors;
 		g = new Random();
+		this.store = new PointStore(this.d, this.n);
 		/*
 		 * Generate the set of points, and the framework for K-nearest neighbor descent
 		 */
@@ -71,7 +75,14 @@ public class KNNDescentOnSimplexTest {
 		int d = Integer.parseInt(args[0]);
 		int n = Integer.parseInt(args[1]);
 		int k = Integer.parseInt(args[2]);
+		boolean earlyAbandon = (args.length > 3) && Boolean.parseBoolean(args[3]); // optional 4th argument
+		boolean activeSet = (args.length > 4) && Boolean.parseBoolean(args[4]); // optional 5th argument
 		KNNDescentOnSimplexTest test = new KNNDescentOnSimplexTest(d, n, k);
+		TermCounter counter = new TermCounter();
+		if (earlyAbandon) {
+			test.knnd.setEarlyAbandon(PointInSimplex.earlyAbandonDivergence(counter), counter);
+		}
+		test.knnd.setActiveSetScheduling(activeSet);
 		Runtime rt = Runtime.getRuntime();
 		System.out.println("Java Runtime " + Runtime.version().toString());
 		System.out.println("Available processors: " + rt.availableProcessors());
@@ -81,7 +92,11 @@ public class KNNDescentOnSimplexTest {
 		int maxRounds = 2 * test.knnd.getExpanderBasedRoundCount();
 		double sampleRate = 0.1;
 		System.out.println("n = " + test.n + " points; " + test.k + " nearest friends.");
+		long start = System.currentTimeMillis();
 		test.knnd.kNNDescentAlgorithm(maxRounds, sampleRate);
+		System.out.println("Total time for KNN descent: " + (0.001 * (double) (System.currentTimeMillis() - start))
+				+ " seconds" + (earlyAbandon ? ", with early abandon" : "")
+				+ (activeSet ? ", with active-set scheduling." : "."));
 		/*
 		 * Quality of approximation
 		 */
@@ -89,6 +104,9 @@ public class KNNDescentOnSimplexTest {
 		System.out.println("Proportion of true k-NN found: sample of size " + ss);
 		DoubleSummaryStatistics quality = test.knnd.qualityAssessment(ss);
 		System.out.println(quality.toString());
+		if (earlyAbandon) {
+			System.out.println("Brute force recall check: " + counter.toString());
+		}
 
 	}
 
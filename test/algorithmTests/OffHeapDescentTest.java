@@ -0,0 +1,156 @@
+/**
+ * Run KNN descent twice on the same Dirichlet samples: first with vectors and
+ * friend rows on the Java heap, then with both off the heap. Reports time, heap
+ * in use, garbage collection time, off-heap bytes, and agreement of the two
+ * friend tables.
+ * Optional 4th argument: a file, which makes the off-heap friend rows
+ * memory-mapped rather than direct.
+ */
+package algorithmTests;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+
+import algorithms.FriendTable;
+import algorithms.KNNDescent;
+import utilities.OffHeapArena;
+import utilities.PointInSimplex;
+import utilities.PointStore;
+
+/**
+ * @author rwrd
+ *
+ */
+public class OffHeapDescentTest {
+
+	int d, n, k;
+	double[][] vectors;
+	Function<PointInSimplex, Comparator<PointInSimplex>> klcmpr = x -> x.getCprtr();
+
+	public OffHeapDescentTest(int dimension, int numPoints, int numNeighbors) {
+		this.d = dimension;
+		this.n = numPoints;
+		this.k = numNeighbors;
+		Random g = new Random();
+		this.vectors = new double[n][];
+		for (int i = 0; i < n; i++) {
+			double[] vec = g.doubles(d).map(x -> -Math.log(x)).toArray(); // exponential random variables
+			double sum = Arrays.stream(vec).sum();
+			for (int j = 0; j < d; j++) {
+				vec[j] = vec[j] / sum;
+			} // normalize so sum is 1
+			this.vectors[i] = vec;
+		}
+	}
+
+	static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	static long gcMillis() {
+		long total = 0L;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(0L, bean.getCollectionTime());
+		}
+		return total;
+	}
+
+	/*
+	 * Descent on points from store; prints statistics and returns the friend rows
+	 * as plain arrays, so they survive release of off-heap memory
+	 */
+	int[][] run(String label, PointStore store, Path file, boolean offHeap) {
+		for (int i = 0; i < n; i++) {
+			store.add(this.vectors[i], Integer.MIN_VALUE);
+		}
+		List<PointInSimplex> points = store.asList();
+		KNNDescent<PointInSimplex> knnd = new KNNDescent<>(points, klcmpr, k);
+		if (offHeap) {
+			knnd.useOffHeapStorage(file);
+		}
+		long heapBefore = usedHeap();
+		long gcBefore = gcMillis();
+		long start = System.currentTimeMillis();
+		knnd.kNNDescentAlgorithm(2 * knnd.getExpanderBasedRoundCount(), 0.1);
+		long elapsed = System.currentTimeMillis() - start;
+		long gc = gcMillis() - gcBefore;
+		long offHeapBytes = knnd.offHeapBytes();
+		long heapDelta = usedHeap() - heapBefore;
+		System.out.println(label + ": " + (0.001 * elapsed) + " seconds; GC " + gc + " ms; heap growth "
+				+ (heapDelta / 1024L) + " KB; off-heap friend rows " + (offHeapBytes / 1024L) + " KB");
+		FriendTable table = knnd.getFriendTable();
+		int[][] rows = new int[n][];
+		for (int x = 0; x < n; x++) {
+			rows[x] = new int[table.size(x)];
+			table.copyRow(x, rows[x]);
+		}
+		knnd.releaseOffHeapStorage();
+		if (offHeap) {
+			System.out.println("Friend row read after release: " + readAfterRelease(() -> table.get(0, 0)));
+		}
+		return rows;
+	}
+
+	/*
+	 * A read of released off-heap memory must throw, not crash the JVM
+	 */
+	static String readAfterRelease(Runnable read) {
+		try {
+			read.run();
+			return "no exception (heap storage)";
+		} catch (IllegalStateException e) {
+			return "IllegalStateException: " + e.getMessage();
+		}
+	}
+
+	/**
+	 * @param args d n k [file]
+	 */
+	public static void main(String[] args) {
+		int d = Integer.parseInt(args[0]);
+		int n = Integer.parseInt(args[1]);
+		int k = Integer.parseInt(args[2]);
+		Path file = (args.length > 3) ? Paths.get(args[3]) : null;
+		OffHeapDescentTest test = new OffHeapDescentTest(d, n, k);
+		System.out.println("Java Runtime " + Runtime.version().toString());
+		System.out.println("n = " + n + " Dirichlet samples of dimension " + d + "; " + k + " nearest friends.");
+		int[][] heapRows = test.run("Heap", new PointStore(d, n), null, false);
+		int[][] offHeapRows;
+		PointStore store;
+		try (OffHeapArena arena = new OffHeapArena()) {
+			store = (file == null) ? PointStore.offHeap(arena, d, n)
+					: PointStore.mapped(arena, Paths.get(file.toString() + ".points"), d, n);
+			System.out.println("Off-heap vectors: " + (arena.getBytesAllocated() / 1024L) + " KB");
+			offHeapRows = test.run((file == null) ? "Direct" : "Mapped", store, file, true);
+		}
+		System.out.println("Point read after release: " + readAfterRelease(() -> store.get(0).getP()));
+		/*
+		 * Random initial friends differ between the runs, so compare overlap
+		 */
+		long common = 0L, total = 0L;
+		for (int x = 0; x < n; x++) {
+			int[] a = heapRows[x].clone(), b = offHeapRows[x].clone();
+			Arrays.sort(a);
+			Arrays.sort(b);
+			total += a.length;
+			for (int y : a) {
+				if (Arrays.binarySearch(b, y) >= 0) {
+					common++;
+				}
+			}
+		}
+		System.out.println("Fraction of heap friends also found off-heap: " + ((double) common / (double) total));
+	}
+
+}
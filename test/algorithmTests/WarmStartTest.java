@@ -0,0 +1,127 @@
+/**
+ * KNN descent after data drift: points are perturbed multiplicatively, a few
+ * are removed and a few new ones added, and the order of points is shuffled.
+ * The drifted points are then solved twice: from random friends, and warm
+ * started from the friend graph saved by a run on the original points, matched
+ * by stable id (kept here in the template field). Compares rounds, candidate
+ * evaluations and recall, estimated by brute force on RECALL_SAMPLE points:
+ * the warm start must reach the recall of the cold start, within
+ * RECALL_TOLERANCE. Friend clustering is computed exactly (sampling rate 1),
+ * so that the stopping rule adds no noise of its own to the comparison.
+ */
+package algorithmTests;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import algorithms.DescentSummary;
+import algorithms.KNNDescent;
+import utilities.PointInSimplex;
+import utilities.PointStore;
+
+/**
+ * @author rwrd
+ *
+ */
+public class WarmStartTest {
+
+	static final int RECALL_SAMPLE = 500;
+	static final double RECALL_TOLERANCE = 0.01;
+
+	static double[] normalize(double[] vec) {
+		double sum = Arrays.stream(vec).sum();
+		for (int j = 0; j < vec.length; j++) {
+			vec[j] = vec[j] / sum;
+		}
+		return vec;
+	}
+
+	static List<PointInSimplex> store(int d, List<double[]> vectors, List<Integer> ids) {
+		PointStore store = new PointStore(d, vectors.size());
+		for (int i = 0; i < vectors.size(); i++) {
+			store.add(vectors.get(i), ids.get(i));
+		}
+		return store.asList();
+	}
+
+	static double report(String label, DescentSummary summary) {
+		System.out.println("RESULT " + label + ": " + summary.getRounds() + " rounds, " + summary.getEvaluations()
+				+ " evaluations, " + (0.001 * summary.getElapsedMillis()) + " seconds, estimated recall "
+				+ summary.getEstimatedRecall() + ", stopped: " + summary.getStopReason());
+		return summary.getEstimatedRecall();
+	}
+
+	/**
+	 * @param args d n k drift; drift is the standard deviation of the log of each
+	 *             probability's multiplicative perturbation
+	 */
+	public static void main(String[] args) throws IOException {
+		int d = Integer.parseInt(args[0]);
+		int n = Integer.parseInt(args[1]);
+		int k = Integer.parseInt(args[2]);
+		double drift = Double.parseDouble(args[3]);
+		Random g = new Random();
+		List<double[]> vectors = new ArrayList<>(n);
+		List<Integer> ids = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			vectors.add(normalize(g.doubles(d).map(x -> -Math.log(x)).toArray())); // Dirichlet(1, ..., 1)
+			ids.add(i);
+		}
+		Path file = Files.createTempFile("friends", ".graph");
+		file.toFile().deleteOnExit();
+		List<PointInSimplex> before = store(d, vectors, ids);
+		KNNDescent<PointInSimplex> knnd = new KNNDescent<>(before, x -> x.getCprtr(), k);
+		knnd.setRecallSampleSize(RECALL_SAMPLE);
+		int maxRounds = 2 * knnd.getExpanderBasedRoundCount();
+		report("before drift", knnd.kNNDescentAlgorithm(maxRounds, 1.0));
+		knnd.saveGraph(file, x -> x.getTemplate());
+		/*
+		 * Drift: perturb, remove every 50th point, add as many new ones, shuffle
+		 */
+		List<double[]> driftedVectors = new ArrayList<>(n);
+		List<Integer> driftedIds = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			if (i % 50 == 49) {
+				driftedVectors.add(normalize(g.doubles(d).map(x -> -Math.log(x)).toArray()));
+				driftedIds.add(n + i);
+			} else {
+				double[] vec = vectors.get(i).clone();
+				for (int j = 0; j < d; j++) {
+					vec[j] *= Math.exp(drift * g.nextGaussian());
+				}
+				driftedVectors.add(normalize(vec));
+				driftedIds.add(i);
+			}
+		}
+		List<Integer> order = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			order.add(i);
+		}
+		Collections.shuffle(order, g);
+		List<double[]> shuffledVectors = new ArrayList<>(n);
+		List<Integer> shuffledIds = new ArrayList<>(n);
+		for (int i : order) {
+			shuffledVectors.add(driftedVectors.get(i));
+			shuffledIds.add(driftedIds.get(i));
+		}
+		List<PointInSimplex> after = store(d, shuffledVectors, shuffledIds);
+		System.out.println("Drift " + drift + "; " + (n / 50) + " points replaced; order shuffled.");
+		knnd = new KNNDescent<>(after, x -> x.getCprtr(), k);
+		knnd.setRecallSampleSize(RECALL_SAMPLE);
+		double coldRecall = report("cold start", knnd.kNNDescentAlgorithm(maxRounds, 1.0));
+		knnd = new KNNDescent<>(after, x -> x.getCprtr(), k);
+		knnd.setRecallSampleSize(RECALL_SAMPLE);
+		knnd.warmStart(file, x -> x.getTemplate());
+		double warmRecall = report("warm start", knnd.kNNDescentAlgorithm(maxRounds, 1.0));
+		System.out.println("RESULT warm start recall " + warmRecall + " against cold " + coldRecall + ": "
+				+ ((warmRecall >= coldRecall - RECALL_TOLERANCE) ? "PASS" : "FAIL"));
+		Files.deleteIfExists(file);
+	}
+
+}
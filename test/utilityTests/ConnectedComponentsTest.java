@@ -0,0 +1,91 @@
+/*
+ * Parallel union-find components of random sparse undirected graphs, against
+ * breadth first search. Edges are chosen so there are a few large components,
+ * many small ones, and isolated vertices.
+ */
+package utilityTests;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Random;
+
+import utilities.ConnectedComponents;
+import utilities.IntGraph;
+
+public class ConnectedComponentsTest {
+
+	/*
+	 * Both arcs of m random edges among n vertices, kept in CSR rows
+	 */
+	static IntGraph randomGraph(int n, int m, Random g) {
+		int[] u = new int[m], v = new int[m];
+		int[] offsets = new int[n + 1];
+		for (int e = 0; e < m; e++) {
+			u[e] = g.nextInt(n);
+			v[e] = (g.nextInt(100) == 0) ? g.nextInt(n) // a few long edges join local clumps
+					: (u[e] + 1 + g.nextInt(Math.min(n - 1, 50))) % n; // local edges make many components
+			offsets[u[e] + 1]++;
+			offsets[v[e] + 1]++;
+		}
+		Arrays.parallelPrefix(offsets, Integer::sum);
+		int[] fill = Arrays.copyOf(offsets, n);
+		int[] targets = new int[2 * m];
+		for (int e = 0; e < m; e++) {
+			targets[fill[u[e]]++] = v[e];
+			targets[fill[v[e]]++] = u[e];
+		}
+		return new IntGraph(offsets, targets);
+	}
+
+	/*
+	 * Labels in order of smallest vertex, by breadth first search
+	 */
+	static int[] bfsLabels(IntGraph graph) {
+		int n = graph.size();
+		int[] label = new int[n];
+		Arrays.fill(label, -1);
+		int c = 0;
+		ArrayDeque<Integer> queue = new ArrayDeque<>();
+		for (int s = 0; s < n; s++) {
+			if (label[s] >= 0) {
+				continue;
+			}
+			label[s] = c;
+			queue.add(s);
+			while (!queue.isEmpty()) {
+				int x = queue.poll();
+				for (int a = graph.start(x); a < graph.end(x); a++) {
+					int y = graph.target(a);
+					if (label[y] < 0) {
+						label[y] = c;
+						queue.add(y);
+					}
+				}
+			}
+			c++;
+		}
+		return label;
+	}
+
+	/**
+	 * @param args n trials
+	 */
+	public static void main(String[] args) {
+		int n = Integer.parseInt(args[0]);
+		int trials = Integer.parseInt(args[1]);
+		Random g = new Random();
+		for (int t = 0; t < trials; t++) {
+			int m = (int) ((0.2 + 2.0 * g.nextDouble()) * n / 2.0); // below and above the threshold of a giant component
+			IntGraph graph = randomGraph(n, m, g);
+			long start = System.currentTimeMillis();
+			ConnectedComponents components = new ConnectedComponents(graph);
+			long elapsed = System.currentTimeMillis() - start;
+			int[] expected = bfsLabels(graph);
+			int largest = Arrays.stream(components.sizes()).max().orElse(0);
+			System.out.println("n = " + n + ", m = " + m + ": " + components.getCount() + " components, largest "
+					+ largest + ", in " + elapsed + " ms; agrees with breadth first search: "
+					+ Arrays.equals(expected, components.getLabels()));
+		}
+	}
+
+}
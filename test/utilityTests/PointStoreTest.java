@@ -0,0 +1,100 @@
+/**
+ * Compare stand-alone PointInSimplex objects with flyweights in a columnar
+ * PointStore: heap per point, and time for random divergences.
+ * Both kinds of point are built from the same Dirichlet(1, ..., 1) vectors.
+ */
+package utilityTests;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import utilities.PointInSimplex;
+import utilities.PointStore;
+
+/**
+ * @author rwrd
+ *
+ */
+public class PointStoreTest {
+
+	int d, n;
+	Random g;
+	double[][] vectors;
+
+	public PointStoreTest(int dimension, int numPoints) {
+		this.d = dimension;
+		this.n = numPoints;
+		g = new Random();
+		Supplier<double[]> dirichletGenerator = () -> {
+			double[] vec = g.doubles(d).map(x -> -Math.log(x)).toArray(); // exponential random variables
+			double sum = Arrays.stream(vec).sum();
+			for (int i = 0; i < d; i++) {
+				vec[i] = vec[i] / sum;
+			} // normalize so sum is 1
+			return vec;
+		};
+		this.vectors = new double[n][];
+		for (int i = 0; i < n; i++) {
+			this.vectors[i] = dirichletGenerator.get();
+		}
+	}
+
+	static long usedHeap() {
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	/*
+	 * Sum of m divergences between pseudo-randomly chosen pairs
+	 */
+	double timeDivergences(PointInSimplex[] points, int m) {
+		long start = System.currentTimeMillis();
+		double sum = 0.0;
+		for (int i = 0; i < m; i++) {
+			sum += PointInSimplex.divergence(points[Math.floorMod(i * 7919, n)], points[Math.floorMod(i * 104729 + 1, n)]);
+		}
+		double secs = 0.001 * (double) (System.currentTimeMillis() - start);
+		System.out.println("   " + m + " divergences in " + secs + " seconds (checksum " + sum + ")");
+		return secs;
+	}
+
+	/**
+	 * @param args d, n, number of divergences to time
+	 */
+	public static void main(String[] args) {
+		int d = Integer.parseInt(args[0]);
+		int n = Integer.parseInt(args[1]);
+		int m = Integer.parseInt(args[2]);
+		PointStoreTest test = new PointStoreTest(d, n);
+		/*
+		 * Stand-alone points
+		 */
+		long before = usedHeap();
+		PointInSimplex[] standAlone = new PointInSimplex[n];
+		for (int i = 0; i < n; i++) {
+			standAlone[i] = new PointInSimplex(d, test.vectors[i], Integer.MIN_VALUE);
+		}
+		long after = usedHeap();
+		System.out.println("Stand-alone points: " + (double) (after - before) / (double) n + " bytes per point.");
+		test.timeDivergences(standAlone, m);
+		standAlone = null;
+		/*
+		 * Columnar store
+		 */
+		before = usedHeap();
+		PointStore store = new PointStore(d, n);
+		for (int i = 0; i < n; i++) {
+			store.add(test.vectors[i], Integer.MIN_VALUE);
+		}
+		after = usedHeap();
+		System.out.println("PointStore flyweights: " + (double) (after - before) / (double) n + " bytes per point.");
+		List<PointInSimplex> stored = store.asList();
+		test.timeDivergences(stored.toArray(new PointInSimplex[n]), m);
+	}
+
+}
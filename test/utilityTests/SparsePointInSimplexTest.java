@@ -0,0 +1,94 @@
+/**
+ * (1) On small examples, sparse-merge divergence agrees with the dense formula
+ * applied to the smoothed vectors.
+ * (2) Timing of sparse divergence at large d, with few nonzero entries.
+ */
+package utilityTests;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import utilities.SparsePointInSimplex;
+
+/**
+ * @author rwrd
+ *
+ */
+public class SparsePointInSimplexTest {
+
+	Random g;
+	int d, nnz;
+
+	public SparsePointInSimplexTest(int dimension, int nonZeros) {
+		this.d = dimension;
+		this.nnz = nonZeros;
+		g = new Random();
+	}
+
+	/*
+	 * nnz distinct random indices, with Exponential(1) weights
+	 */
+	SparsePointInSimplex randomPoint() {
+		int[] idx = g.ints(0, d).distinct().limit(nnz).toArray();
+		double[] w = g.doubles(nnz).map(u -> -Math.log(u)).toArray();
+		return new SparsePointInSimplex(d, idx, w, Integer.MIN_VALUE);
+	}
+
+	/*
+	 * Dense Kullback-Liebler divergence, for checking
+	 */
+	static double denseDivergence(double[] x, double[] y) {
+		double s = 0.0;
+		for (int i = 0; i < x.length; i++) {
+			s += x[i] * Math.log(x[i] / y[i]);
+		}
+		return s;
+	}
+
+	/**
+	 * @param args d, nnz, number of pairs to time
+	 */
+	public static void main(String[] args) {
+		int d = Integer.parseInt(args[0]);
+		int nnz = Integer.parseInt(args[1]);
+		int pairs = Integer.parseInt(args[2]);
+		/*
+		 * Agreement with the dense formula on a small example
+		 */
+		SparsePointInSimplexTest small = new SparsePointInSimplexTest(50, 5);
+		double maxError = 0.0;
+		for (int i = 0; i < 1000; i++) {
+			SparsePointInSimplex x = small.randomPoint();
+			SparsePointInSimplex y = small.randomPoint();
+			double[] xd = x.toDense();
+			double[] yd = y.toDense();
+			maxError = Math.max(maxError,
+					Math.abs(SparsePointInSimplex.divergence(x, y) - denseDivergence(xd, yd)));
+		}
+		System.out.println("d = 50, nnz = 5: max |sparse - dense| divergence over 1000 pairs = " + maxError);
+		/*
+		 * Timing at scale
+		 */
+		SparsePointInSimplexTest test = new SparsePointInSimplexTest(d, nnz);
+		SparsePointInSimplex[] points = IntStream.range(0, 1000).mapToObj(i -> test.randomPoint())
+				.toArray(SparsePointInSimplex[]::new);
+		System.out.println("d = " + d + ", nnz = " + nnz + ": stored doubles per point = " + (2 * nnz)
+				+ " sparse versus " + (2 * d) + " dense.");
+		double sum = 0.0;
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < pairs; i++) {
+			sum += SparsePointInSimplex.divergence(points[pick(i, 1000)], points[pick(i + 1, 1000)]);
+		}
+		double secs = 0.001 * (double) (System.currentTimeMillis() - start);
+		System.out.println(pairs + " sparse divergences in " + secs + " seconds; mean divergence " + sum / pairs);
+		System.out.println("Sample point stores " + points[0].getNonZeroCount() + " entries; sum of probabilities = "
+				+ (Arrays.stream(points[0].getValues()).sum()
+						+ (d - points[0].getNonZeroCount()) * points[0].getEps()));
+	}
+
+	private static int pick(int i, int m) {
+		return Math.floorMod(i * 7919, m);
+	}
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Strong components of random digraphs: iterative Tarjan against trimming plus
+ * forward-backward search, which must give the same labels. The condensed
+ * graph must be acyclic, which is checked by peeling sources (Kahn's method).
+ */
+package utilityTests;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import utilities.IntGraph;
+import utilities.StrongComponents;
+
+public class StrongComponentsTest {
+
+	/*
+	 * Each vertex gets a random number of out-neighbors, up to maxDegree, mostly
+	 * near it in id order; some vertices get none
+	 */
+	static IntGraph randomDigraph(int n, int maxDegree, Random g) {
+		int[] offsets = new int[n + 1];
+		int[][] rows = new int[n][];
+		for (int x = 0; x < n; x++) {
+			rows[x] = new int[g.nextInt(maxDegree + 1)];
+			for (int j = 0; j < rows[x].length; j++) {
+				rows[x][j] = (g.nextInt(20) == 0) ? g.nextInt(n) : Math.floorMod(x + g.nextInt(41) - 20, n);
+			}
+			offsets[x + 1] = offsets[x] + rows[x].length;
+		}
+		int[] targets = new int[offsets[n]];
+		for (int x = 0; x < n; x++) {
+			System.arraycopy(rows[x], 0, targets, offsets[x], rows[x].length);
+		}
+		return new IntGraph(offsets, targets);
+	}
+
+	static boolean acyclic(IntGraph dag) {
+		int n = dag.size();
+		int[] inDegree = new int[n];
+		for (int a = 0; a < dag.arcCount(); a++) {
+			inDegree[dag.target(a)]++;
+		}
+		int[] queue = new int[n];
+		int head = 0, tail = 0;
+		for (int c = 0; c < n; c++) {
+			if (inDegree[c] == 0) {
+				queue[tail++] = c;
+			}
+		}
+		while (head < tail) {
+			int c = queue[head++];
+			for (int a = dag.start(c); a < dag.end(c); a++) {
+				if (--inDegree[dag.target(a)] == 0) {
+					queue[tail++] = dag.target(a);
+				}
+			}
+		}
+		return tail == n;
+	}
+
+	/**
+	 * @param args n maxDegree trials
+	 */
+	public static void main(String[] args) {
+		int n = Integer.parseInt(args[0]);
+		int maxDegree = Integer.parseInt(args[1]);
+		int trials = Integer.parseInt(args[2]);
+		Random g = new Random();
+		for (int t = 0; t < trials; t++) {
+			IntGraph graph = randomDigraph(n, maxDegree, g);
+			long start = System.currentTimeMillis();
+			StrongComponents tarjan = new StrongComponents(graph, false);
+			long tarjanMillis = System.currentTimeMillis() - start;
+			start = System.currentTimeMillis();
+			StrongComponents parallel = new StrongComponents(graph, true);
+			long parallelMillis = System.currentTimeMillis() - start;
+			int largest = 0;
+			for (int c = 0; c < parallel.getCount(); c++) {
+				largest = Math.max(largest, parallel.size(c));
+			}
+			System.out.println("n = " + n + ", " + graph.arcCount() + " arcs: " + parallel.getCount()
+					+ " components, largest " + largest + "; Tarjan " + tarjanMillis + " ms, parallel "
+					+ parallelMillis + " ms; same labels: " + Arrays.equals(tarjan.getLabels(), parallel.getLabels())
+					+ "; condensed graph has " + parallel.getCondensation().arcCount() + " arcs, acyclic: "
+					+ acyclic(parallel.getCondensation()));
+		}
+	}
+
+}